@@ -0,0 +1,123 @@
+package it.sauronsoftware.jave;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A package-private cache of the {@link FFMPEGCapabilities} of each ffmpeg
+ * executable, keyed by path, size and last modification time, so a replaced
+ * executable is probed again. If the {@code jave.capabilities.dir} system
+ * property names a directory, the capabilities are also persisted there as
+ * JSON and survive jvm restarts.
+ */
+class CapabilitiesCache {
+    private static final Logger log = LoggerFactory.getLogger(CapabilitiesCache.class);
+
+    private static final ConcurrentHashMap<String, FFMPEGCapabilities> CACHE = new ConcurrentHashMap<String, FFMPEGCapabilities>();
+
+    private CapabilitiesCache() {
+    }
+
+    /**
+     * Returns the cache key of a ffmpeg executable.
+     *
+     * @param executablePath The ffmpeg executable path.
+     * @return The key.
+     */
+    static String key(String executablePath) {
+        File exe = new File(executablePath);
+        return exe.getAbsolutePath() + "|" + exe.length() + "|" + exe.lastModified();
+    }
+
+    /**
+     * Returns the cached capabilities of a ffmpeg executable, looking for a
+     * persisted copy if none is in memory.
+     *
+     * @param key The executable key.
+     * @return The capabilities, or null if they must be probed.
+     */
+    static FFMPEGCapabilities get(String key) {
+        FFMPEGCapabilities capabilities = CACHE.get(key);
+        if (capabilities == null) {
+            capabilities = load(key);
+            if (capabilities != null) {
+                CACHE.putIfAbsent(key, capabilities);
+            }
+        }
+        return capabilities;
+    }
+
+    /**
+     * Caches the probed capabilities of a ffmpeg executable.
+     *
+     * @param key          The executable key.
+     * @param capabilities The capabilities.
+     */
+    static void put(String key, FFMPEGCapabilities capabilities) {
+        CACHE.put(key, capabilities);
+        store(key, capabilities);
+    }
+
+    /**
+     * Drops all the cached capabilities, in memory and on disk.
+     */
+    static void clear() {
+        for (String key : CACHE.keySet()) {
+            File file = file(key);
+            if (file != null) {
+                file.delete();
+            }
+        }
+        CACHE.clear();
+    }
+
+    private static File file(String key) {
+        String dir = System.getProperty("jave.capabilities.dir");
+        if (dir == null || dir.length() == 0) {
+            return null;
+        }
+        return new File(dir, "capabilities-" + Integer.toHexString(key.hashCode()) + ".json");
+    }
+
+    private static FFMPEGCapabilities load(String key) {
+        File file = file(key);
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+        try {
+            String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            int newline = text.indexOf('\n');
+            if (newline < 0 || !key.equals(text.substring(0, newline))) {
+                return null;
+            }
+            return FFMPEGCapabilities.fromJSON(text.substring(newline + 1));
+        } catch (Exception e) {
+            log.warn("cannot read ffmpeg capabilities from " + file.getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    private static void store(String key, FFMPEGCapabilities capabilities) {
+        File file = file(key);
+        if (file == null) {
+            return;
+        }
+        try {
+            File dir = file.getParentFile();
+            dir.mkdirs();
+            File tmp = File.createTempFile("capabilities", ".tmp", dir);
+            Files.write(tmp.toPath(), (key + "\n" + capabilities.toJSON()).getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.warn("cannot store ffmpeg capabilities to " + file.getAbsolutePath(), e);
+        }
+    }
+
+}
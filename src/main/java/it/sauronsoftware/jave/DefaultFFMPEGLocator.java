@@ -22,12 +22,27 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.jar.JarEntry;
+import java.util.zip.CRC32;
 
 /**
  * The default ffmpeg executable locator, which exports on disk the ffmpeg
  * executable bundled with the library distributions. It should work both for
  * windows and many linux distributions. If it doesn't, try compiling your own
  * ffmpeg executable and plug it in JAVE with a custom {@link FFMPEGLocator}.
+ * <p>
+ * The ffmpeg.home system property, the directory of an installed ffmpeg
+ * executable, is read once per jvm, the first time an executable is needed:
+ * set it before the first encoding.
  *
  * @author Carlo Pelliccia
  */
@@ -42,15 +57,45 @@ public class DefaultFFMPEGLocator extends FFMPEGLocator {
     private static final String MAC = "mac";
 
     /**
-     * The ffmpeg executable file path.
+     * The buffer size used to export the bundled files.
      */
-    private String path;
+    private static final int COPY_BUFFER_SIZE = 1024 * 1024;
 
     /**
-     * It builds the default FFMPEGLocator, exporting the ffmpeg executable on a
-     * temp file.
+     * The shared instance, see {@link DefaultFFMPEGLocator#getInstance()}.
+     */
+    private static final DefaultFFMPEGLocator INSTANCE = new DefaultFFMPEGLocator();
+
+    /**
+     * The ffmpeg executable file path, null until it has been exported: the
+     * export on disk runs once per jvm, the first time a path is requested,
+     * and again on the next request if it fails.
+     */
+    private static volatile String path;
+
+    /**
+     * It builds the default FFMPEGLocator. The ffmpeg executable is exported
+     * on a temp file once per jvm, on first use, and shared by all the
+     * instances.
      */
     public DefaultFFMPEGLocator() {
+    }
+
+    /**
+     * Returns the shared locator instance.
+     *
+     * @return The shared locator.
+     */
+    public static DefaultFFMPEGLocator getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Private utility. It exports the bundled ffmpeg executable on disk.
+     *
+     * @return The ffmpeg executable file path.
+     */
+    private static String exportExecutable() {
         // Windows?
         boolean isWindows;
         boolean isMac = false;
@@ -61,6 +106,8 @@ public class DefaultFFMPEGLocator extends FFMPEGLocator {
             isWindows = false;
             isMac = os.contains(MAC);
         }
+        String suffix = isWindows ? ".exe" : isMac ? "-mac" : "";
+        String resource = "bin/ffmpeg" + suffix;
         // Temp dir?
         File temp = null;
         String ffmpegHome = System.getProperty("ffmpeg.home");
@@ -68,20 +115,27 @@ public class DefaultFFMPEGLocator extends FFMPEGLocator {
             log.info("ffmpeg.home: " + ffmpegHome);
             temp = new File(ffmpegHome);
         }
+        boolean bundled = DefaultFFMPEGLocator.class.getClassLoader().getResource(resource) != null;
         if (temp == null || !temp.exists()) {
-            temp = new File(System.getProperty("java.io.tmpdir"), "jave-"
-                    + MYEX_EVERSION);
+            temp = new File(System.getProperty("java.io.tmpdir"), "jave-" + MYEX_EVERSION);
+            if (bundled) {
+                // The bundled executable goes in a directory named after its
+                // checksum, so a stale export of another version is never used.
+                temp = new File(temp, BundledFile.of(resource).getKey());
+            }
             log.info("ffmpeg.home does not exists, use default bin path: " + temp.getAbsolutePath());
         }
         if (!temp.exists()) {
             temp.mkdirs();
-            temp.deleteOnExit();
         }
         // ffmpeg executable export on disk.
-        String suffix = isWindows ? ".exe" : isMac ? "-mac" : "";
         File exe = new File(temp, "ffmpeg" + suffix);
         if (!exe.exists() || exe.length() <= 0) {
-            copyFile("bin/ffmpeg" + suffix, exe);
+            if (!bundled) {
+                throw new IllegalStateException("no ffmpeg executable bundled for " + os
+                        + ": install one in " + temp.getAbsolutePath() + " or set the ffmpeg.home system property");
+            }
+            copyFile(resource, exe);
         }
         // pthreadGC2.dll
         if (isWindows) {
@@ -91,58 +145,103 @@ public class DefaultFFMPEGLocator extends FFMPEGLocator {
             }
         }
         // Need a chmod?
-        if (!isWindows) {
-            Runtime runtime = Runtime.getRuntime();
-            try {
-                runtime.exec(new String[]{"/bin/chmod", "755",
-                        exe.getAbsolutePath()});
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        if (!isWindows && !exe.canExecute()) {
+            makeExecutable(exe);
         }
         // Ok.
-        this.path = exe.getAbsolutePath();
+        return exe.getAbsolutePath();
     }
 
+    /**
+     * Returns the ffmpeg executable file path, exporting it on first use.
+     *
+     * @return The ffmpeg executable file path.
+     * @throws IllegalStateException If the executable cannot be exported; the
+     *                               next call tries again.
+     */
     @Override
     protected String getFFMPEGExecutablePath() {
-        return path;
+        String exported = path;
+        if (exported == null) {
+            synchronized (DefaultFFMPEGLocator.class) {
+                exported = path;
+                if (exported == null) {
+                    exported = exportExecutable();
+                    path = exported;
+                }
+            }
+        }
+        return exported;
     }
 
     /**
-     * Copies a file bundled in the package to the supplied destination.
+     * Gives the 755 permissions to a file, without spawning a chmod process.
+     *
+     * @param exe The file.
+     */
+    private static void makeExecutable(File exe) {
+        try {
+            Files.setPosixFilePermissions(exe.toPath(), PosixFilePermissions.fromString("rwxr-xr-x"));
+        } catch (UnsupportedOperationException e) {
+            exe.setReadable(true, false);
+            exe.setExecutable(true, false);
+        } catch (IOException e) {
+            log.warn("cannot set the permissions of " + exe.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Copies a file bundled in the package to the supplied destination. It is
+     * safe against other jvms exporting the same file at the same time: the
+     * copy is written to a temp file under an exclusive file lock, checked
+     * against the bundled checksum, synced and atomically renamed, so the
+     * destination is either missing or complete.
      *
      * @param path The name of the bundled file.
      * @param dest The destination.
      * @throws RuntimeException If aun unexpected error occurs.
      */
-    private void copyFile(String path, File dest) throws RuntimeException {
-        InputStream input = null;
-        OutputStream output = null;
-        try {
-            input = getClass().getClassLoader().getResourceAsStream(path);
-            output = new FileOutputStream(dest);
-            byte[] buffer = new byte[1024];
-            int l;
-            while ((l = input.read(buffer)) != -1) {
-                output.write(buffer, 0, l);
+    private static void copyFile(String path, File dest) throws RuntimeException {
+        BundledFile bundled = BundledFile.of(path);
+        File dir = dest.getAbsoluteFile().getParentFile();
+        File lockFile = new File(dir, ".lock");
+        File tmp = null;
+        try (FileChannel lockChannel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = lockChannel.lock();
+            try {
+                if (dest.exists() && dest.length() == bundled.getSize()) {
+                    // Exported by another jvm while waiting for the lock.
+                    return;
+                }
+                tmp = File.createTempFile(dest.getName(), ".tmp", dir);
+                CRC32 crc = new CRC32();
+                long size = 0;
+                try (InputStream input = bundled.open();
+                     FileOutputStream output = new FileOutputStream(tmp)) {
+                    byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                    int l;
+                    while ((l = input.read(buffer)) != -1) {
+                        crc.update(buffer, 0, l);
+                        output.write(buffer, 0, l);
+                        size += l;
+                    }
+                    output.getChannel().force(true);
+                }
+                if (size != bundled.getSize() || crc.getValue() != bundled.getCrc()) {
+                    throw new IllegalStateException("checksum mismatch exporting " + path + " to " + dest.getAbsolutePath());
+                }
+                makeExecutable(tmp);
+                Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                tmp = null;
+            } finally {
+                lock.release();
             }
         } catch (IOException e) {
             throw new RuntimeException("Cannot write file "
-                    + dest.getAbsolutePath());
+                    + dest.getAbsolutePath(), e);
         } finally {
-            if (output != null) {
-                try {
-                    output.close();
-                } catch (Throwable ignored) {
-
-                }
-            }
-            if (input != null) {
-                try {
-                    input.close();
-                } catch (Throwable ignored) {
-                }
+            if (tmp != null) {
+                tmp.delete();
             }
         }
         if (!dest.exists()) {
@@ -152,4 +251,74 @@ public class DefaultFFMPEGLocator extends FFMPEGLocator {
         }
     }
 
+    /**
+     * A file bundled in the package, with its size and CRC32 checksum. When the
+     * file is packaged in a jar they are read from the jar directory, without
+     * reading the file itself.
+     */
+    private static class BundledFile {
+
+        private final URL url;
+
+        private final long size;
+
+        private final long crc;
+
+        private BundledFile(URL url, long size, long crc) {
+            this.url = url;
+            this.size = size;
+            this.crc = crc;
+        }
+
+        static BundledFile of(String path) {
+            URL url = DefaultFFMPEGLocator.class.getClassLoader().getResource(path);
+            if (url == null) {
+                throw new IllegalStateException("bundled file " + path + " not found, set the ffmpeg.home system property");
+            }
+            try {
+                URLConnection connection = url.openConnection();
+                if (connection instanceof JarURLConnection) {
+                    JarEntry entry = ((JarURLConnection) connection).getJarEntry();
+                    if (entry != null && entry.getSize() >= 0 && entry.getCrc() >= 0) {
+                        return new BundledFile(url, entry.getSize(), entry.getCrc());
+                    }
+                }
+                CRC32 crc = new CRC32();
+                long size = 0;
+                try (InputStream input = url.openStream()) {
+                    byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                    int l;
+                    while ((l = input.read(buffer)) != -1) {
+                        crc.update(buffer, 0, l);
+                        size += l;
+                    }
+                }
+                return new BundledFile(url, size, crc.getValue());
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot read bundled file " + path, e);
+            }
+        }
+
+        InputStream open() throws IOException {
+            return url.openStream();
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        long getCrc() {
+            return crc;
+        }
+
+        /**
+         * Returns a name identifying the file content.
+         *
+         * @return The checksum and size of the file.
+         */
+        String getKey() {
+            return Long.toHexString(crc) + "-" + size;
+        }
+    }
+
 }
@@ -0,0 +1,192 @@
+package it.sauronsoftware.jave;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A running batch of re-encodings, see
+ * {@link Encoder#encodeBatch(java.util.Collection, int, boolean)}. The jobs
+ * run on a work-stealing pool of bounded parallelism, and their results are
+ * yielded by {@link EncodeBatch#iterator()} as they complete. A failed job
+ * does not stop the others: it is reported by its result. A job fails if
+ * its encoding throws, if the batch is cancelled, or if its target is not
+ * written, which also catches the failures an encoder ignoring the ffmpeg
+ * errors does not report.
+ */
+public class EncodeBatch implements Iterable<EncodeResult> {
+
+    /**
+     * The results not yet yielded, in completion order.
+     */
+    private final BlockingQueue<EncodeResult> completed = new LinkedBlockingQueue<EncodeResult>();
+
+    /**
+     * All the results, in completion order.
+     */
+    private final List<EncodeResult> results = new ArrayList<EncodeResult>();
+
+    /**
+     * The handle on the processes of the jobs.
+     */
+    private final JobContext context = new JobContext();
+
+    private final ForkJoinPool pool;
+
+    private final int size;
+
+    private final AtomicInteger completedCount = new AtomicInteger();
+
+    private int yielded = 0;
+
+    /**
+     * It starts a batch.
+     *
+     * @param encoder     The encoder running the jobs.
+     * @param jobs        The jobs, in the order they must start.
+     * @param parallelism The max number of jobs running at the same time.
+     */
+    EncodeBatch(final Encoder encoder, List<EncodeJob> jobs, int parallelism) {
+        this.size = jobs.size();
+        this.pool = new ForkJoinPool(parallelism);
+        final long submitted = System.currentTimeMillis();
+        for (final EncodeJob job : jobs) {
+            pool.execute(new Runnable() {
+                public void run() {
+                    long start = System.currentTimeMillis();
+                    Exception error = null;
+                    JobContext part = new JobContext(context);
+                    JobContext previous = JobContext.enter(part);
+                    try {
+                        if (part.isCancelled()) {
+                            throw new EncoderException("batch cancelled");
+                        }
+                        File target = job.getTarget();
+                        // Overwritten anyway: a stale target must not pass for a result.
+                        target.delete();
+                        encoder.encode(job.getSource(), target, job.getAttributes(), job.getListener());
+                        // The lenient encoders, i.e. IgnoreErrorEncoder, do
+                        // not report the failures of ffmpeg: check its work.
+                        if (part.isCancelled()) {
+                            throw new EncoderException("batch cancelled");
+                        }
+                        if (!target.isFile() || target.length() == 0) {
+                            throw new EncoderException("ffmpeg has not written " + target.getName());
+                        }
+                    } catch (Exception e) {
+                        error = e;
+                    } catch (Error e) {
+                        // Still yields a result, not to block the iterators.
+                        error = new EncoderException(e);
+                    } finally {
+                        JobContext.exit(previous);
+                        part.close();
+                    }
+                    long end = System.currentTimeMillis();
+                    completed.add(new EncodeResult(job, error, start - submitted, end - start));
+                    completedCount.incrementAndGet();
+                }
+            });
+        }
+        // The pool ends once the jobs have run.
+        pool.shutdown();
+    }
+
+    /**
+     * Returns the number of jobs of the batch.
+     *
+     * @return The number of jobs.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of jobs completed, yielded or not.
+     *
+     * @return The number of jobs.
+     */
+    public int getCompletedCount() {
+        return completedCount.get();
+    }
+
+    /**
+     * Returns an iterator over the results of the jobs, in completion order.
+     * Its methods wait for the next job to complete; they throw an
+     * {@link IllegalStateException} if the waiting thread is interrupted.
+     * The results of a batch are yielded once, by all its iterators.
+     *
+     * @return The iterator.
+     */
+    public Iterator<EncodeResult> iterator() {
+        return new Iterator<EncodeResult>() {
+            public boolean hasNext() {
+                synchronized (EncodeBatch.this) {
+                    return yielded < size;
+                }
+            }
+
+            public EncodeResult next() {
+                synchronized (EncodeBatch.this) {
+                    if (yielded >= size) {
+                        throw new NoSuchElementException();
+                    }
+                    EncodeResult result;
+                    try {
+                        result = completed.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("interrupted waiting for a batch result", e);
+                    }
+                    yielded++;
+                    results.add(result);
+                    return result;
+                }
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Waits for all the jobs to complete.
+     *
+     * @return The results of all the jobs, in completion order.
+     * @throws InterruptedException If the waiting thread is interrupted.
+     */
+    public List<EncodeResult> getResults() throws InterruptedException {
+        synchronized (this) {
+            while (yielded < size) {
+                results.add(completed.take());
+                yielded++;
+            }
+            return new ArrayList<EncodeResult>(results);
+        }
+    }
+
+    /**
+     * Cancels the batch: the ffmpeg processes of the running jobs are killed,
+     * and the jobs not yet started fail without running.
+     */
+    public void cancel() {
+        context.cancel(true);
+    }
+
+    @Override
+    public String toString() {
+        return "EncodeBatch{" +
+                "size=" + size +
+                ", completed=" + completedCount.get() +
+                ", parallelism=" + pool.getParallelism() +
+                '}';
+    }
+
+}
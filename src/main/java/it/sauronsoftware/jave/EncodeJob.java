@@ -0,0 +1,34 @@
+package it.sauronsoftware.jave;
+
+import lombok.Data;
+
+import java.io.File;
+
+/**
+ * A re-encoding of a batch, see
+ * {@link Encoder#encodeBatch(java.util.Collection, int, boolean)}.
+ */
+@Data
+public class EncodeJob {
+
+    /**
+     * The source multimedia file.
+     */
+    private final File source;
+
+    /**
+     * The target multimedia re-encoded file.
+     */
+    private final File target;
+
+    /**
+     * The attributes of the encoding process.
+     */
+    private final EncodingAttributes attributes;
+
+    /**
+     * An optional progress listener, null by default.
+     */
+    private EncoderProgressListener listener;
+
+}
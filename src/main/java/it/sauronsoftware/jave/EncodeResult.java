@@ -0,0 +1,41 @@
+package it.sauronsoftware.jave;
+
+import lombok.Data;
+
+/**
+ * The outcome of one job of a batch, see
+ * {@link Encoder#encodeBatch(java.util.Collection, int, boolean)}.
+ */
+@Data
+public class EncodeResult {
+
+    /**
+     * The job.
+     */
+    private final EncodeJob job;
+
+    /**
+     * The failure of the job, null if it succeeded.
+     */
+    private final Exception error;
+
+    /**
+     * The time the job waited for a worker, in milliseconds.
+     */
+    private final long waitMillis;
+
+    /**
+     * The time the job ran, in milliseconds.
+     */
+    private final long encodeMillis;
+
+    /**
+     * Returns true if the job has succeeded.
+     *
+     * @return true if the target has been encoded.
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+}
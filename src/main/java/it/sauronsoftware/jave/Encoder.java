@@ -20,17 +20,29 @@ package it.sauronsoftware.jave;
 
 import it.sauronsoftware.jave.audio.AudioAttributes;
 import it.sauronsoftware.jave.audio.AudioInfo;
-import it.sauronsoftware.jave.audio.VolumedetectInfo;
 import it.sauronsoftware.jave.enumers.AudioMergeTypeEnum;
+import it.sauronsoftware.jave.enumers.EncodingPlanTypeEnum;
+import it.sauronsoftware.jave.enumers.ProbeBackendTypeEnum;
 import it.sauronsoftware.jave.video.VideoAttributes;
 import it.sauronsoftware.jave.video.VideoInfo;
 import it.sauronsoftware.jave.video.VideoSize;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -40,18 +52,27 @@ import java.util.regex.Pattern;
  * @author Carlo Pelliccia
  */
 public class Encoder {
+    private static final Logger log = LoggerFactory.getLogger(Encoder.class);
 
     /**
      * This regexp is used to parse the ffmpeg output about the supported
-     * formats.
+     * formats. It accepts both the legacy and the current (dotted legend)
+     * layouts.
      */
-    private static final Pattern FORMAT_PATTERN = Pattern.compile("^\\s*([D ])([E ])\\s+([\\w,]+)\\s+.+$");
+    private static final Pattern FORMAT_PATTERN = Pattern.compile("^\\s?([D ])([E ])[d ]?\\s+(\\w[\\w,]*)(?:\\s+.*)?$");
 
     /**
      * This regexp is used to parse the ffmpeg output about the included
-     * encoders/decoders.
+     * encoders/decoders. It accepts both the legacy and the current (dotted
+     * flags) layouts.
      */
-    private static final Pattern ENCODER_DECODER_PATTERN = Pattern.compile("^\\s*([D ])([E ])([AVS]).{3}\\s+(.+)$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ENCODER_DECODER_PATTERN = Pattern.compile("^\\s?([D. ])([E. ])([AVSDT. ])[\\w. ]{3}\\s+(\\w\\S*)(.*)$");
+
+    /**
+     * This regexp is used to parse the specific decoders/encoders listed after
+     * a codec, i.e. "(decoders: mp3float mp3 )".
+     */
+    private static final Pattern CODEC_IMPLEMENTATIONS_PATTERN = Pattern.compile("\\((decoders|encoders):([^)]*)\\)");
 
     /**
      * This regexp is used to parse the ffmpeg output about the ongoing encoding
@@ -60,40 +81,53 @@ public class Encoder {
     private static final Pattern PROGRESS_INFO_PATTERN = Pattern.compile("\\s*(\\w+)\\s*=\\s*(\\S+)\\s*", Pattern.CASE_INSENSITIVE);
 
     /**
-     * This regexp is used to parse the ffmpeg output about the size of a video
-     * stream.
+     * This regexp is used to find the beginning of the informations about each
+     * input, when many files are probed by the same ffmpeg process.
      */
-    private static final Pattern SIZE_PATTERN = Pattern.compile("(\\d+)x(\\d+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern INPUT_PATTERN = Pattern.compile("^Input #(\\d+), .*$");
 
     /**
-     * This regexp is used to parse the ffmpeg output about the frame rate value
-     * of a video stream.
+     * This regexp is used to parse the ffmpeg output about the success of an
+     * encoding operation.
      */
-    private static final Pattern FRAME_RATE_PATTERN = Pattern.compile("([\\d.]+)\\s+(?:fps|tb\\(r\\))", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SUCCESS_PATTERN = Pattern.compile("^\\s*video\\:\\S+\\s+audio\\:\\S+\\s+(?:.*\\s+)?global headers\\:\\S+.*$", Pattern.CASE_INSENSITIVE);
 
     /**
-     * This regexp is used to parse the ffmpeg output about the bit rate value
-     * of a stream.
+     * The minimum duration of a segment of a parallel encoding, in seconds.
      */
-    private static final Pattern BIT_RATE_PATTERN = Pattern.compile("(\\d+)\\s+kb/s", Pattern.CASE_INSENSITIVE);
+    private static final double MIN_SEGMENT_SECONDS = 2.0;
 
     /**
-     * This regexp is used to parse the ffmpeg output about the sampling rate of
-     * an audio stream.
+     * The minimum duration of a chunk of a parallel audio encoding, in
+     * seconds.
      */
-    private static final Pattern SAMPLING_RATE_PATTERN = Pattern.compile("(\\d+)\\s+Hz", Pattern.CASE_INSENSITIVE);
+    private static final double MIN_AUDIO_SEGMENT_SECONDS = 10.0;
 
     /**
-     * This regexp is used to parse the ffmpeg output about the channels number
-     * of an audio stream.
+     * The audio encoded before and after each chunk of a parallel audio
+     * encoding, in seconds, so the encoder state at the seams matches the one
+     * of a serial encoding. It also covers the frames a decoder drops after
+     * an input seek.
      */
-    private static final Pattern CHANNELS_PATTERN = Pattern.compile("(mono|stereo)", Pattern.CASE_INSENSITIVE);
+    private static final double AUDIO_PREROLL_SECONDS = 0.5;
 
     /**
-     * This regexp is used to parse the ffmpeg output about the success of an
-     * encoding operation.
+     * The max distance between two keyframes, in thumbnail intervals, for
+     * the periodic thumbnails to be taken from the keyframes only.
      */
-    private static final Pattern SUCCESS_PATTERN = Pattern.compile("^\\s*video\\:\\S+\\s+audio\\:\\S+\\s+global headers\\:\\S+.*$", Pattern.CASE_INSENSITIVE);
+    private static final double MAX_THUMBNAIL_KEYFRAME_GAP = 2.0;
+
+    /**
+     * The decoders able to decode at a reduced resolution, see the lowres
+     * option of ffmpeg, and the max reduction they support, as a power of 2.
+     */
+    private static final Map<String, Integer> LOWRES_DECODERS = new HashMap<String, Integer>();
+
+    static {
+        for (String decoder : new String[]{"mjpeg", "mpeg1video", "mpeg2video", "mpeg4", "h263", "h263p", "jpeg2000"}) {
+            LOWRES_DECODERS.put(decoder, 3);
+        }
+    }
 
     /**
      * The locator of the ffmpeg executable used by this encoder.
@@ -101,11 +135,95 @@ public class Encoder {
     private FFMPEGLocator locator;
 
     /**
-     * It builds an encoder using a {@link DefaultFFMPEGLocator} instance to
-     * locate the ffmpeg executable to use.
+     * The executor running the asynchronous jobs when the caller does not
+     * supply one. It is created on first use.
+     */
+    private static volatile ExecutorService defaultAsyncExecutor;
+
+    /**
+     * The wall-clock budget (millis) of the ffmpeg executions whose attributes
+     * do not specify one. 0 means no limit.
+     */
+    private long defaultTimeout = 0;
+
+    /**
+     * The cpu time budget (seconds) of the ffmpeg executions whose attributes
+     * do not specify one. 0 means no limit.
+     */
+    private int defaultCpuTimeLimit = 0;
+
+    /**
+     * The backend used by {@link Encoder#getInfo(File)}.
+     */
+    private ProbeBackendTypeEnum probeBackend = ProbeBackendTypeEnum.AUTO;
+
+    /**
+     * The maximum number of files probed by one ffmpeg process in
+     * {@link Encoder#getInfo(List)}.
+     */
+    private int probeBatchSize = 32;
+
+    /**
+     * True if the progress of the encodings with a listener is read from the
+     * machine-readable ffmpeg progress output.
+     */
+    private boolean progressPipe = true;
+
+    /**
+     * The dispatcher delivering the listener callbacks, or null to call the
+     * listeners on the threads reading the ffmpeg output.
+     */
+    private ProgressDispatcher progressDispatcher = ProgressDispatcher.getDefault();
+
+    /**
+     * The cache of the probed informations, or null.
+     */
+    private MultimediaInfoCache infoCache = null;
+
+    /**
+     * The persistent catalog of the probed informations, or null.
+     */
+    private MediaCatalog catalog = null;
+
+    /**
+     * The cache of the encoded files, or null.
+     */
+    private OutputCache outputCache = null;
+
+    /**
+     * The deduplicator of the concurrent identical jobs, or null.
+     */
+    private SingleFlight singleFlight = null;
+
+    /**
+     * True if the encodings are planned, see
+     * {@link Encoder#setEncodingPlanning(boolean)}.
+     */
+    private boolean encodingPlanning = false;
+
+    /**
+     * True if the cuts are sought on the input side and copied where
+     * possible, see {@link Encoder#setSmartCut(boolean)}.
+     */
+    private boolean smartCut = false;
+
+    /**
+     * The number of segments encoded in parallel, see
+     * {@link Encoder#setParallelSegments(int)}.
+     */
+    private int parallelSegments = 1;
+
+    /**
+     * The number of encodings of each plan, by ordinal.
+     */
+    private final AtomicLongArray planCounts = new AtomicLongArray(EncodingPlanTypeEnum.values().length);
+
+    /**
+     * It builds an encoder using the shared {@link DefaultFFMPEGLocator}
+     * instance to locate the ffmpeg executable to use.
      */
     public Encoder() {
-        this.locator = new DefaultFFMPEGLocator();
+        this.locator = DefaultFFMPEGLocator.getInstance();
     }
 
     /**
@@ -119,105 +237,489 @@ public class Encoder {
     }
 
     /**
-     * Returns a list with the names of all the audio decoders bundled with the
-     * ffmpeg distribution in use. An audio stream can be decoded only if a
-     * decoder for its format is available.
+     * Sets the wall-clock budget of the ffmpeg executions whose attributes do
+     * not specify one, including the {@link Encoder#getInfo(File)} probes. An
+     * execution exceeding it is killed and an {@link EncoderTimeoutException}
+     * is thrown.
      *
-     * @return A list with the names of all the included audio decoders.
-     * @throws EncoderException If a problem occurs calling the underlying ffmpeg executable.
+     * @param defaultTimeout The budget in millis, 0 for no limit.
      */
-    public String[] getAudioDecoders() throws EncoderException {
-        ArrayList res = new ArrayList();
+    public void setDefaultTimeout(long defaultTimeout) {
+        this.defaultTimeout = defaultTimeout;
+    }
+
+    /**
+     * Sets the cpu time budget of the ffmpeg executions whose attributes do not
+     * specify one. An execution exceeding it is stopped and an
+     * {@link EncoderTimeoutException} is thrown.
+     *
+     * @param defaultCpuTimeLimit The budget in seconds, 0 for no limit.
+     */
+    public void setDefaultCpuTimeLimit(int defaultCpuTimeLimit) {
+        this.defaultCpuTimeLimit = defaultCpuTimeLimit;
+    }
+
+    /**
+     * Sets the backend used by {@link Encoder#getInfo(File)}. With
+     * {@link ProbeBackendTypeEnum#AUTO}, the default, ffprobe is used when the
+     * locator can find it, otherwise the ffmpeg output is parsed.
+     *
+     * @param probeBackend The probe backend.
+     */
+    public void setProbeBackend(ProbeBackendTypeEnum probeBackend) {
+        this.probeBackend = probeBackend;
+    }
+
+    /**
+     * Sets the maximum number of files probed by one ffmpeg process in
+     * {@link Encoder#getInfo(List)}. Larger batches save process spawns but
+     * build longer command lines.
+     *
+     * @param probeBatchSize The batch size, at least 1.
+     */
+    public void setProbeBatchSize(int probeBatchSize) {
+        if (probeBatchSize < 1) {
+            throw new IllegalArgumentException("probeBatchSize must be at least 1");
+        }
+        this.probeBatchSize = probeBatchSize;
+    }
+
+    /**
+     * Sets whether the progress of the encodings with a listener is read from
+     * the machine-readable ffmpeg progress output, the default, reported as
+     * {@link ProgressEvent} instances. If false the legacy parsing of the
+     * ffmpeg statistics is used.
+     *
+     * @param progressPipe true to use the ffmpeg progress output.
+     */
+    public void setProgressPipe(boolean progressPipe) {
+        this.progressPipe = progressPipe;
+    }
+
+    /**
+     * Sets the dispatcher delivering the listener callbacks of the encodings,
+     * by default {@link ProgressDispatcher#getDefault()}. With null the
+     * listeners are called on the threads reading the ffmpeg output, and a
+     * slow listener slows down ffmpeg.
+     *
+     * @param progressDispatcher The dispatcher, or null.
+     */
+    public void setProgressDispatcher(ProgressDispatcher progressDispatcher) {
+        this.progressDispatcher = progressDispatcher;
+    }
+
+    /**
+     * Sets a cache of the informations probed by {@link Encoder#getInfo(File)},
+     * {@link Encoder#getInfo(List)} and the encoding methods, so each source is
+     * probed once. The cache can be shared by many encoders.
+     *
+     * @param infoCache The cache, or null to disable caching.
+     */
+    public void setInfoCache(MultimediaInfoCache infoCache) {
+        this.infoCache = infoCache;
+    }
+
+    /**
+     * Sets a persistent catalog of the probed informations, read through after
+     * the cache set with {@link Encoder#setInfoCache(MultimediaInfoCache)}, so
+     * the sources probed by a previous run are not probed again.
+     *
+     * @param catalog The catalog, or null.
+     */
+    public void setCatalog(MediaCatalog catalog) {
+        this.catalog = catalog;
+    }
+
+    /**
+     * Sets a cache of the files encoded by
+     * {@link Encoder#encode(File, File, EncodingAttributes, EncoderProgressListener)}:
+     * encoding again the same content with the same attributes and ffmpeg
+     * executable copies the cached file instead of running ffmpeg.
+     *
+     * @param outputCache The cache, or null.
+     */
+    public void setOutputCache(OutputCache outputCache) {
+        this.outputCache = outputCache;
+    }
+
+    /**
+     * Sets a deduplicator of the concurrent identical jobs: a call of
+     * {@link Encoder#getInfo(File)}, of the encode methods or of the merge
+     * methods waits for the identical one already running, instead of running
+     * another ffmpeg process. Encodings are identical if they have the same
+     * sources, attributes and target extension, and run on the same ffmpeg
+     * executable by encoders of the same class and settings; the target of a
+     * joining call receives a copy of the encoded file. A joining call waits
+     * no longer than its own wall-clock budget.
+     *
+     * @param singleFlight The deduplicator, or null. It can be shared by many
+     *                     encoders.
+     */
+    public void setSingleFlight(SingleFlight singleFlight) {
+        this.singleFlight = singleFlight;
+    }
+
+    /**
+     * Sets whether {@link Encoder#encode(File, File, EncodingAttributes, EncoderProgressListener)}
+     * probes the source first and picks the cheapest way to produce the
+     * target, see {@link Encoder#plan(File, File, EncodingAttributes)}: a copy
+     * of the source when it already matches the attributes, a stream copy
+     * into the target container, a re-encoding of the audio only, or a full
+     * transcode. The probe is cached by
+     * {@link Encoder#setInfoCache(MultimediaInfoCache)}, if set.
+     *
+     * @param encodingPlanning true to plan the encodings.
+     */
+    public void setEncodingPlanning(boolean encodingPlanning) {
+        this.encodingPlanning = encodingPlanning;
+    }
+
+    /**
+     * Sets whether the cuts requested by the offset and duration attributes,
+     * or by the start time and duration of the streams, are smart: the source
+     * is sought on the input side instead of being decoded from its start,
+     * and when its streams can be copied, see
+     * {@link Encoder#setEncodingPlanning(boolean)}, only the partial GOPs at
+     * the two edges of the cut are re-encoded, the complete GOPs between them
+     * being copied. The cut stays frame accurate. It requires h264 or hevc
+     * video in a mp4 or matroska source; other sources are transcoded, with
+     * the input-side seek. Audio streams are copied, so their cut is accurate
+     * to an audio frame.
+     *
+     * @param smartCut true to cut smartly.
+     */
+    public void setSmartCut(boolean smartCut) {
+        this.smartCut = smartCut;
+    }
+
+    /**
+     * Sets the number of segments of the encodings run in parallel. A video
+     * source is split at keyframes into segments of about the same duration,
+     * encoded by concurrent ffmpeg processes with the same attributes, then
+     * concatenated without re-encoding; its audio is encoded whole by another
+     * process. Segments last at least 2 seconds, so short or sparsely
+     * keyframed sources get fewer. An audio encoding to mp3, aac or opus is
+     * split into chunks of at least 10 seconds, aligned on the frames of the
+     * codec, see
+     * {@link Encoder#encodeParallel(File, File, EncodingAttributes, int, EncoderProgressListener)}.
+     * The progress is aggregated over the segments, and the failure of any
+     * segment aborts the others. Cuts, encodings which copy streams and
+     * encodings setting a video tag are not split, and the filters must not
+     * depend on the position in the timeline.
+     *
+     * @param parallelSegments The number of segments, 1 to disable.
+     */
+    public void setParallelSegments(int parallelSegments) {
+        if (parallelSegments < 1) {
+            throw new IllegalArgumentException("parallelSegments must be at least 1");
+        }
+        this.parallelSegments = parallelSegments;
+    }
+
+    /**
+     * Returns the number of encodings run with a plan, since the encoder was
+     * built. Without planning all the encodings are counted as
+     * {@link EncodingPlanTypeEnum#TRANSCODE}.
+     *
+     * @param type The plan.
+     * @return The number of encodings.
+     */
+    public long getPlanCount(EncodingPlanTypeEnum type) {
+        return planCounts.get(type.ordinal());
+    }
+
+    /**
+     * Returns the cache of the probed informations.
+     *
+     * @return The cache, or null if caching is disabled.
+     */
+    public MultimediaInfoCache getInfoCache() {
+        return infoCache;
+    }
+
+    /**
+     * Returns the backend used by {@link Encoder#getInfo(File)}.
+     *
+     * @return The probe backend.
+     */
+    public ProbeBackendTypeEnum getProbeBackend() {
+        return probeBackend;
+    }
+
+    /**
+     * Private utility. It builds an executor with the time budgets of the
+     * given attributes, or the encoder defaults.
+     *
+     * @param attributes The encoding attributes. It can be null.
+     * @return A new executor.
+     */
+    private FFMPEGExecutor createExecutor(EncodingAttributes attributes) {
         FFMPEGExecutor ffmpeg = locator.createExecutor();
-        ffmpeg.addArgument("-formats");
+        Long timeout = attributes != null ? attributes.getTimeout() : null;
+        Integer cpuTimeLimit = attributes != null ? attributes.getCpuTimeLimit() : null;
+        ffmpeg.setTimeout(timeout != null ? timeout.longValue() : defaultTimeout);
+        ffmpeg.setCpuTimeLimit(cpuTimeLimit != null ? cpuTimeLimit.intValue() : defaultCpuTimeLimit);
+        return ffmpeg;
+    }
+
+    /**
+     * Private utility. It runs an encoding execution, processes its error
+     * channel and releases it.
+     *
+     * @param ffmpeg     The prepared executor.
+     * @param attributes The encoding attributes.
+     * @param source     The source file, or null for the merge operations.
+     * @param listener   An optional progress listener. It can be null.
+     * @throws EncoderException If the execution fails or exceeds its budget.
+     */
+    private void runEncoding(FFMPEGExecutor ffmpeg, EncodingAttributes attributes, File source, EncoderProgressListener listener) throws EncoderException {
+        runEncoding(ffmpeg, attributes, source, null, false, listener);
+    }
+
+    /**
+     * Private utility. It runs an encoding execution, processes its error
+     * channel and releases it. If a listener is given the progress is read
+     * from the ffmpeg progress output; the expected duration comes from the
+     * ffmpeg header, or from probing the given inputs for the merge
+     * operations, whose header reports each input apart.
+     *
+     * @param ffmpeg     The prepared executor.
+     * @param attributes The encoding attributes.
+     * @param source     The source file, or null for the merge operations.
+     * @param inputs     The merged inputs, or null.
+     * @param concat     true if the merged inputs are concatenated, false if
+     *                   they are played together.
+     * @param listener   An optional progress listener. It can be null.
+     * @throws EncoderException If the execution fails or exceeds its budget.
+     */
+    private void runEncoding(FFMPEGExecutor ffmpeg, EncodingAttributes attributes, File source, List<File> inputs, boolean concat, EncoderProgressListener listener) throws EncoderException {
+        ProgressDispatcher dispatcher = progressDispatcher;
+        if (listener == null || dispatcher == null) {
+            runEncodingInline(ffmpeg, attributes, source, inputs, concat, listener);
+            return;
+        }
+        ProgressDispatcher.Job job = dispatcher.wrap(listener);
+        try {
+            runEncodingInline(ffmpeg, attributes, source, inputs, concat, job);
+        } finally {
+            job.finish();
+        }
+    }
+
+    /**
+     * Private utility. The body of
+     * {@link Encoder#runEncoding(FFMPEGExecutor, EncodingAttributes, File, List, boolean, EncoderProgressListener)},
+     * calling the given listener on the threads reading the ffmpeg output.
+     */
+    private void runEncodingInline(FFMPEGExecutor ffmpeg, EncodingAttributes attributes, File source, List<File> inputs, boolean concat, EncoderProgressListener listener) throws EncoderException {
+        if (listener != null && progressPipe) {
+            ProgressTracker tracker = new ProgressTracker(listener, attributes);
+            if (inputs != null) {
+                tracker.setInputDuration(mergedDuration(inputs, concat));
+            }
+            ffmpeg.addGlobalArgument("-progress");
+            ffmpeg.addGlobalArgument("pipe:1");
+            ffmpeg.addGlobalArgument("-nostats");
+            ffmpeg.setOutputSink(tracker.getProgressSink());
+            ffmpeg.setErrorSink(tracker.getHeaderSink());
+        }
         try {
             ffmpeg.execute();
-            RBufferedReader reader = null;
-            reader = new RBufferedReader(new InputStreamReader(ffmpeg.getInputStream()));
-            String line;
-            boolean evaluate = false;
-            while ((line = reader.readLine()) != null) {
-                if (line.trim().length() == 0) {
-                    continue;
-                }
-                if (evaluate) {
-                    Matcher matcher = ENCODER_DECODER_PATTERN.matcher(line);
-                    if (matcher.matches()) {
-                        String decoderFlag = matcher.group(1);
-                        String audioVideoFlag = matcher.group(3);
-                        if ("D".equals(decoderFlag) && "A".equals(audioVideoFlag)) {
-                            String name = matcher.group(4);
-                            res.add(name);
-                        }
-                    } else {
-                        break;
-                    }
-                } else if (line.trim().equals("Codecs:")) {
-                    evaluate = true;
-                }
-            }
         } catch (IOException e) {
             throw new EncoderException(e);
+        }
+        try {
+            RBufferedReader reader = new RBufferedReader(new InputStreamReader(ffmpeg.getErrorStream()));
+            processErrorOutput(attributes, reader, source, listener);
+        } catch (IOException e) {
+            ffmpeg.destroy();
+            checkTimeout(ffmpeg, e);
+            throw new EncoderException(e);
+        } catch (EncoderException e) {
+            ffmpeg.destroy();
+            checkTimeout(ffmpeg, e);
+            throw e;
         } finally {
             ffmpeg.destroy();
         }
-        int size = res.size();
-        String[] ret = new String[size];
-        for (int i = 0; i < size; i++) {
-            ret[i] = (String) res.get(i);
-        }
-        return ret;
+        checkTimeout(ffmpeg, null);
     }
 
     /**
-     * Returns a list with the names of all the audio encoders bundled with the
-     * ffmpeg distribution in use. An audio stream can be encoded using one of
-     * these encoders.
+     * Private utility. It returns the duration of the output of a merge
+     * operation, probing its inputs.
      *
-     * @return A list with the names of all the included audio encoders.
-     * @throws EncoderException If a problem occurs calling the underlying ffmpeg executable.
+     * @param inputs The merged inputs.
+     * @param concat true for the sum of the input durations, false for the
+     *               longest one.
+     * @return The duration in millis, or -1 if an input cannot be probed.
      */
-    public String[] getAudioEncoders() throws EncoderException {
-        ArrayList res = new ArrayList();
-        FFMPEGExecutor ffmpeg = locator.createExecutor();
-        ffmpeg.addArgument("-formats");
+    private long mergedDuration(List<File> inputs, boolean concat) {
+        long duration = 0;
         try {
-            ffmpeg.execute();
-            RBufferedReader reader = null;
-            reader = new RBufferedReader(new InputStreamReader(ffmpeg.getInputStream()));
-            String line;
-            boolean evaluate = false;
-            while ((line = reader.readLine()) != null) {
-                if (line.trim().length() == 0) {
-                    continue;
+            for (ProbeResult result : getInfo(inputs)) {
+                if (!result.isSuccess() || result.getInfo().getDuration() < 0) {
+                    return -1;
                 }
-                if (evaluate) {
-                    Matcher matcher = ENCODER_DECODER_PATTERN.matcher(line);
-                    if (matcher.matches()) {
-                        String encoderFlag = matcher.group(2);
-                        String audioVideoFlag = matcher.group(3);
-                        if ("E".equals(encoderFlag) && "A".equals(audioVideoFlag)) {
+                long inputDuration = result.getInfo().getDuration();
+                duration = concat ? duration + inputDuration : Math.max(duration, inputDuration);
+            }
+        } catch (EncoderException e) {
+            log.debug("cannot probe the merged inputs", e);
+            return -1;
+        }
+        return duration;
+    }
+
+    /**
+     * Private utility. It throws an {@link EncoderTimeoutException} if the given
+     * terminated execution exceeded one of its budgets.
+     *
+     * @param ffmpeg The terminated executor.
+     * @param cause  The failure reported while processing its output, if any.
+     * @throws EncoderTimeoutException If a budget was exceeded.
+     */
+    private void checkTimeout(FFMPEGExecutor ffmpeg, Throwable cause) throws EncoderTimeoutException {
+        if (ffmpeg.isTimedOut()) {
+            throw new EncoderTimeoutException("ffmpeg execution exceeded its wall-clock timeout", false, cause);
+        }
+        if (ffmpeg.isCpuTimeExceeded()) {
+            throw new EncoderTimeoutException("ffmpeg execution exceeded its cpu time limit", true, cause);
+        }
+    }
+
+    /**
+     * Returns the codecs and file formats supported by the ffmpeg executable
+     * in use. They are probed once per executable (identified by its path,
+     * size and last modification time) and then served from a cache. If the
+     * <code>jave.capabilities.dir</code> system property names a directory,
+     * the probed capabilities are persisted there and reused by later jvms.
+     *
+     * @return The capabilities of the ffmpeg executable in use.
+     * @throws EncoderException If a problem occurs calling the underlying ffmpeg executable.
+     */
+    public FFMPEGCapabilities getCapabilities() throws EncoderException {
+        String key = CapabilitiesCache.key(locator.getFFMPEGExecutablePath());
+        FFMPEGCapabilities capabilities = CapabilitiesCache.get(key);
+        if (capabilities == null) {
+            capabilities = probeCapabilities();
+            CapabilitiesCache.put(key, capabilities);
+        }
+        return capabilities;
+    }
+
+    /**
+     * Private utility. It calls ffmpeg with the <code>-formats</code> and the
+     * <code>-codecs</code> options and parses their outputs. Older ffmpeg
+     * builds list the codecs in the <code>-formats</code> output too.
+     *
+     * @return The probed capabilities.
+     * @throws EncoderException If a problem occurs calling the underlying ffmpeg executable.
+     */
+    private FFMPEGCapabilities probeCapabilities() throws EncoderException {
+        Set<String> audioDecoders = new LinkedHashSet<String>();
+        Set<String> audioEncoders = new LinkedHashSet<String>();
+        Set<String> videoDecoders = new LinkedHashSet<String>();
+        Set<String> videoEncoders = new LinkedHashSet<String>();
+        Set<String> decodingFormats = new LinkedHashSet<String>();
+        Set<String> encodingFormats = new LinkedHashSet<String>();
+        for (String option : new String[]{"-formats", "-codecs"}) {
+            FFMPEGExecutor ffmpeg = createExecutor(null);
+            ffmpeg.addArgument(option);
+            ffmpeg.setReadInputStream(true);
+            try {
+                ffmpeg.execute();
+                RBufferedReader reader = new RBufferedReader(new InputStreamReader(ffmpeg.getInputStream()));
+                String line;
+                String section = null;
+                while ((line = reader.readLine()) != null) {
+                    String trimmed = line.trim();
+                    if (trimmed.length() == 0) {
+                        continue;
+                    }
+                    if (trimmed.endsWith(":") && !line.startsWith(" ")) {
+                        section = trimmed;
+                    } else if ("File formats:".equals(section)) {
+                        Matcher matcher = FORMAT_PATTERN.matcher(line);
+                        if (matcher.matches()) {
+                            StringTokenizer st = new StringTokenizer(matcher.group(3), ",");
+                            while (st.hasMoreTokens()) {
+                                String token = st.nextToken().trim();
+                                if ("D".equals(matcher.group(1))) {
+                                    decodingFormats.add(token);
+                                }
+                                if ("E".equals(matcher.group(2))) {
+                                    encodingFormats.add(token);
+                                }
+                            }
+                        }
+                    } else if ("Codecs:".equals(section)) {
+                        Matcher matcher = ENCODER_DECODER_PATTERN.matcher(line);
+                        if (matcher.matches()) {
+                            String type = matcher.group(3);
+                            Set<String> decoders;
+                            Set<String> encoders;
+                            if ("A".equals(type)) {
+                                decoders = audioDecoders;
+                                encoders = audioEncoders;
+                            } else if ("V".equals(type)) {
+                                decoders = videoDecoders;
+                                encoders = videoEncoders;
+                            } else {
+                                continue;
+                            }
                             String name = matcher.group(4);
-                            res.add(name);
+                            if ("D".equals(matcher.group(1))) {
+                                decoders.add(name);
+                            }
+                            if ("E".equals(matcher.group(2))) {
+                                encoders.add(name);
+                            }
+                            Matcher m2 = CODEC_IMPLEMENTATIONS_PATTERN.matcher(matcher.group(5));
+                            while (m2.find()) {
+                                Set<String> target = "decoders".equals(m2.group(1)) ? decoders : encoders;
+                                StringTokenizer st = new StringTokenizer(m2.group(2));
+                                while (st.hasMoreTokens()) {
+                                    target.add(st.nextToken());
+                                }
+                            }
                         }
-                    } else {
-                        break;
                     }
-                } else if (line.trim().equals("Codecs:")) {
-                    evaluate = true;
                 }
+            } catch (IOException e) {
+                throw new EncoderException(e);
+            } finally {
+                ffmpeg.destroy();
             }
-        } catch (IOException e) {
-            throw new EncoderException(e);
-        } finally {
-            ffmpeg.destroy();
+            checkTimeout(ffmpeg, null);
         }
-        int size = res.size();
-        String[] ret = new String[size];
-        for (int i = 0; i < size; i++) {
-            ret[i] = (String) res.get(i);
-        }
-        return ret;
+        return new FFMPEGCapabilities(audioDecoders, audioEncoders, videoDecoders, videoEncoders, decodingFormats, encodingFormats);
+    }
+
+    /**
+     * Returns a list with the names of all the audio decoders bundled with the
+     * ffmpeg distribution in use. An audio stream can be decoded only if a
+     * decoder for its format is available.
+     *
+     * @return A list with the names of all the included audio decoders.
+     * @throws EncoderException If a problem occurs calling the underlying ffmpeg executable.
+     * @see Encoder#getCapabilities()
+     */
+    public String[] getAudioDecoders() throws EncoderException {
+        return getCapabilities().getAudioDecoders().toArray(new String[0]);
+    }
+
+    /**
+     * Returns a list with the names of all the audio encoders bundled with the
+     * ffmpeg distribution in use. An audio stream can be encoded using one of
+     * these encoders.
+     *
+     * @return A list with the names of all the included audio encoders.
+     * @throws EncoderException If a problem occurs calling the underlying ffmpeg executable.
+     * @see Encoder#getCapabilities()
+     */
+    public String[] getAudioEncoders() throws EncoderException {
+        return getCapabilities().getAudioEncoders().toArray(new String[0]);
     }
 
     /**
@@ -227,48 +729,10 @@ public class Encoder {
      *
      * @return A list with the names of all the included video decoders.
      * @throws EncoderException If a problem occurs calling the underlying ffmpeg executable.
+     * @see Encoder#getCapabilities()
      */
     public String[] getVideoDecoders() throws EncoderException {
-        ArrayList res = new ArrayList();
-        FFMPEGExecutor ffmpeg = locator.createExecutor();
-        ffmpeg.addArgument("-formats");
-        try {
-            ffmpeg.execute();
-            RBufferedReader reader = null;
-            reader = new RBufferedReader(new InputStreamReader(ffmpeg.getInputStream()));
-            String line;
-            boolean evaluate = false;
-            while ((line = reader.readLine()) != null) {
-                if (line.trim().length() == 0) {
-                    continue;
-                }
-                if (evaluate) {
-                    Matcher matcher = ENCODER_DECODER_PATTERN.matcher(line);
-                    if (matcher.matches()) {
-                        String decoderFlag = matcher.group(1);
-                        String audioVideoFlag = matcher.group(3);
-                        if ("D".equals(decoderFlag) && "V".equals(audioVideoFlag)) {
-                            String name = matcher.group(4);
-                            res.add(name);
-                        }
-                    } else {
-                        break;
-                    }
-                } else if (line.trim().equals("Codecs:")) {
-                    evaluate = true;
-                }
-            }
-        } catch (IOException e) {
-            throw new EncoderException(e);
-        } finally {
-            ffmpeg.destroy();
-        }
-        int size = res.size();
-        String[] ret = new String[size];
-        for (int i = 0; i < size; i++) {
-            ret[i] = (String) res.get(i);
-        }
-        return ret;
+        return getCapabilities().getVideoDecoders().toArray(new String[0]);
     }
 
     /**
@@ -278,48 +742,10 @@ public class Encoder {
      *
      * @return A list with the names of all the included video encoders.
      * @throws EncoderException If a problem occurs calling the underlying ffmpeg executable.
+     * @see Encoder#getCapabilities()
      */
     public String[] getVideoEncoders() throws EncoderException {
-        ArrayList res = new ArrayList();
-        FFMPEGExecutor ffmpeg = locator.createExecutor();
-        ffmpeg.addArgument("-formats");
-        try {
-            ffmpeg.execute();
-            RBufferedReader reader = null;
-            reader = new RBufferedReader(new InputStreamReader(ffmpeg.getInputStream()));
-            String line;
-            boolean evaluate = false;
-            while ((line = reader.readLine()) != null) {
-                if (line.trim().length() == 0) {
-                    continue;
-                }
-                if (evaluate) {
-                    Matcher matcher = ENCODER_DECODER_PATTERN.matcher(line);
-                    if (matcher.matches()) {
-                        String encoderFlag = matcher.group(2);
-                        String audioVideoFlag = matcher.group(3);
-                        if ("E".equals(encoderFlag) && "V".equals(audioVideoFlag)) {
-                            String name = matcher.group(4);
-                            res.add(name);
-                        }
-                    } else {
-                        break;
-                    }
-                } else if (line.trim().equals("Codecs:")) {
-                    evaluate = true;
-                }
-            }
-        } catch (IOException e) {
-            throw new EncoderException(e);
-        } finally {
-            ffmpeg.destroy();
-        }
-        int size = res.size();
-        String[] ret = new String[size];
-        for (int i = 0; i < size; i++) {
-            ret[i] = (String) res.get(i);
-        }
-        return ret;
+        return getCapabilities().getVideoEncoders().toArray(new String[0]);
     }
 
     /**
@@ -331,142 +757,320 @@ public class Encoder {
      * @return A list with the names of all the supported file formats at
      * encoding time.
      * @throws EncoderException If a problem occurs calling the underlying ffmpeg executable.
+     * @see Encoder#getCapabilities()
      */
     public String[] getSupportedEncodingFormats() throws EncoderException {
-        ArrayList res = new ArrayList();
-        FFMPEGExecutor ffmpeg = locator.createExecutor();
-        ffmpeg.addArgument("-formats");
+        return getCapabilities().getEncodingFormats().toArray(new String[0]);
+    }
+
+    /**
+     * Returns a list with the names of all the file formats supported at
+     * decoding time by the underlying ffmpeg distribution. A multimedia file
+     * could be open and decoded only if its format is in this list.
+     *
+     * @return A list with the names of all the supported file formats at
+     * decoding time.
+     * @throws EncoderException If a problem occurs calling the underlying ffmpeg executable.
+     * @see Encoder#getCapabilities()
+     */
+    public String[] getSupportedDecodingFormats() throws EncoderException {
+        return getCapabilities().getDecodingFormats().toArray(new String[0]);
+    }
+
+    /**
+     * Returns a set informations about a multimedia file, if its format is
+     * supported for decoding. The file is probed with ffprobe when available,
+     * see {@link Encoder#setProbeBackend(ProbeBackendTypeEnum)}.
+     *
+     * @param source The source multimedia file.
+     * @return A set of informations about the file and its contents.
+     * @throws InputFormatException If the format of the source file cannot be recognized and
+     *                              decoded.
+     * @throws EncoderException     If a problem occurs calling the underlying ffmpeg executable.
+     */
+    public MultimediaInfo getInfo(final File source) throws InputFormatException, EncoderException {
+        MultimediaInfo info = knownInfo(source);
+        if (info != null) {
+            return info;
+        }
+        SingleFlight.Job<MultimediaInfo> job = new SingleFlight.Job<MultimediaInfo>() {
+            public MultimediaInfo run(EncoderProgressListener listener) throws EncoderException {
+                MultimediaInfo info = probeInfo(source);
+                storeInfo(source, info);
+                return info;
+            }
+        };
+        SingleFlight singleFlight = this.singleFlight;
+        if (singleFlight == null) {
+            return job.run(null);
+        }
+        // the leader and its joiners share one result, each gets its own copy
+        return singleFlight.run(flightKey("getInfo") + "|" + probeBackend + "|" + MultimediaInfoCache.key(source), null, job, defaultTimeout).copy();
+    }
+
+    /**
+     * Private utility. It looks for the informations about a source in the
+     * cache, then in the catalog.
+     *
+     * @param source The source multimedia file.
+     * @return The informations, or null if the source must be probed.
+     */
+    private MultimediaInfo knownInfo(File source) {
+        MultimediaInfoCache cache = infoCache;
+        MediaCatalog catalog = this.catalog;
+        if (cache == null && catalog == null) {
+            return null;
+        }
+        String key = cache != null ? MultimediaInfoCache.key(source) : null;
+        MultimediaInfo info = cache != null ? cache.get(key) : null;
+        if (info == null && catalog != null) {
+            info = catalog.get(source);
+            if (info != null && cache != null) {
+                cache.put(key, info);
+            }
+        }
+        return info;
+    }
+
+    /**
+     * Private utility. It stores the probed informations about a source in
+     * the cache and in the catalog.
+     *
+     * @param source The source multimedia file.
+     * @param info   The informations.
+     */
+    private void storeInfo(File source, MultimediaInfo info) {
+        if (infoCache != null) {
+            infoCache.put(source, info);
+        }
+        if (catalog != null) {
+            catalog.put(source, info);
+        }
+    }
+
+    /**
+     * Private utility. It probes a source file, with the configured backend.
+     *
+     * @param source The source multimedia file.
+     * @return A set of informations about the file and its contents.
+     * @throws InputFormatException If the format of the source file cannot be recognized and
+     *                              decoded.
+     * @throws EncoderException     If a problem occurs calling the underlying ffmpeg executable.
+     */
+    private MultimediaInfo probeInfo(File source) throws InputFormatException, EncoderException {
+        FFMPEGExecutor ffprobe = createProbeExecutor();
+        if (ffprobe != null) {
+            return getInfoByFFProbe(ffprobe, source);
+        }
+        FFMPEGExecutor ffmpeg = createExecutor(null);
+        ffmpeg.addArgument("-i");
+        ffmpeg.addArgument(source.getAbsolutePath());
         try {
             ffmpeg.execute();
+        } catch (IOException e) {
+            throw new EncoderException(e);
+        }
+        try {
             RBufferedReader reader = null;
-            reader = new RBufferedReader(new InputStreamReader(ffmpeg.getInputStream()));
-            String line;
-            boolean evaluate = false;
-            while ((line = reader.readLine()) != null) {
-                if (line.trim().length() == 0) {
-                    continue;
-                }
-                if (evaluate) {
-                    Matcher matcher = FORMAT_PATTERN.matcher(line);
-                    if (matcher.matches()) {
-                        String encoderFlag = matcher.group(2);
-                        if ("E".equals(encoderFlag)) {
-                            String aux = matcher.group(3);
-                            StringTokenizer st = new StringTokenizer(aux, ",");
-                            while (st.hasMoreTokens()) {
-                                String token = st.nextToken().trim();
-                                if (!res.contains(token)) {
-                                    res.add(token);
-                                }
-                            }
-                        }
-                    } else {
-                        break;
-                    }
-                } else if (line.trim().equals("File formats:")) {
-                    evaluate = true;
-                }
+            reader = new RBufferedReader(new InputStreamReader(ffmpeg.getErrorStream()));
+            MultimediaInfo info = parseMultimediaInfo(source, reader);
+            ffmpeg.destroy();
+            checkTimeout(ffmpeg, null);
+            return info;
+        } catch (EncoderException e) {
+            ffmpeg.destroy();
+            checkTimeout(ffmpeg, e);
+            throw e;
+        } finally {
+            ffmpeg.destroy();
+        }
+    }
+
+    /**
+     * Private utility. It builds a ffprobe executor if the probe backend allows
+     * it, with the default wall-clock budget.
+     *
+     * @return A new ffprobe executor, or null if the ffmpeg output must be
+     * parsed instead.
+     * @throws EncoderException If ffprobe is required but cannot be found.
+     */
+    private FFMPEGExecutor createProbeExecutor() throws EncoderException {
+        if (probeBackend == ProbeBackendTypeEnum.FFMPEG) {
+            return null;
+        }
+        FFMPEGExecutor ffprobe = locator.createProbeExecutor();
+        if (ffprobe == null) {
+            if (probeBackend == ProbeBackendTypeEnum.FFPROBE) {
+                throw new EncoderException("ffprobe executable not found");
             }
+            return null;
+        }
+        ffprobe.setTimeout(defaultTimeout);
+        return ffprobe;
+    }
+
+    /**
+     * Private utility. It probes a multimedia file with ffprobe and parses its
+     * json output.
+     *
+     * @param ffprobe The ffprobe executor.
+     * @param source  The source multimedia file.
+     * @return A set of informations about the file and its contents.
+     * @throws InputFormatException If the format of the source file cannot be recognized and
+     *                              decoded.
+     * @throws EncoderException     If a problem occurs calling the underlying ffprobe executable.
+     */
+    private MultimediaInfo getInfoByFFProbe(FFMPEGExecutor ffprobe, File source) throws InputFormatException, EncoderException {
+        ffprobe.addArgument("-v");
+        ffprobe.addArgument("error");
+        ffprobe.addArgument("-print_format");
+        ffprobe.addArgument("json");
+        ffprobe.addArgument("-show_format");
+        ffprobe.addArgument("-show_streams");
+        ffprobe.addArgument(source.getAbsolutePath());
+        ffprobe.setReadInputStream(true);
+        String json;
+        try {
+            ffprobe.execute();
+            json = IOUtils.toString(ffprobe.getInputStream(), "UTF-8");
         } catch (IOException e) {
+            ffprobe.destroy();
+            checkTimeout(ffprobe, e);
             throw new EncoderException(e);
         } finally {
-            ffmpeg.destroy();
+            ffprobe.destroy();
         }
-        int size = res.size();
-        String[] ret = new String[size];
-        for (int i = 0; i < size; i++) {
-            ret[i] = (String) res.get(i);
+        checkTimeout(ffprobe, null);
+        MultimediaInfo info = ffprobe.getExitValue() == 0 ? FFProbeParser.parse(json) : null;
+        if (info == null) {
+            String message = ffprobe.getErrorMessage();
+            if (message == null) {
+                throw new InputFormatException();
+            }
+            message = message.trim();
+            String token = source.getAbsolutePath() + ": ";
+            if (message.startsWith(token)) {
+                message = message.substring(token.length());
+            }
+            throw new InputFormatException(message);
+        }
+        return info;
+    }
+
+    /**
+     * Returns a set of informations about each of the given multimedia files.
+     * Many files are probed by the same ffmpeg process, see
+     * {@link Encoder#setProbeBatchSize(int)}: ffmpeg stops at the first file it
+     * cannot open, so the files following it are probed again by the next
+     * process. The ffmpeg output is always parsed, whatever the probe backend.
+     *
+     * @param sources The source multimedia files.
+     * @return The outcome of probing each file, in the order of the sources.
+     * A file whose format cannot be recognized and decoded reports an
+     * {@link InputFormatException}.
+     * @throws EncoderException If a problem occurs calling the underlying ffmpeg executable.
+     */
+    public List<ProbeResult> getInfo(List<File> sources) throws EncoderException {
+        ProbeResult[] results = new ProbeResult[sources.size()];
+        LinkedList<Integer> pending = new LinkedList<Integer>();
+        for (int i = 0; i < sources.size(); i++) {
+            MultimediaInfo info = knownInfo(sources.get(i));
+            if (info != null) {
+                results[i] = new ProbeResult(sources.get(i), info, null);
+            } else {
+                pending.add(i);
+            }
+        }
+        while (!pending.isEmpty()) {
+            List<Integer> batch = new ArrayList<Integer>();
+            while (batch.size() < probeBatchSize && !pending.isEmpty()) {
+                batch.add(pending.removeFirst());
+            }
+            List<Integer> unprobed = probeBatch(sources, batch, results);
+            pending.addAll(0, unprobed);
+            for (Integer index : batch) {
+                if (results[index] != null && results[index].isSuccess()) {
+                    storeInfo(sources.get(index), results[index].getInfo());
+                }
+            }
         }
-        return ret;
+        return Arrays.asList(results);
     }
 
     /**
-     * Returns a list with the names of all the file formats supported at
-     * decoding time by the underlying ffmpeg distribution. A multimedia file
-     * could be open and decoded only if its format is in this list.
+     * Private utility. It probes a batch of files with a single ffmpeg process.
      *
-     * @return A list with the names of all the supported file formats at
-     * decoding time.
+     * @param sources The source multimedia files.
+     * @param batch   The indexes of the sources to probe.
+     * @param results The results, filled for the files probed.
+     * @return The indexes of the sources ffmpeg did not reach, to probe again.
      * @throws EncoderException If a problem occurs calling the underlying ffmpeg executable.
      */
-    public String[] getSupportedDecodingFormats() throws EncoderException {
-        ArrayList res = new ArrayList();
-        FFMPEGExecutor ffmpeg = locator.createExecutor();
-        ffmpeg.addArgument("-formats");
+    private List<Integer> probeBatch(List<File> sources, List<Integer> batch, ProbeResult[] results) throws EncoderException {
+        FFMPEGExecutor ffmpeg = createExecutor(null);
+        for (Integer index : batch) {
+            ffmpeg.addArgument("-i");
+            ffmpeg.addArgument(sources.get(index).getAbsolutePath());
+        }
+        StringBuilder[] blocks = new StringBuilder[batch.size()];
+        String failure = null;
         try {
             ffmpeg.execute();
-            RBufferedReader reader = null;
-            reader = new RBufferedReader(new InputStreamReader(ffmpeg.getInputStream()));
+            RBufferedReader reader = new RBufferedReader(new InputStreamReader(ffmpeg.getErrorStream()));
+            int current = -1;
             String line;
-            boolean evaluate = false;
             while ((line = reader.readLine()) != null) {
-                if (line.trim().length() == 0) {
-                    continue;
-                }
-                if (evaluate) {
-                    Matcher matcher = FORMAT_PATTERN.matcher(line);
-                    if (matcher.matches()) {
-                        String decoderFlag = matcher.group(1);
-                        if ("D".equals(decoderFlag)) {
-                            String aux = matcher.group(3);
-                            StringTokenizer st = new StringTokenizer(aux, ",");
-                            while (st.hasMoreTokens()) {
-                                String token = st.nextToken().trim();
-                                if (!res.contains(token)) {
-                                    res.add(token);
-                                }
-                            }
-                        }
-                    } else {
-                        break;
+                Matcher m = INPUT_PATTERN.matcher(line);
+                if (m.matches()) {
+                    current = Integer.parseInt(m.group(1));
+                    if (current >= blocks.length) {
+                        current = -1;
+                        continue;
+                    }
+                    blocks[current] = new StringBuilder();
+                } else if (current + 1 < blocks.length && failure == null) {
+                    String token = sources.get(batch.get(current + 1)).getAbsolutePath() + ": ";
+                    if (line.startsWith(token)) {
+                        failure = line.substring(token.length());
+                        continue;
                     }
-                } else if (line.trim().equals("File formats:")) {
-                    evaluate = true;
+                }
+                if (current >= 0) {
+                    blocks[current].append(line).append('\n');
                 }
             }
         } catch (IOException e) {
-            throw new EncoderException(e);
-        } finally {
             ffmpeg.destroy();
-        }
-        int size = res.size();
-        String[] ret = new String[size];
-        for (int i = 0; i < size; i++) {
-            ret[i] = (String) res.get(i);
-        }
-        return ret;
-    }
-
-    /**
-     * Returns a set informations about a multimedia file, if its format is
-     * supported for decoding.
-     *
-     * @param source The source multimedia file.
-     * @return A set of informations about the file and its contents.
-     * @throws InputFormatException If the format of the source file cannot be recognized and
-     *                              decoded.
-     * @throws EncoderException     If a problem occurs calling the underlying ffmpeg executable.
-     */
-    public MultimediaInfo getInfo(File source) throws InputFormatException, EncoderException {
-        FFMPEGExecutor ffmpeg = locator.createExecutor();
-        ffmpeg.addArgument("-i");
-        ffmpeg.addArgument(source.getAbsolutePath());
-        try {
-            ffmpeg.execute();
-        } catch (IOException e) {
+            checkTimeout(ffmpeg, e);
             throw new EncoderException(e);
-        }
-        try {
-            RBufferedReader reader = null;
-            reader = new RBufferedReader(new InputStreamReader(ffmpeg.getErrorStream()));
-            return parseMultimediaInfo(source, reader);
         } finally {
             ffmpeg.destroy();
         }
+        checkTimeout(ffmpeg, null);
+        List<Integer> unprobed = new ArrayList<Integer>();
+        for (int k = 0; k < blocks.length; k++) {
+            int index = batch.get(k);
+            File source = sources.get(index);
+            if (blocks[k] != null) {
+                try {
+                    RBufferedReader reader = new RBufferedReader(new StringReader(blocks[k].toString()));
+                    results[index] = new ProbeResult(source, parseMultimediaInfo(source, reader, k), null);
+                } catch (EncoderException e) {
+                    results[index] = new ProbeResult(source, null, e);
+                }
+            } else if (unprobed.isEmpty() && (k == 0 || blocks[k - 1] != null)) {
+                // The first input ffmpeg could not open.
+                InputFormatException e = failure != null ? new InputFormatException(failure) : new InputFormatException();
+                results[index] = new ProbeResult(source, null, e);
+            } else {
+                unprobed.add(index);
+            }
+        }
+        return unprobed;
     }
 
     public MultimediaInfo getInfo(File source, File target, VideoAttributes videoAttributes, AudioAttributes audioAttributes, String format) throws InputFormatException, EncoderException {
-        FFMPEGExecutor ffmpeg = locator.createExecutor();
+        FFMPEGExecutor ffmpeg = createExecutor(null);
         ffmpeg.addArgument("-i");
         ffmpeg.addArgument(source.getAbsolutePath());
 
@@ -492,7 +1096,14 @@ public class Encoder {
         try {
             RBufferedReader reader = null;
             reader = new RBufferedReader(new InputStreamReader(ffmpeg.getErrorStream()));
-            return parseMultimediaInfo(source, reader);
+            MultimediaInfo info = parseMultimediaInfo(source, reader);
+            ffmpeg.destroy();
+            checkTimeout(ffmpeg, null);
+            return info;
+        } catch (EncoderException e) {
+            ffmpeg.destroy();
+            checkTimeout(ffmpeg, e);
+            throw e;
         } finally {
             ffmpeg.destroy();
         }
@@ -511,212 +1122,24 @@ public class Encoder {
      * @throws EncoderException     If a problem occurs calling the underlying ffmpeg executable.
      */
     private MultimediaInfo parseMultimediaInfo(File source, RBufferedReader reader) throws InputFormatException, EncoderException {
-        Pattern p1 = Pattern.compile("^\\s*Input #0, (\\w+).+$\\s*", Pattern.CASE_INSENSITIVE);
-        Pattern p2 = Pattern.compile("^\\s*Duration: (\\d\\d):(\\d\\d):(\\d\\d)\\.(\\d).*$", Pattern.CASE_INSENSITIVE);
-        Pattern p3 = Pattern.compile("^\\s*Stream #\\S+: ((?:Audio)|(?:Video)|(?:Data)): (.*)\\s*$", Pattern.CASE_INSENSITIVE);
-        Pattern p4 = Pattern.compile("(\\[Parsed_volumedetect_0 @ )(\\w*)\\] ([a-z_A-Z]*)(\\d*)([a-zA-Z: ]*)([-.\\d]*)", Pattern.CASE_INSENSITIVE);
-        MultimediaInfo info = null;
-        boolean videoInfo = false;
-        boolean audioInfo = false;
-        int creationflag = 0;
-        LinkedList<String> creations = new LinkedList<String>();
-        VideoInfo video = new VideoInfo();
-        AudioInfo audio = new AudioInfo();
-        try {
-            int step = 0;
-            while (true) {
-                String line = reader.readLine();
-                if (line == null) {
-                    break;
-                }
-                if (step == 0) {
-                    String token = source.getAbsolutePath() + ": ";
-                    if (line.startsWith(token)) {
-                        String message = line.substring(token.length());
-                        throw new InputFormatException(message);
-                    }
-                    Matcher m = p1.matcher(line);
-                    boolean flag = false;
-                    if (m.matches()) {
-                        String format = m.group(1);
-                        info = new MultimediaInfo();
-                        info.setFormat(format);
-                        step++;
-                        creations.add("metadata@");
-                    }
-                }
-                if (step == 1) {
-                    Matcher m = p2.matcher(line);
-                    if (m.matches()) {
-                        long hours = Integer.parseInt(m.group(1));
-                        long minutes = Integer.parseInt(m.group(2));
-                        long seconds = Integer.parseInt(m.group(3));
-                        long dec = Integer.parseInt(m.group(4));
-                        long duration = (dec * 100L) + (seconds * 1000L) + (minutes * 60L * 1000L) + (hours * 60L * 60L * 1000L);
-                        info.setDuration(duration);
-                        step++;
-                    }
-                }
-                if (step == 2) {
-                    Matcher m = p3.matcher(line);
-                    if (m.matches()) {
-                        String type = m.group(1);
-                        String specs = m.group(2);
-                        if ("Video".equalsIgnoreCase(type)) {
-                            StringTokenizer st = new StringTokenizer(specs, ",");
-                            for (int i = 0; st.hasMoreTokens(); i++) {
-                                String token = st.nextToken().trim();
-                                if (i == 0) {
-                                    video.setDecoder(token);
-                                } else {
-                                    boolean parsed = false;
-                                    // Video size.
-                                    Matcher m2 = SIZE_PATTERN.matcher(token);
-                                    if (!parsed && m2.find()) {
-                                        int width = Integer.parseInt(m2.group(1));
-                                        int height = Integer.parseInt(m2.group(2));
-                                        video.setSize(new VideoSize(width, height));
-                                        parsed = true;
-                                    }
-                                    // Frame rate.
-                                    m2 = FRAME_RATE_PATTERN.matcher(token);
-                                    if (!parsed && m2.find()) {
-                                        try {
-                                            float frameRate = Float.parseFloat(m2.group(1));
-                                            video.setFrameRate(frameRate);
-                                        } catch (NumberFormatException e) {
-                                            ;
-                                        }
-                                        parsed = true;
-                                    }
-                                    // Bit rate.
-                                    m2 = BIT_RATE_PATTERN.matcher(token);
-                                    if (!parsed && m2.find()) {
-                                        int bitRate = Integer.parseInt(m2.group(1));
-                                        video.setBitRate(bitRate);
-                                        parsed = true;
-                                    }
-                                }
-                            }
-                            info.setVideo(video);
-                            videoInfo = true;
-                            creations.add("video@");
-                        }
-                        if ("Audio".equalsIgnoreCase(type)) {
-                            StringTokenizer st = new StringTokenizer(specs, ",");
-                            for (int i = 0; st.hasMoreTokens(); i++) {
-                                String token = st.nextToken().trim();
-                                if (i == 0) {
-                                    audio.setDecoder(token);
-                                } else {
-                                    boolean parsed = false;
-                                    // Sampling rate.
-                                    Matcher m2 = SAMPLING_RATE_PATTERN.matcher(token);
-                                    if (!parsed && m2.find()) {
-                                        int samplingRate = Integer.parseInt(m2.group(1));
-                                        audio.setSamplingRate(samplingRate);
-                                        parsed = true;
-                                    }
-                                    // Channels.
-                                    m2 = CHANNELS_PATTERN.matcher(token);
-                                    if (!parsed && m2.find()) {
-                                        String ms = m2.group(1);
-                                        if ("mono".equalsIgnoreCase(ms)) {
-                                            audio.setChannels(1);
-                                        } else if ("stereo".equalsIgnoreCase(ms)) {
-                                            audio.setChannels(2);
-                                        }
-                                        parsed = true;
-                                    }
-                                    // Bit rate.
-                                    m2 = BIT_RATE_PATTERN.matcher(token);
-                                    if (!parsed && m2.find()) {
-                                        int bitRate = Integer.parseInt(m2.group(1));
-                                        audio.setBitRate(bitRate);
-                                        parsed = true;
-                                    }
-                                }
-                            }
-                            info.setAudio(audio);
-                            audioInfo = true;
-                            creations.add("audio@");
-                        }
-                    }
-                    if (audioInfo == true && videoInfo == true && creationflag == 3) {
-                        step = 3;
-                        for (String creation : creations) {
-                            if (creation == null || creation == "") continue;
-                            String[] split = creation.split("@");
-                            if (creation.contains("metadata")) {
-                                info.setCreationTime(DateUtil.UTCGMT2Date(split[1]));
-                                continue;
-                            }
-                            if (creation.contains("video")) {
-                                video.setCreationTime(DateUtil.UTCGMT2Date(split[1]));
-                                info.setVideo(video);
-                                continue;
-                            }
-                            if (creation.contains("audio")) {
-                                audio.setCreationTime(DateUtil.UTCGMT2Date(split[1]));
-                                info.setAudio(audio);
-                            }
-                        }
-                    }
-                }
-                if (line.contains("creation_time")) {
-                    String[] split = line.split(" :");
-                    if (split.length == 2) {
-                        creationflag++;
-                        creations.set(creations.size() - 1, creations.getLast() + split[1].trim());
-                    }
-                }
-
-                Matcher m = p4.matcher(line);
-                if (m.find()) {
-                    if (audio == null) {
-                        audio = new AudioInfo();
-                    }
-                    if (audio.getVolumedetect() == null) {
-                        VolumedetectInfo volumedetectInfo = new VolumedetectInfo();
-                        audio.setVolumedetect(volumedetectInfo);
-                    }
-                    if (audio.getVolumedetect().getHistogramMap() == null) {
-                        HashMap<String, String> map = new HashMap<>();
-                        audio.getVolumedetect().setHistogramMap(map);
-                    }
-                    String type = m.group(3);
-                    if (type == null || type.length() == 0) {
-                        continue;
-                    }
-                    String group = m.group(4);
-                    String value = m.group(6);
-                    switch (type) {
-                        case "n_samples":
-                            break;
-                        case "mean_volume":
-                            audio.getVolumedetect().setMeanVolume(value);
-                            break;
-                        case "max_volume":
-                            audio.getVolumedetect().setMaxVolume(value);
-                            break;
-                        case "histogram_":
-                            audio.getVolumedetect().getHistogramMap().put(group + "db", value);
-                            break;
-                    }
+        return parseMultimediaInfo(source, reader, 0);
+    }
 
-                }
-                if (step == 3) {
-                    reader.reinsertLine(line);
-                    break;
-                }
-            }
-        } catch (IOException e) {
-            throw new EncoderException(e);
-        }
-        if (info == null) {
-            throw new InputFormatException();
-        }
-        return info;
+    /**
+     * Private utility. It parses the ffmpeg output, extracting informations
+     * about the source multimedia file given as the input of the given index.
+     *
+     * @param source The source multimedia file.
+     * @param reader The ffmpeg output channel.
+     * @param input  The index of the source among the ffmpeg inputs.
+     * @return A set of informations about the source multimedia file and its
+     * contents.
+     * @throws InputFormatException If the format of the source file cannot be recognized and
+     *                              decoded.
+     * @throws EncoderException     If a problem occurs calling the underlying ffmpeg executable.
+     */
+    private MultimediaInfo parseMultimediaInfo(File source, RBufferedReader reader, int input) throws InputFormatException, EncoderException {
+        return MultimediaInfoParser.parse(source, reader, input);
     }
 
     /**
@@ -740,49 +1163,516 @@ public class Encoder {
             String value = m.group(2);
             table.put(key, value);
         }
-        return table;
+        return table;
+    }
+
+    /**
+     * Re-encode a multimedia file.
+     *
+     * @param source     The source multimedia file. It cannot be null. Be sure this
+     *                   file can be decoded (see
+     *                   {@link Encoder#getSupportedDecodingFormats()},
+     *                   {@link Encoder#getAudioDecoders()} and
+     *                   {@link Encoder#getVideoDecoders()}).
+     * @param target     The target multimedia re-encoded file. It cannot be null. If
+     *                   this file already exists, it will be overwrited.
+     * @param attributes A set of attributes for the encoding process.
+     * @throws IllegalArgumentException If both audio and video parameters are null.
+     * @throws InputFormatException     If the source multimedia file cannot be decoded.
+     * @throws EncoderException         If a problems occurs during the encoding process.
+     */
+    public void encode(File source, File target, EncodingAttributes attributes) throws IllegalArgumentException, InputFormatException, EncoderException {
+        encode(source, target, attributes, null);
+    }
+
+    /**
+     * Re-encode a multimedia file.
+     *
+     * @param source     The source multimedia file. It cannot be null. Be sure this
+     *                   file can be decoded (see
+     *                   {@link Encoder#getSupportedDecodingFormats()},
+     *                   {@link Encoder#getAudioDecoders()} and
+     *                   {@link Encoder#getVideoDecoders()}).
+     * @param target     The target multimedia re-encoded file. It cannot be null. If
+     *                   this file already exists, it will be overwrited.
+     * @param attributes A set of attributes for the encoding process.
+     * @param listener   An optional progress listener for the encoding process. It can
+     *                   be null.
+     * @throws IllegalArgumentException If both audio and video parameters are null.
+     * @throws InputFormatException     If the source multimedia file cannot be decoded.
+     * @throws EncoderException         If a problems occurs during the encoding process.
+     */
+    public void encode(File source, File target, EncodingAttributes attributes, EncoderProgressListener listener) throws IllegalArgumentException, InputFormatException, EncoderException {
+        runShared("encode", Collections.singletonList(source), target, attributes, listener, new SingleFlight.Job<File>() {
+            public File run(EncoderProgressListener listener) throws EncoderException {
+                encodeOnce(source, target, attributes, parallelSegments, listener);
+                return target.getAbsoluteFile();
+            }
+        });
+    }
+
+    /**
+     * Re-encode a multimedia file, splitting it into segments encoded in
+     * parallel, as {@link Encoder#setParallelSegments(int)} does. The chunks
+     * of an audio encoding are encoded with some audio before and after them,
+     * and only the frames covering each chunk are kept, so the encoder delay
+     * and padding are not repeated at the seams: the stitched stream has the
+     * frames of a serial encoding, without gaps or drift.
+     *
+     * @param source     The source multimedia file.
+     * @param target     The target multimedia re-encoded file. If this file
+     *                   already exists, it will be overwrited.
+     * @param attributes A set of attributes for the encoding process.
+     * @param segments   The number of segments.
+     * @param listener   An optional progress listener for the encoding process.
+     *                   It can be null.
+     * @return The number of segments encoded and the wall-clock speedup.
+     * @throws IllegalArgumentException If both audio and video parameters are null.
+     * @throws InputFormatException     If the source multimedia file cannot be decoded.
+     * @throws EncoderException         If a problems occurs during the encoding process.
+     */
+    public ParallelEncodingResult encodeParallel(final File source, final File target, final EncodingAttributes attributes, final int segments, EncoderProgressListener listener) throws IllegalArgumentException, InputFormatException, EncoderException {
+        if (segments < 1) {
+            throw new IllegalArgumentException("segments must be at least 1");
+        }
+        final ParallelEncodingResult[] result = new ParallelEncodingResult[1];
+        long start = System.currentTimeMillis();
+        runShared("encode", Collections.singletonList(source), target, attributes, listener, new SingleFlight.Job<File>() {
+            public File run(EncoderProgressListener listener) throws EncoderException {
+                result[0] = encodeOnce(source, target, attributes, segments, listener);
+                return target.getAbsoluteFile();
+            }
+        });
+        if (result[0] != null) {
+            return result[0];
+        }
+        long wallClock = System.currentTimeMillis() - start;
+        return new ParallelEncodingResult(1, wallClock, wallClock);
+    }
+
+    /**
+     * Re-encodes a batch of multimedia files on a work-stealing pool, as many
+     * at the same time as the usable processors, see
+     * {@link EncodingScheduler#getAvailableProcessors()}.
+     *
+     * @param jobs The jobs.
+     * @return The running batch, yielding the results as the jobs complete.
+     */
+    public EncodeBatch encodeBatch(Collection<EncodeJob> jobs) {
+        return encodeBatch(jobs, EncodingScheduler.getAvailableProcessors(), false);
+    }
+
+    /**
+     * Re-encodes a batch of multimedia files on a work-stealing pool. The
+     * failure of a job does not stop the others: it is reported by the
+     * result of the job, as the time it waited and ran. Starting the longest
+     * sources first, probed together, see {@link Encoder#getInfo(List)},
+     * keeps a long job from running alone at the end of the batch.
+     *
+     * @param jobs         The jobs.
+     * @param parallelism  The max number of jobs running at the same time.
+     * @param longestFirst true to start the jobs by decreasing source
+     *                     duration, false to start them in order.
+     * @return The running batch, yielding the results as the jobs complete.
+     */
+    public EncodeBatch encodeBatch(Collection<EncodeJob> jobs, int parallelism, boolean longestFirst) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        List<EncodeJob> ordered = new ArrayList<EncodeJob>(jobs);
+        if (longestFirst && ordered.size() > 1) {
+            List<File> sources = new ArrayList<File>();
+            for (EncodeJob job : ordered) {
+                sources.add(job.getSource());
+            }
+            final Map<EncodeJob, Long> durations = new IdentityHashMap<EncodeJob, Long>();
+            try {
+                List<ProbeResult> probed = getInfo(sources);
+                for (int i = 0; i < ordered.size(); i++) {
+                    ProbeResult result = probed.get(i);
+                    durations.put(ordered.get(i), result.isSuccess() ? result.getInfo().getDuration() : -1L);
+                }
+            } catch (EncoderException e) {
+                // The jobs report it.
+                log.warn("cannot probe the batch sources, jobs started in order", e);
+            }
+            if (!durations.isEmpty()) {
+                // Stable: the unprobed sources keep their order, at the end.
+                Collections.sort(ordered, new Comparator<EncodeJob>() {
+                    public int compare(EncodeJob job1, EncodeJob job2) {
+                        return Long.compare(durations.get(job2), durations.get(job1));
+                    }
+                });
+            }
+        }
+        return new EncodeBatch(this, ordered, parallelism);
+    }
+
+    /**
+     * Re-encodes a multimedia file into many outputs, decoding it once, see
+     * {@link Encoder#encode(File, List, EncoderProgressListener)}.
+     *
+     * @param source  The source multimedia file.
+     * @param outputs The outputs.
+     * @return The results of the outputs, in order.
+     * @throws InputFormatException If the source multimedia file cannot be decoded.
+     * @throws EncoderException     If the source cannot be probed, or the
+     *                              encoding exceeds its budget.
+     */
+    public List<OutputResult> encode(File source, List<OutputSpec> outputs) throws InputFormatException, EncoderException {
+        return encode(source, outputs, null);
+    }
+
+    /**
+     * Re-encodes a multimedia file into many outputs by a single ffmpeg
+     * process, so the source is demuxed and decoded once. Each output has
+     * its own attributes: the outputs filtering the same stream are fed
+     * their copy of the decoded frames by a split (asplit for the audio), as
+     * the audio filter complex of an output, i.e. showwavespic, whose result
+     * is then the only stream of the output. The trims of an output are
+     * applied on the output side. The process runs with the default budget
+     * of the encoder.
+     * <p>
+     * ffmpeg gives up all the outputs if one of them cannot be opened: in
+     * that case the outputs are encoded apart, so each reports its own
+     * failure.
+     *
+     * @param source   The source multimedia file.
+     * @param outputs  The outputs.
+     * @param listener An optional progress listener for the shared encoding.
+     *                 It can be null.
+     * @return The results of the outputs, in order.
+     * @throws InputFormatException If the source multimedia file cannot be decoded.
+     * @throws EncoderException     If the source cannot be probed, or the
+     *                              encoding exceeds its budget.
+     */
+    public List<OutputResult> encode(File source, List<OutputSpec> outputs, EncoderProgressListener listener) throws InputFormatException, EncoderException {
+        MultimediaInfo info = getInfo(source);
+        int size = outputs.size();
+        Exception[] errors = new Exception[size];
+        String[] videoMaps = new String[size];
+        String[] audioMaps = new String[size];
+        String[] videoChains = new String[size];
+        String[] audioChains = new String[size];
+        List<Integer> videoFiltered = new ArrayList<Integer>();
+        List<Integer> audioFiltered = new ArrayList<Integer>();
+        for (int i = 0; i < size; i++) {
+            OutputSpec output = outputs.get(i);
+            AudioAttributes audioAttributes = output.getAttributes().getAudioAttributes();
+            VideoAttributes videoAttributes = output.getAttributes().getVideoAttributes();
+            boolean complex = audioAttributes != null && !isEmpty(audioAttributes.getFilterComplex());
+            if (complex && (audioAttributes.getFilterComplex().indexOf('[') >= 0 || audioAttributes.getFilterComplex().indexOf(';') >= 0)) {
+                errors[i] = new EncoderException("the filter complex of " + output.getTarget().getName() + " must be a single unlabeled chain");
+                continue;
+            }
+            boolean audio = audioAttributes != null && info.getAudio() != null;
+            boolean video = videoAttributes != null && info.getVideo() != null && !complex;
+            if (!audio && !video) {
+                errors[i] = new EncoderException(source.getName() + " has no stream to encode in " + output.getTarget().getName());
+                continue;
+            }
+            if (video) {
+                videoChains[i] = videoFilters(videoAttributes);
+                if (videoChains[i] != null) {
+                    videoFiltered.add(i);
+                } else {
+                    videoMaps[i] = "0:v:0";
+                }
+            }
+            if (audio) {
+                audioChains[i] = audioFilters(audioAttributes);
+                if (audioChains[i] != null) {
+                    audioFiltered.add(i);
+                } else {
+                    audioMaps[i] = "0:a:0";
+                }
+            }
+        }
+
+        FFMPEGExecutor ffmpeg = createExecutor(null);
+        ffmpeg.addArgument("-i");
+        ffmpeg.addArgument(source.getAbsolutePath());
+        StringBuilder graph = new StringBuilder();
+        appendSplit(graph, "split", "0:v:0", "v", videoFiltered, videoChains, videoMaps);
+        appendSplit(graph, "asplit", "0:a:0", "a", audioFiltered, audioChains, audioMaps);
+        if (graph.length() > 0) {
+            ffmpeg.addArgument("-filter_complex");
+            ffmpeg.addArgument(graph.toString());
+        }
+        List<Integer> shared = new ArrayList<Integer>();
+        for (int i = 0; i < size; i++) {
+            if (errors[i] != null) {
+                continue;
+            }
+            if (videoMaps[i] != null) {
+                ffmpeg.addArgument("-map");
+                ffmpeg.addArgument(videoMaps[i]);
+            }
+            if (audioMaps[i] != null) {
+                ffmpeg.addArgument("-map");
+                ffmpeg.addArgument(audioMaps[i]);
+            }
+            addOutputOptions(ffmpeg, outputs.get(i).getAttributes());
+            addOutput(ffmpeg, outputs.get(i).getAttributes(), outputs.get(i).getTarget());
+            // Overwritten anyway: a stale target must not pass for a result.
+            outputs.get(i).getTarget().delete();
+            shared.add(i);
+        }
+
+        boolean encoded = false;
+        if (!shared.isEmpty()) {
+            try {
+                runEncoding(ffmpeg, new EncodingAttributes(), source, listener);
+                encoded = ffmpeg.getExitValue() == 0;
+            } catch (EncoderTimeoutException e) {
+                throw e;
+            } catch (EncoderException e) {
+                log.warn("shared encoding of {} failed, encoding its outputs apart", source.getName(), e);
+            }
+        }
+        List<OutputResult> results = new ArrayList<OutputResult>(size);
+        for (int i = 0; i < size; i++) {
+            OutputSpec output = outputs.get(i);
+            File target = output.getTarget();
+            Exception error = errors[i];
+            if (error == null && !encoded) {
+                try {
+                    encode(source, target, output.getAttributes());
+                } catch (Exception e) {
+                    error = e;
+                }
+            }
+            // The errors of ffmpeg are not all reported by its output.
+            if (error == null && (!target.isFile() || target.length() == 0)) {
+                error = new EncoderException("ffmpeg has not written " + target.getName());
+            }
+            results.add(new OutputResult(output, error, encoded && shared.contains(i)));
+        }
+        return results;
+    }
+
+    /**
+     * Extracts single frames of a video, as many at the same time as the
+     * usable processors, see
+     * {@link Encoder#thumbnails(File, List, boolean, int)}.
+     *
+     * @param source The source video.
+     * @param frames The frames: the offset of their attributes is the time
+     *               of the frame, in seconds.
+     * @param exact  true for the frames at the exact times, false for the
+     *               keyframes at or before them.
+     * @return The results of the frames, in order.
+     * @throws EncoderException If the extraction is interrupted.
+     */
+    public List<OutputResult> thumbnails(File source, List<OutputSpec> frames, boolean exact) throws EncoderException {
+        return thumbnails(source, frames, exact, EncodingScheduler.getAvailableProcessors());
+    }
+
+    /**
+     * Extracts single frames of a video, each by its own ffmpeg process
+     * seeking on the input side: ffmpeg jumps to the keyframe before the
+     * time of the frame, rather than decoding the video from its start. An
+     * exact frame costs the decoding of the frames between the keyframe and
+     * the time, a keyframe costs the decoding of a single frame. The format
+     * of a frame is image2 if its attributes have none; its video
+     * attributes, i.e. size, quality and filters, are applied to it. A
+     * failed frame does not stop the others: it is reported by its result.
+     *
+     * @param source      The source video.
+     * @param frames      The frames: the offset of their attributes is the
+     *                    time of the frame, in seconds.
+     * @param exact       true for the frames at the exact times, false for
+     *                    the keyframes at or before them.
+     * @param parallelism The max number of ffmpeg processes running at the
+     *                    same time.
+     * @return The results of the frames, in order.
+     * @throws EncoderException If the extraction is interrupted.
+     */
+    public List<OutputResult> thumbnails(final File source, final List<OutputSpec> frames, final boolean exact, int parallelism) throws EncoderException {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        final Exception[] errors = new Exception[frames.size()];
+        final AtomicInteger next = new AtomicInteger();
+        final JobContext context = new JobContext(JobContext.current());
+        int workers = Math.min(parallelism, frames.size());
+        try {
+            CompletionService<Void> completion = new ExecutorCompletionService<Void>(getDefaultAsyncExecutor());
+            for (int w = 0; w < workers; w++) {
+                completion.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        JobContext previous = JobContext.enter(context);
+                        try {
+                            int i;
+                            while ((i = next.getAndIncrement()) < frames.size()) {
+                                OutputSpec frame = frames.get(i);
+                                try {
+                                    if (context.isCancelled()) {
+                                        throw new EncoderException("thumbnail extraction aborted");
+                                    }
+                                    extractFrame(source, frame.getTarget(), frame.getAttributes(), exact);
+                                } catch (Exception e) {
+                                    errors[i] = e;
+                                }
+                            }
+                        } finally {
+                            JobContext.exit(previous);
+                        }
+                        return null;
+                    }
+                });
+            }
+            awaitParts(completion, workers, context);
+        } finally {
+            context.close();
+        }
+        List<OutputResult> results = new ArrayList<OutputResult>(frames.size());
+        for (int i = 0; i < frames.size(); i++) {
+            results.add(new OutputResult(frames.get(i), errors[i], false));
+        }
+        return results;
+    }
+
+    /**
+     * Extracts a thumbnail every interval of a video, as the fps filter
+     * does. In fast mode the thumbnails are approximate: only the keyframes
+     * are decoded, at a reduced resolution when the decoder supports it and
+     * a size is requested, and they are scaled before any other filter. The
+     * fast mode falls back to the exact one when the keyframes are too
+     * sparse for the interval, which is checked by listing them first.
+     *
+     * @param source     The source video.
+     * @param target     The target images, i.e. "image-%3d.jpeg".
+     * @param attributes The attributes of the thumbnails: their trims,
+     *                   format (image2 if none), size, quality and filters.
+     * @param interval   The interval between two thumbnails, in seconds.
+     * @param fast       true for the keyframes only.
+     * @return true if the thumbnails are keyframes, false if they are exact.
+     * @throws EncoderException If the extraction fails.
+     */
+    public boolean thumbnails(File source, File target, EncodingAttributes attributes, double interval, boolean fast) throws EncoderException {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval must be positive");
+        }
+        VideoAttributes videoAttributes = attributes.getVideoAttributes();
+        VideoSize size = videoAttributes != null ? videoAttributes.getSize() : null;
+        SmartCut.Range range = SmartCut.range(attributes);
+        boolean keyframesOnly = false;
+        int lowres = 0;
+        if (fast) {
+            MultimediaInfo info = getInfo(source);
+            VideoInfo video = info.getVideo();
+            if (video == null) {
+                throw new EncoderException(source.getName() + " has no video");
+            }
+            double from = range != null ? range.start : 0;
+            double to = range != null && range.duration >= 0 ? from + range.duration : info.getDuration() / 1000.0;
+            keyframesOnly = denseKeyframes(keyframes(source, from, to, 0), from, to, interval);
+            if (keyframesOnly && size != null) {
+                lowres = lowres(video, size);
+            }
+        }
+
+        FFMPEGExecutor ffmpeg = createExecutor(attributes);
+        if (range != null) {
+            ffmpeg.addArgument("-ss");
+            ffmpeg.addArgument(SmartCut.format(range.start));
+        }
+        if (keyframesOnly) {
+            ffmpeg.addArgument("-skip_frame");
+            ffmpeg.addArgument("nokey");
+        }
+        if (lowres > 0) {
+            ffmpeg.addArgument("-lowres");
+            ffmpeg.addArgument(String.valueOf(lowres));
+        }
+        ffmpeg.addArgument("-i");
+        ffmpeg.addArgument(source.getAbsolutePath());
+        if (range != null && range.duration >= 0) {
+            ffmpeg.addArgument("-t");
+            ffmpeg.addArgument(SmartCut.format(range.duration));
+        }
+        ffmpeg.addArgument("-map");
+        ffmpeg.addArgument("0:v:0");
+        StringBuilder chain = new StringBuilder();
+        if (keyframesOnly && size != null) {
+            // Scales the few decoded frames first, not their copies.
+            appendFilter(chain, "scale=" + size.getWidth() + ":" + size.getHeight());
+        }
+        appendFilter(chain, "fps=1/" + SmartCut.format(interval));
+        if (videoAttributes != null) {
+            appendFilter(chain, videoFilters(videoAttributes));
+            if (!keyframesOnly && size != null) {
+                addOption(ffmpeg, "-s", size.getWidth() + "x" + size.getHeight());
+            }
+            addOption(ffmpeg, "-q:v", videoAttributes.getQv());
+        }
+        ffmpeg.addArgument("-vf");
+        ffmpeg.addArgument(chain.toString());
+        EncodingAttributes output = new EncodingAttributes();
+        output.setFormat(isEmpty(attributes.getFormat()) ? "image2" : attributes.getFormat());
+        addOutput(ffmpeg, output, target);
+        runEncoding(ffmpeg, output, source, null);
+        if (ffmpeg.getExitValue() != 0) {
+            throw new EncoderException("thumbnail extraction of " + source.getName() + " failed");
+        }
+        return keyframesOnly;
     }
 
     /**
-     * Re-encode a multimedia file.
+     * Plans an encoding without running it, as
+     * {@link Encoder#setEncodingPlanning(boolean)} does before each encoding.
      *
-     * @param source     The source multimedia file. It cannot be null. Be sure this
-     *                   file can be decoded (see
-     *                   {@link Encoder#getSupportedDecodingFormats()},
-     *                   {@link Encoder#getAudioDecoders()} and
-     *                   {@link Encoder#getVideoDecoders()}).
-     * @param target     The target multimedia re-encoded file. It cannot be null. If
-     *                   this file already exists, it will be overwrited.
+     * @param source     The source multimedia file.
+     * @param target     The target multimedia file.
      * @param attributes A set of attributes for the encoding process.
-     * @throws IllegalArgumentException If both audio and video parameters are null.
-     * @throws InputFormatException     If the source multimedia file cannot be decoded.
-     * @throws EncoderException         If a problems occurs during the encoding process.
+     * @return The cheapest way to produce the target, or
+     * {@link EncodingPlanTypeEnum#TRANSCODE} if the source cannot be probed.
      */
-    public void encode(File source, File target, EncodingAttributes attributes) throws IllegalArgumentException, InputFormatException, EncoderException {
-        encode(source, target, attributes, null);
+    public EncodingPlanTypeEnum plan(File source, File target, EncodingAttributes attributes) {
+        MultimediaInfo info;
+        try {
+            info = getInfo(source);
+        } catch (EncoderException e) {
+            // Let the encoding report it.
+            info = null;
+        }
+        return EncodingPlanner.plan(info, source, target, attributes);
     }
 
     /**
-     * Re-encode a multimedia file.
+     * Private utility. It copies a source which already matches the encoding
+     * attributes to the target, publishing it atomically.
      *
-     * @param source     The source multimedia file. It cannot be null. Be sure this
-     *                   file can be decoded (see
-     *                   {@link Encoder#getSupportedDecodingFormats()},
-     *                   {@link Encoder#getAudioDecoders()} and
-     *                   {@link Encoder#getVideoDecoders()}).
-     * @param target     The target multimedia re-encoded file. It cannot be null. If
-     *                   this file already exists, it will be overwrited.
-     * @param attributes A set of attributes for the encoding process.
-     * @param listener   An optional progress listener for the encoding process. It can
-     *                   be null.
-     * @throws IllegalArgumentException If both audio and video parameters are null.
-     * @throws InputFormatException     If the source multimedia file cannot be decoded.
-     * @throws EncoderException         If a problems occurs during the encoding process.
+     * @param source The source file.
+     * @param target The target file.
+     * @throws EncoderException If the copy fails.
      */
-    public void encode(File source, File target, EncodingAttributes attributes, EncoderProgressListener listener) throws IllegalArgumentException, InputFormatException, EncoderException {
-        String formatAttribute = attributes.getFormat();
-        Float offsetAttribute = attributes.getOffset();
-        Float durationAttribute = attributes.getDuration();
+    private void copySource(File source, File target) throws EncoderException {
+        File tmp = null;
+        try {
+            if (source.getCanonicalFile().equals(target.getCanonicalFile())) {
+                return;
+            }
+            tmp = File.createTempFile("." + target.getName() + "-", ".tmp", target.getParentFile());
+            OutputCache.copy(source, tmp);
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+            throw new EncoderException(e);
+        }
+    }
+
+    /**
+     * Private utility. The body of
+     * {@link Encoder#encode(File, File, EncodingAttributes, EncoderProgressListener)}.
+     *
+     * @return The outcome of the parallel encoding, or null if the source
+     * has not been split.
+     */
+    private ParallelEncodingResult encodeOnce(File source, File target, EncodingAttributes attributes, int segments, EncoderProgressListener listener) throws IllegalArgumentException, InputFormatException, EncoderException {
         AudioAttributes audioAttributes = attributes.getAudioAttributes();
         VideoAttributes videoAttributes = attributes.getVideoAttributes();
         if (audioAttributes == null && videoAttributes == null) {
@@ -790,9 +1680,76 @@ public class Encoder {
         }
         target = target.getAbsoluteFile();
         target.getParentFile().mkdirs();
-        FFMPEGExecutor ffmpeg = locator.createExecutor();
+        OutputCache outputCache = this.outputCache;
+        String cacheKey = outputCache != null ? outputKey(source, target, attributes) : null;
+        if (cacheKey != null && outputCache.serve(cacheKey, target)) {
+            if (listener != null) {
+                listener.progress(1000);
+            }
+            return null;
+        }
+        SmartCut.Range cut = smartCut ? SmartCut.range(attributes) : null;
+        if (cut != null && smartCut(source, target, attributes, cut, listener)) {
+            planCounts.incrementAndGet(EncodingPlanTypeEnum.SMART_CUT.ordinal());
+            return null;
+        }
+        EncodingPlanTypeEnum plan = encodingPlanning ? plan(source, target, attributes) : EncodingPlanTypeEnum.TRANSCODE;
+        planCounts.incrementAndGet(plan.ordinal());
+        if (encodingPlanning && log.isDebugEnabled()) {
+            log.debug("encoding plan " + plan.getCode() + ": " + source + " -> " + target);
+        }
+        if (plan == EncodingPlanTypeEnum.SKIP) {
+            copySource(source, target);
+            if (listener != null) {
+                listener.progress(1000);
+            }
+            return null;
+        }
+        boolean copyVideo = plan == EncodingPlanTypeEnum.REMUX || plan == EncodingPlanTypeEnum.AUDIO_ONLY;
+        boolean copyAudio = plan == EncodingPlanTypeEnum.REMUX;
+        ParallelEncodingResult result = null;
+        if (plan == EncodingPlanTypeEnum.TRANSCODE && cut == null && segments > 1) {
+            result = encodeVideoSegments(source, target, attributes, segments, listener);
+            if (result == null) {
+                result = encodeAudioSegments(source, target, attributes, segments, listener);
+            }
+        }
+        boolean encoded = result != null || transcode(source, target, attributes, cut, copyVideo, copyAudio, listener);
+        if (cacheKey != null && encoded && target.isFile()) {
+            outputCache.store(cacheKey, target);
+        }
+        return result;
+    }
 
-        if (offsetAttribute != null) {
+    /**
+     * Private utility. It runs the ffmpeg encoding of
+     * {@link Encoder#encode(File, File, EncodingAttributes, EncoderProgressListener)}.
+     *
+     * @param source     The source file.
+     * @param target     The target file.
+     * @param attributes The encoding attributes.
+     * @param cut        The cut to seek on the input side, or null to apply
+     *                   the trim attributes as they are.
+     * @param copyVideo  true to copy the video stream.
+     * @param copyAudio  true to copy the audio stream.
+     * @param listener   An optional progress listener. It can be null.
+     * @param options    The extra output options.
+     * @return true if ffmpeg succeeded.
+     * @throws EncoderException If the encoding fails.
+     */
+    private boolean transcode(File source, File target, EncodingAttributes attributes, SmartCut.Range cut, boolean copyVideo, boolean copyAudio, EncoderProgressListener listener, String... options) throws EncoderException {
+        String formatAttribute = attributes.getFormat();
+        Float offsetAttribute = attributes.getOffset();
+        Float durationAttribute = attributes.getDuration();
+        AudioAttributes audioAttributes = attributes.getAudioAttributes();
+        VideoAttributes videoAttributes = attributes.getVideoAttributes();
+        FFMPEGExecutor ffmpeg = createExecutor(attributes);
+
+        if (cut != null) {
+            // Seek on the input side, rather than decoding up to the cut.
+            ffmpeg.addArgument("-ss");
+            ffmpeg.addArgument(SmartCut.format(cut.start));
+        } else if (offsetAttribute != null) {
             ffmpeg.addArgument("-ss");
             ffmpeg.addArgument(String.valueOf(offsetAttribute.floatValue()));
         }
@@ -808,12 +1765,20 @@ public class Encoder {
             ffmpeg.addArgument("-metadata:s:v");
             ffmpeg.addArgument(attributes.getMetadataSv());
         }
-        if (durationAttribute != null) {
+        if (cut != null) {
+            if (cut.duration >= 0) {
+                ffmpeg.addArgument("-t");
+                ffmpeg.addArgument(SmartCut.format(cut.duration));
+            }
+        } else if (durationAttribute != null) {
             ffmpeg.addArgument("-t");
             ffmpeg.addArgument(String.valueOf(durationAttribute.floatValue()));
         }
         if (videoAttributes == null) {
             ffmpeg.addArgument("-vn");
+        } else if (copyVideo) {
+            ffmpeg.addArgument("-vcodec");
+            ffmpeg.addArgument("copy");
         } else {
             String codec = videoAttributes.getCodec();
             if (codec != null) {
@@ -854,13 +1819,13 @@ public class Encoder {
             }
 
             String startTime = videoAttributes.getStartTime();
-            if (startTime != null) {
+            if (startTime != null && cut == null) {
                 ffmpeg.addArgument("-ss");
                 ffmpeg.addArgument(startTime);
             }
 
             String duration = videoAttributes.getDuration();
-            if (duration != null) {
+            if (duration != null && cut == null) {
                 ffmpeg.addArgument("-t");
                 ffmpeg.addArgument(duration);
             }
@@ -892,6 +1857,9 @@ public class Encoder {
         }
         if (audioAttributes == null) {
             ffmpeg.addArgument("-an");
+        } else if (copyAudio) {
+            ffmpeg.addArgument("-acodec");
+            ffmpeg.addArgument("copy");
         } else {
             String codec = audioAttributes.getCodec();
             if (codec != null) {
@@ -920,12 +1888,12 @@ public class Encoder {
                 ffmpeg.addArgument(String.valueOf(vol.intValue()));
             }
             String startTime = audioAttributes.getStartTime();
-            if (startTime != null) {
+            if (startTime != null && cut == null) {
                 ffmpeg.addArgument("-ss");
                 ffmpeg.addArgument(startTime);
             }
             String duration = audioAttributes.getDuration();
-            if (duration != null) {
+            if (duration != null && cut == null) {
                 ffmpeg.addArgument("-t");
                 ffmpeg.addArgument(duration);
             }
@@ -971,38 +1939,973 @@ public class Encoder {
                 String audioArg = "[0:a]atempo=%s[a]";
                 audioArg = String.format(audioArg, afValue);
 
-                ffmpeg.addArgument("-filter_complex");
-                ffmpeg.addArgument(videoArg + audioArg);
+                ffmpeg.addArgument("-filter_complex");
+                ffmpeg.addArgument(videoArg + audioArg);
+
+                ffmpeg.addArgument("-map");
+                ffmpeg.addArgument("[v]");
+
+                ffmpeg.addArgument("-map");
+                ffmpeg.addArgument("[a]");
+            }
+        }
+
+        for (String option : options) {
+            ffmpeg.addArgument(option);
+        }
+        if (formatAttribute != null && formatAttribute.length() > 0) {
+            ffmpeg.addArgument("-f");
+            ffmpeg.addArgument(formatAttribute);
+        }
+
+        ffmpeg.addArgument("-y");
+        ffmpeg.addArgument(target.getAbsolutePath());
+
+        runEncoding(ffmpeg, attributes, source, listener);
+        return ffmpeg.getExitValue() == 0;
+    }
+
+    /**
+     * Private utility. It encodes the video of a source in segments split at
+     * keyframes, by concurrent ffmpeg processes, then concatenates them
+     * without re-encoding. The audio is encoded whole, by another process,
+     * so it has no seams. A failed segment aborts the others.
+     *
+     * @param source     The source file.
+     * @param target     The target file.
+     * @param attributes The encoding attributes.
+     * @param segments   The wanted number of segments.
+     * @param listener   An optional progress listener. It can be null.
+     * @return The outcome of the encoding, or null if the source cannot be
+     * split and must be encoded whole.
+     * @throws EncoderException If a segment fails.
+     */
+    private ParallelEncodingResult encodeVideoSegments(final File source, File target, EncodingAttributes attributes, int segments, EncoderProgressListener listener) throws EncoderException {
+        final VideoAttributes videoAttributes = attributes.getVideoAttributes();
+        final AudioAttributes audioAttributes = attributes.getAudioAttributes();
+        if (videoAttributes == null || videoAttributes.getTag() != null || SmartCut.range(attributes) != null) {
+            return null;
+        }
+        MultimediaInfo info;
+        try {
+            info = getInfo(source);
+        } catch (EncoderException e) {
+            return null;
+        }
+        VideoInfo video = info.getVideo();
+        double duration = info.getDuration() / 1000.0;
+        if (video == null || duration < 2 * MIN_SEGMENT_SECONDS) {
+            return null;
+        }
+        // Half a frame: the margin of the seeks, so each lands on its keyframe.
+        final double half = video.getFrameRate() > 0 ? 0.5 / video.getFrameRate() : 0.001;
+        final List<Double> starts = SmartCut.split(keyframes(source, 0, duration, half), duration, segments, MIN_SEGMENT_SECONDS);
+        segments = starts.size();
+        if (segments < 2) {
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        double[] durations = new double[segments];
+        for (int i = 0; i < segments; i++) {
+            durations[i] = (i + 1 < segments ? starts.get(i + 1) : duration) - starts.get(i);
+        }
+        final AtomicLong segmentMillis = new AtomicLong();
+        final SegmentProgress progress = listener != null ? new SegmentProgress(listener, durations) : null;
+        final JobContext context = new JobContext(JobContext.current());
+        File dir = null;
+        try {
+            dir = Files.createTempDirectory("jave-parallel").toFile();
+            CompletionService<Void> completion = new ExecutorCompletionService<Void>(getDefaultAsyncExecutor());
+            StringBuilder list = new StringBuilder();
+            for (int i = 0; i < segments; i++) {
+                final int index = i;
+                final File segment = new File(dir, "segment" + i + ".mkv");
+                final EncodingAttributes segmentAttributes = partAttributes(attributes, videoAttributes, null);
+                final SmartCut.Range cut;
+                if (i + 1 < segments) {
+                    cut = new SmartCut.Range(i > 0 ? starts.get(i) - half : 0, durations[i]);
+                    segmentAttributes.setDuration((float) durations[i]);
+                } else {
+                    cut = new SmartCut.Range(starts.get(i) - half, -1);
+                    segmentAttributes.setOffset((float) cut.start);
+                }
+                completion.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        segmentMillis.addAndGet(runPart(context, source, segment, segmentAttributes, cut, progress != null ? progress.part(index) : null));
+                        return null;
+                    }
+                });
+                appendPiece(list, segment, -1);
+            }
+            int tasks = segments;
+            final File audio = new File(dir, "audio.mkv");
+            final boolean hasAudio = audioAttributes != null && info.getAudio() != null;
+            if (hasAudio) {
+                completion.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        segmentMillis.addAndGet(runPart(context, source, audio, partAttributes(attributes, null, audioAttributes), null, null));
+                        return null;
+                    }
+                });
+                tasks++;
+            }
+            awaitParts(completion, tasks, context);
+            File listFile = new File(dir, "list.txt");
+            Files.write(listFile.toPath(), list.toString().getBytes("UTF-8"));
+
+            FFMPEGExecutor ffmpeg = createExecutor(attributes);
+            ffmpeg.addArgument("-f");
+            ffmpeg.addArgument("concat");
+            ffmpeg.addArgument("-safe");
+            ffmpeg.addArgument("0");
+            ffmpeg.addArgument("-i");
+            ffmpeg.addArgument(listFile.getAbsolutePath());
+            if (hasAudio) {
+                ffmpeg.addArgument("-i");
+                ffmpeg.addArgument(audio.getAbsolutePath());
+            }
+            ffmpeg.addArgument("-map");
+            ffmpeg.addArgument("0:v:0");
+            if (hasAudio) {
+                ffmpeg.addArgument("-map");
+                ffmpeg.addArgument("1:a:0");
+            }
+            if (attributes.getMetadataSv() != null && attributes.getMetadataSv().length() > 0) {
+                ffmpeg.addArgument("-metadata:s:v");
+                ffmpeg.addArgument(attributes.getMetadataSv());
+            }
+            ffmpeg.addArgument("-c");
+            ffmpeg.addArgument("copy");
+            addOutput(ffmpeg, attributes, target);
+            runStep(ffmpeg, attributes, null, null);
+            if (listener != null) {
+                listener.progress(1000);
+            }
+            return new ParallelEncodingResult(segments, System.currentTimeMillis() - start, segmentMillis.get());
+        } catch (IOException e) {
+            throw new EncoderException(e);
+        } finally {
+            context.close();
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    /**
+     * Private utility. It encodes the audio of a source to mp3, aac or opus
+     * in chunks aligned on the frames of the codec, by concurrent ffmpeg
+     * processes, then concatenates them without re-encoding. Each chunk is
+     * encoded with some audio before and after it, and only its own frames
+     * are kept, so the encoder delay and padding show up once, at the ends of
+     * the stream. The mp3 chunks after the first one are encoded without bit
+     * reservoir, as their first frame cannot borrow bits from the frames of
+     * another chunk. A failed chunk aborts the others.
+     *
+     * @param source     The source file.
+     * @param target     The target file.
+     * @param attributes The encoding attributes.
+     * @param segments   The wanted number of chunks.
+     * @param listener   An optional progress listener. It can be null.
+     * @return The outcome of the encoding, or null if the source cannot be
+     * split and must be encoded whole.
+     * @throws EncoderException If a chunk fails.
+     */
+    private ParallelEncodingResult encodeAudioSegments(final File source, File target, EncodingAttributes attributes, int segments, EncoderProgressListener listener) throws EncoderException {
+        AudioAttributes audioAttributes = attributes.getAudioAttributes();
+        String codec = EncodingPlanner.audioCodec(target, attributes);
+        if (audioAttributes == null || SmartCut.range(attributes) != null
+                || !isEmpty(audioAttributes.getAf()) || !isEmpty(audioAttributes.getFilterComplex())
+                || !isEmpty(audioAttributes.getAf_Atempo())
+                || !("mp3".equals(codec) || "aac".equals(codec) || "opus".equals(codec))) {
+            return null;
+        }
+        MultimediaInfo info;
+        try {
+            info = getInfo(source);
+        } catch (EncoderException e) {
+            return null;
+        }
+        AudioInfo audio = info.getAudio();
+        if (audio == null || (attributes.getVideoAttributes() != null && info.getVideo() != null)) {
+            return null;
+        }
+        final boolean mp3 = codec.equals("mp3");
+        // The chunks go through nut files, so the encoder must be explicit.
+        String encoder = audioAttributes.getCodec();
+        if (encoder == null) {
+            encoder = mp3 ? "libmp3lame" : codec.equals("opus") ? "libopus" : codec;
+        } else if (mp3 && !encoder.equals("libmp3lame")) {
+            // The bit reservoir option is the one of lame.
+            return null;
+        }
+        int rate = audioAttributes.getSamplingRate() != null ? audioAttributes.getSamplingRate().intValue() : audio.getSamplingRate();
+        if (codec.equals("opus") && Arrays.asList(48000, 24000, 16000, 12000, 8000).indexOf(rate) < 0) {
+            // What ffmpeg picks for libopus.
+            rate = 48000;
+        }
+        double duration = info.getDuration() / 1000.0;
+        segments = (int) Math.min(segments, Math.floor(duration / MIN_AUDIO_SEGMENT_SECONDS));
+        if (rate <= 0 || segments < 2) {
+            return null;
+        }
+        final int frame = mp3 ? (rate >= 32000 ? 1152 : 576) : codec.equals("aac") ? 1024 : rate / 50;
+        long frames = (long) Math.floor(duration * rate / frame);
+        long preroll = (long) Math.ceil(AUDIO_PREROLL_SECONDS * rate / frame) * frame;
+        long start = System.currentTimeMillis();
+        // The chunk bounds, in samples, on frame boundaries.
+        long[] bounds = new long[segments + 1];
+        double[] durations = new double[segments];
+        for (int i = 0; i <= segments; i++) {
+            bounds[i] = Math.round((double) frames * i / segments) * frame;
+        }
+        for (int i = 0; i < segments; i++) {
+            durations[i] = (double) (bounds[i + 1] - bounds[i]) / rate;
+        }
+        AudioAttributes chunkAudio = new AudioAttributes();
+        chunkAudio.setCodec(encoder);
+        chunkAudio.setBitRate(audioAttributes.getBitRate());
+        chunkAudio.setChannels(audioAttributes.getChannels());
+        chunkAudio.setSamplingRate(rate);
+        chunkAudio.setVol(audioAttributes.getVol());
+        chunkAudio.setAf_volume(audioAttributes.getAf_volume());
+        final AtomicLong segmentMillis = new AtomicLong();
+        final SegmentProgress progress = listener != null ? new SegmentProgress(listener, durations) : null;
+        final JobContext context = new JobContext(JobContext.current());
+        File dir = null;
+        try {
+            dir = Files.createTempDirectory("jave-parallel").toFile();
+            CompletionService<Void> completion = new ExecutorCompletionService<Void>(getDefaultAsyncExecutor());
+            StringBuilder list = new StringBuilder();
+            for (int i = 0; i < segments; i++) {
+                final int index = i;
+                final boolean last = i + 1 == segments;
+                // The first mp3 chunk keeps its header, holding the encoder delay.
+                final File chunk = new File(dir, "chunk" + i + (mp3 && i == 0 ? ".mp3" : ".nut"));
+                final File piece = new File(dir, "piece" + i + (mp3 ? ".mp3" : ".nut"));
+                long skip = i > 0 ? preroll : 0;
+                final EncodingAttributes chunkAttributes = partAttributes(attributes, null, chunkAudio);
+                chunkAttributes.setFormat(mp3 && i == 0 ? "mp3" : "nut");
+                final SmartCut.Range cut;
+                if (last) {
+                    cut = new SmartCut.Range((double) (bounds[i] - skip) / rate, -1);
+                    chunkAttributes.setOffset((float) cut.start);
+                } else {
+                    cut = new SmartCut.Range((double) (bounds[i] - skip) / rate, (double) (bounds[i + 1] - bounds[i] + skip + preroll) / rate);
+                    chunkAttributes.setDuration((float) cut.duration);
+                }
+                final String[] options = mp3 && i > 0 ? new String[]{"-reservoir", "0"} : new String[0];
+                // Keeps the frames of the chunk only, by their timestamps, which start at 0.
+                final FFMPEGExecutor trim = createExecutor(attributes);
+                trim.addArgument("-i");
+                trim.addArgument(chunk.getAbsolutePath());
+                trim.addArgument("-map");
+                trim.addArgument("0:a:0");
+                trim.addArgument("-c");
+                trim.addArgument("copy");
+                if (skip > 0) {
+                    trim.addArgument("-ss");
+                    trim.addArgument(SmartCut.format((skip - frame / 2.0) / rate));
+                }
+                if (!last) {
+                    trim.addArgument("-frames:a");
+                    trim.addArgument(String.valueOf((bounds[i + 1] - bounds[i]) / frame));
+                }
+                if (mp3 && i > 0) {
+                    trim.addArgument("-write_xing");
+                    trim.addArgument("0");
+                }
+                trim.addArgument("-f");
+                trim.addArgument(mp3 ? "mp3" : "nut");
+                trim.addArgument("-y");
+                trim.addArgument(piece.getAbsolutePath());
+                completion.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        segmentMillis.addAndGet(runPart(context, source, chunk, chunkAttributes, cut, progress != null ? progress.part(index) : null, options));
+                        JobContext previous = JobContext.enter(context);
+                        try {
+                            runStep(trim, chunkAttributes, null, null);
+                        } finally {
+                            JobContext.exit(previous);
+                        }
+                        return null;
+                    }
+                });
+                appendPiece(list, piece, last ? -1 : durations[i]);
+            }
+            awaitParts(completion, segments, context);
+            File listFile = new File(dir, "list.txt");
+            Files.write(listFile.toPath(), list.toString().getBytes("UTF-8"));
+
+            FFMPEGExecutor ffmpeg = createExecutor(attributes);
+            ffmpeg.addArgument("-f");
+            ffmpeg.addArgument("concat");
+            ffmpeg.addArgument("-safe");
+            ffmpeg.addArgument("0");
+            ffmpeg.addArgument("-i");
+            ffmpeg.addArgument(listFile.getAbsolutePath());
+            ffmpeg.addArgument("-map");
+            ffmpeg.addArgument("0:a:0");
+            ffmpeg.addArgument("-c");
+            ffmpeg.addArgument("copy");
+            addOutput(ffmpeg, attributes, target);
+            runStep(ffmpeg, attributes, null, null);
+            if (listener != null) {
+                listener.progress(1000);
+            }
+            return new ParallelEncodingResult(segments, System.currentTimeMillis() - start, segmentMillis.get());
+        } catch (IOException e) {
+            throw new EncoderException(e);
+        } finally {
+            context.close();
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    /**
+     * Private utility. It waits for the parts of a parallel encoding,
+     * aborting the others when one fails.
+     *
+     * @throws EncoderException If a part fails.
+     */
+    private void awaitParts(CompletionService<Void> completion, int parts, JobContext context) throws EncoderException {
+        Throwable failure = null;
+        for (int i = 0; i < parts; i++) {
+            try {
+                completion.take().get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                    context.cancel(true);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                context.cancel(true);
+                throw new EncoderException(e);
+            }
+        }
+        if (failure instanceof EncoderException) {
+            throw (EncoderException) failure;
+        } else if (failure != null) {
+            throw new EncoderException(failure);
+        }
+    }
+
+    /**
+     * Private utility. It builds the attributes of a part of a parallel
+     * encoding, written as matroska.
+     */
+    private EncodingAttributes partAttributes(EncodingAttributes attributes, VideoAttributes videoAttributes, AudioAttributes audioAttributes) {
+        EncodingAttributes part = new EncodingAttributes();
+        part.setFormat("matroska");
+        part.setVideoAttributes(videoAttributes);
+        part.setAudioAttributes(audioAttributes);
+        part.setFflags(attributes.getFflags());
+        part.setTimeout(attributes.getTimeout());
+        part.setCpuTimeLimit(attributes.getCpuTimeLimit());
+        return part;
+    }
+
+    /**
+     * Private utility. It runs a part of a parallel encoding, in the context
+     * of the parallel encoding.
+     *
+     * @return The wall-clock time of the part, in milliseconds.
+     * @throws EncoderException If the part fails.
+     */
+    private long runPart(JobContext context, File source, File part, EncodingAttributes attributes, SmartCut.Range cut, EncoderProgressListener listener, String... options) throws EncoderException {
+        long start = System.currentTimeMillis();
+        JobContext previous = JobContext.enter(context);
+        try {
+            if (context.isCancelled()) {
+                throw new EncoderException("parallel encoding aborted");
+            }
+            if (!transcode(source, part, attributes, cut, false, false, listener, options)) {
+                throw new EncoderException("parallel encoding of " + part.getName() + " failed");
+            }
+        } finally {
+            JobContext.exit(previous);
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    /**
+     * Private utility. It cuts a source whose streams can be copied: the
+     * complete GOPs inside the cut are copied, the partial GOPs at its edges
+     * are re-encoded, and the pieces are concatenated without re-encoding.
+     * An audio-only cut is copied whole, its frames being all keyframes.
+     *
+     * @param source     The source file.
+     * @param target     The target file.
+     * @param attributes The encoding attributes.
+     * @param cut        The cut.
+     * @param listener   An optional progress listener. It can be null.
+     * @return true if the cut is done, false if it must be transcoded.
+     * @throws EncoderException If the cut exceeds its time budget.
+     */
+    private boolean smartCut(File source, File target, EncodingAttributes attributes, SmartCut.Range cut, EncoderProgressListener listener) throws EncoderException {
+        if (attributes.getFflags() != null && attributes.getFflags().length() > 0) {
+            return false;
+        }
+        MultimediaInfo info;
+        try {
+            info = getInfo(source);
+        } catch (EncoderException e) {
+            return false;
+        }
+        EncodingPlanTypeEnum plan = EncodingPlanner.plan(info, source, target, attributes, true);
+        if (plan != EncodingPlanTypeEnum.SKIP && plan != EncodingPlanTypeEnum.REMUX) {
+            return false;
+        }
+        VideoInfo video = attributes.getVideoAttributes() != null ? info.getVideo() : null;
+        boolean audio = attributes.getAudioAttributes() != null && info.getAudio() != null;
+        if (video == null) {
+            if (!audio) {
+                return false;
+            }
+            FFMPEGExecutor ffmpeg = createExecutor(attributes);
+            ffmpeg.addArgument("-ss");
+            ffmpeg.addArgument(SmartCut.format(cut.start));
+            ffmpeg.addArgument("-i");
+            ffmpeg.addArgument(source.getAbsolutePath());
+            if (cut.duration >= 0) {
+                ffmpeg.addArgument("-t");
+                ffmpeg.addArgument(SmartCut.format(cut.duration));
+            }
+            ffmpeg.addArgument("-vn");
+            ffmpeg.addArgument("-acodec");
+            ffmpeg.addArgument("copy");
+            addOutput(ffmpeg, attributes, target);
+            runStep(ffmpeg, attributes, source, listener);
+            return true;
+        }
+        String[] encoder = SmartCut.edgeEncoder(video.getDecoder());
+        double end = cut.duration >= 0 ? cut.start + cut.duration : info.getDuration() / 1000.0;
+        if (encoder == null || end <= cut.start
+                || !("mov".equals(info.getFormat()) || "matroska".equals(info.getFormat()))) {
+            return false;
+        }
+        // Half a frame: the margin of the seeks, so each lands on the wanted frame.
+        double half = video.getFrameRate() > 0 ? 0.5 / video.getFrameRate() : 0.001;
+        double first = -1;
+        double last = -1;
+        for (double keyframe : keyframes(source, cut.start, end, half)) {
+            if (keyframe >= cut.start - half && keyframe <= end + half) {
+                if (first < 0) {
+                    first = keyframe;
+                }
+                last = keyframe;
+            }
+        }
+        if (first < 0 || last - first < half) {
+            // No complete GOP to copy.
+            return false;
+        }
+        File dir = null;
+        try {
+            dir = Files.createTempDirectory("jave-cut").toFile();
+            StringBuilder list = new StringBuilder();
+            if (first - cut.start >= half) {
+                File head = new File(dir, "head.mkv");
+                runStep(edgeExecutor(attributes, source, cut.start, first - cut.start - half, encoder, video, head), attributes, null, null);
+                appendPiece(list, head, first - cut.start);
+            }
+            FFMPEGExecutor ffmpeg = createExecutor(attributes);
+            ffmpeg.addArgument("-ss");
+            ffmpeg.addArgument(SmartCut.format(first + half));
+            ffmpeg.addArgument("-t");
+            ffmpeg.addArgument(SmartCut.format(last - first + 1));
+            ffmpeg.addArgument("-i");
+            ffmpeg.addArgument(source.getAbsolutePath());
+            ffmpeg.addArgument("-map");
+            ffmpeg.addArgument("0:v:0");
+            ffmpeg.addArgument("-an");
+            ffmpeg.addArgument("-vcodec");
+            ffmpeg.addArgument("copy");
+            ffmpeg.addArgument("-bsf:v");
+            ffmpeg.addArgument(encoder[2]);
+            // The segment muxer splits exactly on the keyframe ending the copy.
+            ffmpeg.addArgument("-f");
+            ffmpeg.addArgument("segment");
+            ffmpeg.addArgument("-segment_times");
+            ffmpeg.addArgument(SmartCut.format(last - first - 2 * half));
+            ffmpeg.addArgument("-segment_format");
+            ffmpeg.addArgument("matroska");
+            ffmpeg.addArgument("-reset_timestamps");
+            ffmpeg.addArgument("1");
+            ffmpeg.addArgument("-y");
+            ffmpeg.addArgument(new File(dir, "middle%d.mkv").getAbsolutePath());
+            runStep(ffmpeg, attributes, null, null);
+            appendPiece(list, new File(dir, "middle0.mkv"), last - first);
+            if (end - last >= half) {
+                File tail = new File(dir, "tail.mkv");
+                runStep(edgeExecutor(attributes, source, last - half, end - last, encoder, video, tail), attributes, null, null);
+                appendPiece(list, tail, end - last);
+            }
+            File listFile = new File(dir, "list.txt");
+            Files.write(listFile.toPath(), list.toString().getBytes("UTF-8"));
+
+            ffmpeg = createExecutor(attributes);
+            ffmpeg.addArgument("-f");
+            ffmpeg.addArgument("concat");
+            ffmpeg.addArgument("-safe");
+            ffmpeg.addArgument("0");
+            ffmpeg.addArgument("-i");
+            ffmpeg.addArgument(listFile.getAbsolutePath());
+            if (audio) {
+                ffmpeg.addArgument("-ss");
+                ffmpeg.addArgument(SmartCut.format(cut.start));
+                ffmpeg.addArgument("-t");
+                ffmpeg.addArgument(SmartCut.format(end - cut.start));
+                ffmpeg.addArgument("-i");
+                ffmpeg.addArgument(source.getAbsolutePath());
+            }
+            ffmpeg.addArgument("-map");
+            ffmpeg.addArgument("0:v:0");
+            if (audio) {
+                ffmpeg.addArgument("-map");
+                ffmpeg.addArgument("1:a:0");
+            }
+            if (attributes.getMetadataSv() != null && attributes.getMetadataSv().length() > 0) {
+                ffmpeg.addArgument("-metadata:s:v");
+                ffmpeg.addArgument(attributes.getMetadataSv());
+            }
+            ffmpeg.addArgument("-c");
+            ffmpeg.addArgument("copy");
+            ffmpeg.addArgument("-t");
+            ffmpeg.addArgument(SmartCut.format(end - cut.start));
+            addOutput(ffmpeg, attributes, target);
+            runStep(ffmpeg, attributes, null, listener);
+            return true;
+        } catch (EncoderTimeoutException e) {
+            throw e;
+        } catch (EncoderException e) {
+            log.warn("smart cut of " + source + " failed, transcoding it", e);
+            return false;
+        } catch (IOException e) {
+            log.warn("smart cut of " + source + " failed, transcoding it", e);
+            return false;
+        } finally {
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    /**
+     * Private utility. It builds the executor re-encoding an edge of a smart
+     * cut, with the codec, size and bit rate of the source.
+     */
+    private FFMPEGExecutor edgeExecutor(EncodingAttributes attributes, File source, double start, double duration, String[] encoder, VideoInfo video, File piece) {
+        FFMPEGExecutor ffmpeg = createExecutor(attributes);
+        ffmpeg.addArgument("-ss");
+        ffmpeg.addArgument(SmartCut.format(start));
+        ffmpeg.addArgument("-t");
+        ffmpeg.addArgument(SmartCut.format(duration));
+        ffmpeg.addArgument("-i");
+        ffmpeg.addArgument(source.getAbsolutePath());
+        ffmpeg.addArgument("-map");
+        ffmpeg.addArgument("0:v:0");
+        ffmpeg.addArgument("-an");
+        ffmpeg.addArgument("-vcodec");
+        ffmpeg.addArgument(encoder[0]);
+        ffmpeg.addArgument(encoder[1]);
+        ffmpeg.addArgument("repeat-headers=1");
+        if (video.getBitRate() > 0) {
+            ffmpeg.addArgument("-b:v");
+            ffmpeg.addArgument(video.getBitRate() + "k");
+        }
+        ffmpeg.addArgument("-f");
+        ffmpeg.addArgument("matroska");
+        ffmpeg.addArgument("-y");
+        ffmpeg.addArgument(piece.getAbsolutePath());
+        return ffmpeg;
+    }
+
+    /**
+     * Private utility. It returns the audio filters of an output of a
+     * multi-output encoding, its filter complex last.
+     *
+     * @return The filter chain, or null if the audio is not filtered.
+     */
+    private static String audioFilters(AudioAttributes attributes) {
+        StringBuilder chain = new StringBuilder();
+        appendFilter(chain, attributes.getAf());
+        if (!isEmpty(attributes.getAf_Atempo())) {
+            appendFilter(chain, "atempo=" + attributes.getAf_Atempo());
+        }
+        if (!isEmpty(attributes.getAf_volume())) {
+            appendFilter(chain, "volume=" + attributes.getAf_volume());
+        }
+        appendFilter(chain, attributes.getFilterComplex());
+        return chain.length() > 0 ? chain.toString() : null;
+    }
+
+    /**
+     * Private utility. It returns the video filters of an output of a
+     * multi-output encoding.
+     *
+     * @return The filter chain, or null if the video is not filtered.
+     */
+    private static String videoFilters(VideoAttributes attributes) {
+        StringBuilder chain = new StringBuilder();
+        appendFilter(chain, attributes.getVf());
+        if (!isEmpty(attributes.getSetpts())) {
+            appendFilter(chain, "setpts=" + attributes.getSetpts() + "*PTS");
+        }
+        return chain.length() > 0 ? chain.toString() : null;
+    }
+
+    private static void appendFilter(StringBuilder chain, String filter) {
+        if (!isEmpty(filter)) {
+            if (chain.length() > 0) {
+                chain.append(',');
+            }
+            chain.append(filter);
+        }
+    }
+
+    /**
+     * Private utility. It appends to a filter graph the chains of the
+     * outputs filtering an input stream, fed by a split of the stream if
+     * they are more than one, and sets the labels the outputs map.
+     *
+     * @param graph    The filter graph.
+     * @param split    The split filter, split or asplit.
+     * @param stream   The input stream.
+     * @param prefix   The prefix of the labels.
+     * @param filtered The indexes of the outputs filtering the stream.
+     * @param chains   The filter chains, by output.
+     * @param maps     The mapped labels, by output.
+     */
+    private static void appendSplit(StringBuilder graph, String split, String stream, String prefix, List<Integer> filtered, String[] chains, String[] maps) {
+        int count = filtered.size();
+        if (count == 0) {
+            return;
+        }
+        if (graph.length() > 0) {
+            graph.append(';');
+        }
+        if (count > 1) {
+            graph.append('[').append(stream).append(']').append(split).append('=').append(count);
+            for (int k = 0; k < count; k++) {
+                graph.append('[').append(prefix).append(k).append(']');
+            }
+            graph.append(';');
+        }
+        for (int k = 0; k < count; k++) {
+            int i = filtered.get(k);
+            if (k > 0) {
+                graph.append(';');
+            }
+            graph.append('[').append(count > 1 ? prefix + k : stream).append(']');
+            maps[i] = "[" + prefix + "out" + i + "]";
+            graph.append(chains[i]).append(maps[i]);
+        }
+    }
+
+    /**
+     * Private utility. It adds the options of an output of a multi-output
+     * encoding, but its filters and its format: the ones of
+     * {@link Encoder#transcode(File, File, EncodingAttributes, SmartCut.Range, boolean, boolean, EncoderProgressListener, String...)},
+     * the offset and the duration applied on the output side.
+     */
+    private static void addOutputOptions(FFMPEGExecutor ffmpeg, EncodingAttributes attributes) {
+        addOption(ffmpeg, "-ss", attributes.getOffset() != null ? String.valueOf(attributes.getOffset().floatValue()) : null);
+        addOption(ffmpeg, "-t", attributes.getDuration() != null ? String.valueOf(attributes.getDuration().floatValue()) : null);
+        addOption(ffmpeg, "-metadata:s:v", attributes.getMetadataSv());
+        VideoAttributes videoAttributes = attributes.getVideoAttributes();
+        if (videoAttributes != null) {
+            addOption(ffmpeg, "-vcodec", videoAttributes.getCodec());
+            addOption(ffmpeg, "-vtag", videoAttributes.getTag());
+            addOption(ffmpeg, "-b", videoAttributes.getBitRate() != null ? String.valueOf(videoAttributes.getBitRate().intValue()) : null);
+            addOption(ffmpeg, "-r", videoAttributes.getFrameRate() != null ? String.valueOf(videoAttributes.getFrameRate().intValue()) : null);
+            VideoSize size = videoAttributes.getSize();
+            if (size != null) {
+                addOption(ffmpeg, "-s", size.getWidth() + "x" + size.getHeight());
+            }
+            addOption(ffmpeg, "-ss", videoAttributes.getStartTime());
+            addOption(ffmpeg, "-t", videoAttributes.getDuration());
+            addOption(ffmpeg, "-q:v", videoAttributes.getQv());
+            addOption(ffmpeg, "-b:v", videoAttributes.getBv());
+            addOption(ffmpeg, "-bufsize", videoAttributes.getBufsize());
+            addOption(ffmpeg, "-maxrate", videoAttributes.getMaxrate());
+        }
+        AudioAttributes audioAttributes = attributes.getAudioAttributes();
+        if (audioAttributes != null) {
+            addOption(ffmpeg, "-acodec", audioAttributes.getCodec());
+            addOption(ffmpeg, "-ab", audioAttributes.getBitRate() != null ? String.valueOf(audioAttributes.getBitRate().intValue()) : null);
+            addOption(ffmpeg, "-ac", audioAttributes.getChannels() != null ? String.valueOf(audioAttributes.getChannels().intValue()) : null);
+            addOption(ffmpeg, "-ar", audioAttributes.getSamplingRate() != null ? String.valueOf(audioAttributes.getSamplingRate().intValue()) : null);
+            addOption(ffmpeg, "-vol", audioAttributes.getVol() != null ? String.valueOf(audioAttributes.getVol().intValue()) : null);
+            addOption(ffmpeg, "-ss", audioAttributes.getStartTime());
+            addOption(ffmpeg, "-t", audioAttributes.getDuration());
+        }
+    }
 
-                ffmpeg.addArgument("-map");
-                ffmpeg.addArgument("[v]");
+    private static void addOption(FFMPEGExecutor ffmpeg, String option, String value) {
+        if (!isEmpty(value)) {
+            ffmpeg.addArgument(option);
+            ffmpeg.addArgument(value);
+        }
+    }
 
-                ffmpeg.addArgument("-map");
-                ffmpeg.addArgument("[a]");
+    /**
+     * Private utility. It extracts a single frame of a video, seeking on the
+     * input side, see {@link Encoder#thumbnails(File, List, boolean, int)}.
+     *
+     * @throws EncoderException If ffmpeg writes no frame.
+     */
+    private void extractFrame(File source, File target, EncodingAttributes attributes, boolean exact) throws EncoderException {
+        Float offset = attributes.getOffset();
+        VideoAttributes videoAttributes = attributes.getVideoAttributes();
+        FFMPEGExecutor ffmpeg = createExecutor(attributes);
+        if (offset != null) {
+            ffmpeg.addArgument("-ss");
+            ffmpeg.addArgument(SmartCut.format(offset.floatValue()));
+        }
+        if (!exact) {
+            ffmpeg.addArgument("-noaccurate_seek");
+        }
+        ffmpeg.addArgument("-i");
+        ffmpeg.addArgument(source.getAbsolutePath());
+        ffmpeg.addArgument("-map");
+        ffmpeg.addArgument("0:v:0");
+        ffmpeg.addArgument("-frames:v");
+        ffmpeg.addArgument("1");
+        EncodingAttributes output = new EncodingAttributes();
+        output.setFormat(isEmpty(attributes.getFormat()) ? "image2" : attributes.getFormat());
+        if (videoAttributes != null) {
+            output.setVideoAttributes(videoAttributes);
+            addOutputOptions(ffmpeg, output);
+            addOption(ffmpeg, "-vf", videoFilters(videoAttributes));
+        }
+        // Overwritten anyway: a stale target must not pass for the frame.
+        target.delete();
+        addOutput(ffmpeg, output, target);
+        runEncoding(ffmpeg, output, source, null);
+        if (ffmpeg.getExitValue() != 0 || !target.isFile() || target.length() == 0) {
+            throw new EncoderException("no frame of " + source.getName() + " at " + (offset != null ? offset + "s" : "its start"));
+        }
+    }
+
+    /**
+     * Private utility. It tells if the keyframes of a time range are close
+     * enough for the thumbnails taken every interval from the keyframes
+     * only, see {@link Encoder#MAX_THUMBNAIL_KEYFRAME_GAP}.
+     */
+    private static boolean denseKeyframes(List<Double> keyframes, double from, double to, double interval) {
+        if (keyframes.isEmpty()) {
+            return false;
+        }
+        double max = MAX_THUMBNAIL_KEYFRAME_GAP * interval;
+        double previous = from;
+        for (double keyframe : keyframes) {
+            if (keyframe - previous > max) {
+                return false;
             }
+            previous = Math.max(previous, keyframe);
         }
+        return to - previous <= max;
+    }
 
+    /**
+     * Private utility. It returns the reduction of the decoding resolution,
+     * as a power of 2, keeping the decoded frames at least as large as the
+     * wanted size, see {@link Encoder#LOWRES_DECODERS}.
+     *
+     * @return The reduction, 0 if the decoder cannot reduce the resolution.
+     */
+    private static int lowres(VideoInfo video, VideoSize size) {
+        String decoder = video.getDecoder();
+        VideoSize source = video.getSize();
+        if (decoder == null || source == null) {
+            return 0;
+        }
+        decoder = decoder.trim();
+        int space = decoder.indexOf(' ');
+        Integer max = LOWRES_DECODERS.get(space > 0 ? decoder.substring(0, space) : decoder);
+        int lowres = 0;
+        while (max != null && lowres < max
+                && source.getWidth() >> (lowres + 1) >= size.getWidth()
+                && source.getHeight() >> (lowres + 1) >= size.getHeight()) {
+            lowres++;
+        }
+        return lowres;
+    }
 
-        if (formatAttribute != null && formatAttribute.length() > 0) {
+    private void addOutput(FFMPEGExecutor ffmpeg, EncodingAttributes attributes, File target) {
+        String format = attributes.getFormat();
+        if (format != null && format.length() > 0) {
             ffmpeg.addArgument("-f");
-            ffmpeg.addArgument(formatAttribute);
+            ffmpeg.addArgument(format);
         }
-
         ffmpeg.addArgument("-y");
         ffmpeg.addArgument(target.getAbsolutePath());
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.length() == 0;
+    }
 
+    /**
+     * Private utility. It appends a piece to a concat demuxer list.
+     *
+     * @param duration The duration of the piece, or -1 to let the demuxer
+     *                 probe it.
+     */
+    private void appendPiece(StringBuilder list, File piece, double duration) {
+        list.append("file '").append(piece.getAbsolutePath().replace("'", "'\\''")).append("'\n");
+        if (duration >= 0) {
+            list.append("duration ").append(SmartCut.format(duration)).append('\n');
+        }
+    }
+
+    /**
+     * Private utility. It runs a step of a multi-step encoding.
+     *
+     * @throws EncoderException If the step fails.
+     */
+    private void runStep(FFMPEGExecutor ffmpeg, EncodingAttributes attributes, File source, EncoderProgressListener listener) throws EncoderException {
+        runEncoding(ffmpeg, attributes, source, listener);
+        if (ffmpeg.getExitValue() != 0) {
+            throw new EncoderException("encoding step failed: " + ffmpeg.getErrorMessage());
+        }
+    }
+
+    /**
+     * Private utility. It lists the keyframes of the first video stream in a
+     * time range, with ffprobe when available, reading the packets only, or
+     * else with ffmpeg, decoding the keyframes only.
+     *
+     * @param source The source file.
+     * @param from   The start of the range, in seconds.
+     * @param to     The end of the range, in seconds.
+     * @param margin The margin around the range, in seconds.
+     * @return The times of the keyframes, in seconds.
+     * @throws EncoderException If the keyframes cannot be listed.
+     */
+    private List<Double> keyframes(File source, double from, double to, double margin) throws EncoderException {
+        double start = Math.max(from - margin, 0);
+        FFMPEGExecutor ffmpeg = createProbeExecutor();
+        if (ffmpeg != null) {
+            ffmpeg.addArgument("-v");
+            ffmpeg.addArgument("error");
+            ffmpeg.addArgument("-select_streams");
+            ffmpeg.addArgument("v:0");
+            ffmpeg.addArgument("-read_intervals");
+            ffmpeg.addArgument(SmartCut.format(start) + "%" + SmartCut.format(to + margin));
+            ffmpeg.addArgument("-show_entries");
+            ffmpeg.addArgument("packet=pts_time,flags");
+            ffmpeg.addArgument("-of");
+            ffmpeg.addArgument("csv=p=0");
+            ffmpeg.addArgument(source.getAbsolutePath());
+            ffmpeg.setReadInputStream(true);
+        } else {
+            ffmpeg = createExecutor(null);
+            ffmpeg.addArgument("-nostats");
+            ffmpeg.addArgument("-skip_frame");
+            ffmpeg.addArgument("nokey");
+            ffmpeg.addArgument("-ss");
+            ffmpeg.addArgument(SmartCut.format(start));
+            ffmpeg.addArgument("-t");
+            ffmpeg.addArgument(SmartCut.format(to + 2 * margin - start));
+            ffmpeg.addArgument("-copyts");
+            ffmpeg.addArgument("-i");
+            ffmpeg.addArgument(source.getAbsolutePath());
+            ffmpeg.addArgument("-map");
+            ffmpeg.addArgument("0:v:0");
+            ffmpeg.addArgument("-vf");
+            ffmpeg.addArgument("showinfo");
+            ffmpeg.addArgument("-f");
+            ffmpeg.addArgument("null");
+            ffmpeg.addArgument("-");
+        }
+        List<Double> keyframes = new ArrayList<Double>();
         try {
             ffmpeg.execute();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    ffmpeg.getInputStream() != null ? ffmpeg.getInputStream() : ffmpeg.getErrorStream(), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                double keyframe = SmartCut.parseKeyframe(line);
+                if (keyframe >= 0) {
+                    keyframes.add(keyframe);
+                }
+            }
         } catch (IOException e) {
+            ffmpeg.destroy();
+            checkTimeout(ffmpeg, e);
             throw new EncoderException(e);
+        } finally {
+            ffmpeg.destroy();
         }
+        checkTimeout(ffmpeg, null);
+        Collections.sort(keyframes);
+        return keyframes;
+    }
+
+    /**
+     * Private utility. It runs an encoding job, or joins the identical one
+     * already running, then copies its output to the target if needed.
+     *
+     * @param kind       The encoding method.
+     * @param sources    The source files.
+     * @param target     The target file.
+     * @param attributes The encoding attributes.
+     * @param listener   An optional progress listener. It can be null.
+     * @param job        The encoding, returning the encoded file.
+     * @throws EncoderException If the encoding fails.
+     */
+    private void runShared(String kind, List<File> sources, File target, EncodingAttributes attributes, EncoderProgressListener listener, SingleFlight.Job<File> job) throws EncoderException {
+        SingleFlight singleFlight = this.singleFlight;
+        if (singleFlight == null) {
+            job.run(listener);
+            return;
+        }
+        StringBuilder key = new StringBuilder(flightKey(kind));
+        key.append('|').append(encodingPlanning).append('|').append(smartCut).append('|').append(parallelSegments);
+        for (File source : sources) {
+            key.append('|').append(MultimediaInfoCache.key(source));
+        }
+        key.append('|').append(OutputCache.spec(target, attributes));
+        Long timeout = attributes != null ? attributes.getTimeout() : null;
+        File encoded = singleFlight.run(key.toString(), listener, job, timeout != null ? timeout.longValue() : defaultTimeout);
+        File wanted = target.getAbsoluteFile();
+        if (!encoded.equals(wanted)) {
+            wanted.getParentFile().mkdirs();
+            try {
+                Files.copy(encoded.toPath(), wanted.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                throw new EncoderException(e);
+            }
+        }
+    }
+
+    /**
+     * Private utility. It returns the part of a deduplicated job key naming
+     * what runs the job: the class of the encoder, which decides how the
+     * ffmpeg errors are handled, and the ffmpeg executable. A shared
+     * {@link SingleFlight} must not let an encoder join the job of an
+     * encoder which would produce another result.
+     *
+     * @param kind The job method.
+     * @return The key prefix.
+     */
+    private String flightKey(String kind) {
+        return kind + "|" + getClass().getName() + "|" + CapabilitiesCache.key(locator.getFFMPEGExecutablePath());
+    }
+
+    /**
+     * Private utility. It returns the output cache key of an encoding.
+     *
+     * @param source     The source file.
+     * @param target     The target file.
+     * @param attributes The encoding attributes.
+     * @return The key, or null if the source cannot be read.
+     */
+    private String outputKey(File source, File target, EncodingAttributes attributes) {
         try {
-            RBufferedReader reader = new RBufferedReader(new InputStreamReader(ffmpeg.getErrorStream()));
-            processErrorOutput(attributes, reader, source, listener);
+            return OutputCache.key(source, target, attributes, CapabilitiesCache.key(locator.getFFMPEGExecutablePath()));
         } catch (IOException e) {
-            throw new EncoderException(e);
-        } finally {
-            ffmpeg.destroy();
+            log.debug("cannot hash " + source + ", output cache bypassed", e);
+            return null;
         }
     }
 
@@ -1011,25 +2914,54 @@ public class Encoder {
         String lastWarning = null;
         long progress = 0L;
         Float offsetAttribute = attributes.getOffset();
-        MultimediaInfo info = parseMultimediaInfo(source, (RBufferedReader) errorReader);
         Float durationAttribute = attributes.getDuration();
-        long duration;
-        if (durationAttribute != null) {
-            duration = Math.round(durationAttribute.floatValue() * 1000.0F);
-        } else {
-            duration = info.getDuration();
-            if (offsetAttribute != null) {
-                duration -= Math.round(offsetAttribute.floatValue() * 1000.0F);
+        long duration = -1;
+        // Newer ffmpeg versions print the stream mapping before the output.
+        boolean mapped = false;
+        MultimediaInfo info = source != null ? knownInfo(source) : null;
+        boolean cached = info != null;
+        if (source != null && !cached) {
+            info = parseMultimediaInfo(source, (RBufferedReader) errorReader);
+            storeInfo(source, info);
+        }
+        if (info != null) {
+            if (durationAttribute != null) {
+                duration = Math.round(durationAttribute.floatValue() * 1000.0F);
+            } else {
+                duration = info.getDuration();
+                if (offsetAttribute != null) {
+                    duration -= Math.round(offsetAttribute.floatValue() * 1000.0F);
+                }
+            }
+            if (listener != null) {
+                listener.sourceInfo(info);
             }
         }
-
-        if (listener != null) {
-            listener.sourceInfo(info);
+        if (source == null || cached) {
+            // The merge operations have many inputs, and the cached ones are
+            // known already: skip their informations.
+            String line;
+            String lastLine = null;
+            while ((line = errorReader.readLine()) != null && !line.startsWith("Output #0")) {
+                if (line.startsWith("Stream mapping:")) {
+                    mapped = true;
+                }
+                lastLine = line;
+            }
+            if (line == null) {
+                if (lastLine != null) {
+                    throw new EncoderException(lastLine);
+                }
+                return;
+            }
+            ((RBufferedReader) errorReader).reinsertLine(line);
         }
         int step = 0;
         String line;
         while ((line = errorReader.readLine()) != null) {
-            System.out.println(line);
+            if (log.isDebugEnabled()) {
+                log.debug(line);
+            }
             if (step == 0) {
                 if (line.startsWith("WARNING: ")) {
                     if (listener != null) listener.message(line);
@@ -1040,10 +2972,15 @@ public class Encoder {
                     step++;
                 }
             } else if ((step == 1) && (!line.startsWith("  "))) {
-                step++;
+                // The next outputs of a multi-output encoding follow.
+                if (!line.startsWith("Output #")) {
+                    step++;
+                }
             }
 
-            if (step == 2) {
+            if (step == 2 && mapped) {
+                step = 4;
+            } else if (step == 2) {
                 if (!line.startsWith("Stream mapping:")) {
                     throw new EncoderException(line);
                 }
@@ -1060,7 +2997,10 @@ public class Encoder {
                         if (listener != null) {
                             listener.message(line);
                         }
-                        lastWarning = line;
+                        // The statistics of the encoders, i.e. libx264, follow the success line.
+                        if (lastWarning == null || !line.startsWith("[") || !SUCCESS_PATTERN.matcher(lastWarning).matches()) {
+                            lastWarning = line;
+                        }
                     } else {
                         if (listener != null) {
                             String time = (String) table.get("time");
@@ -1110,6 +3050,19 @@ public class Encoder {
     }
 
     public void encodeMergeAudio(List<File> sourceList, File target, EncodingAttributes attributes, EncoderProgressListener listener) throws IllegalArgumentException, InputFormatException, EncoderException {
+        runShared("encodeMergeAudio", sourceList, target, attributes, listener, new SingleFlight.Job<File>() {
+            public File run(EncoderProgressListener listener) throws EncoderException {
+                encodeMergeAudioOnce(sourceList, target, attributes, listener);
+                return target.getAbsoluteFile();
+            }
+        });
+    }
+
+    /**
+     * Private utility. The body of
+     * {@link Encoder#encodeMergeAudio(List, File, EncodingAttributes, EncoderProgressListener)}.
+     */
+    private void encodeMergeAudioOnce(List<File> sourceList, File target, EncodingAttributes attributes, EncoderProgressListener listener) throws IllegalArgumentException, InputFormatException, EncoderException {
         String formatAttribute = attributes.getFormat();
         Float offsetAttribute = attributes.getOffset();
         Float durationAttribute = attributes.getDuration();
@@ -1124,7 +3077,7 @@ public class Encoder {
         }
         target = target.getAbsoluteFile();
         target.getParentFile().mkdirs();
-        FFMPEGExecutor ffmpeg = locator.createExecutor();
+        FFMPEGExecutor ffmpeg = createExecutor(attributes);
 
 
         if (offsetAttribute != null) {
@@ -1175,19 +3128,7 @@ public class Encoder {
 
         ffmpeg.addArgument("-y");
         ffmpeg.addArgument(target.getAbsolutePath());
-        try {
-            ffmpeg.execute();
-        } catch (IOException e) {
-            throw new EncoderException(e);
-        }
-        try {
-            RBufferedReader reader = new RBufferedReader(new InputStreamReader(ffmpeg.getErrorStream()));
-            processErrorOutput(attributes, reader, null, listener);
-        } catch (IOException e) {
-            throw new EncoderException(e);
-        } finally {
-            ffmpeg.destroy();
-        }
+        runEncoding(ffmpeg, attributes, null, sourceList, mergeType == AudioMergeTypeEnum.SPLIT_JOINT, listener);
     }
 
     /**
@@ -1211,6 +3152,19 @@ public class Encoder {
     }
 
     public void encodeMergeVideoAndAudio(List<File> files, File target, EncodingAttributes attributes, EncoderProgressListener listener) throws IllegalArgumentException, InputFormatException, EncoderException {
+        runShared("encodeMergeVideoAndAudio", files, target, attributes, listener, new SingleFlight.Job<File>() {
+            public File run(EncoderProgressListener listener) throws EncoderException {
+                encodeMergeVideoAndAudioOnce(files, target, attributes, listener);
+                return target.getAbsoluteFile();
+            }
+        });
+    }
+
+    /**
+     * Private utility. The body of
+     * {@link Encoder#encodeMergeVideoAndAudio(List, File, EncodingAttributes, EncoderProgressListener)}.
+     */
+    private void encodeMergeVideoAndAudioOnce(List<File> files, File target, EncodingAttributes attributes, EncoderProgressListener listener) throws IllegalArgumentException, InputFormatException, EncoderException {
         String formatAttribute = attributes.getFormat();
         Float offsetAttribute = attributes.getOffset();
         Float durationAttribute = attributes.getDuration();
@@ -1221,7 +3175,7 @@ public class Encoder {
         }
         target = target.getAbsoluteFile();
         target.getParentFile().mkdirs();
-        FFMPEGExecutor ffmpeg = locator.createExecutor();
+        FFMPEGExecutor ffmpeg = createExecutor(attributes);
 
         if (offsetAttribute != null) {
             ffmpeg.addArgument("-ss");
@@ -1335,19 +3289,7 @@ public class Encoder {
         }
         ffmpeg.addArgument("-y");
         ffmpeg.addArgument(target.getAbsolutePath());
-        try {
-            ffmpeg.execute();
-        } catch (IOException e) {
-            throw new EncoderException(e);
-        }
-        try {
-            RBufferedReader reader = new RBufferedReader(new InputStreamReader(ffmpeg.getErrorStream()));
-            processErrorOutput(attributes, reader, null, listener);
-        } catch (IOException e) {
-            throw new EncoderException(e);
-        } finally {
-            ffmpeg.destroy();
-        }
+        runEncoding(ffmpeg, attributes, null, files, false, listener);
     }
 
 
@@ -1370,6 +3312,19 @@ public class Encoder {
 
 
     public void encodeMergeVideoByDamaging(List<File> files, File target, EncodingAttributes attributes, EncoderProgressListener listener) throws IllegalArgumentException, InputFormatException, EncoderException {
+        runShared("encodeMergeVideoByDamaging", files, target, attributes, listener, new SingleFlight.Job<File>() {
+            public File run(EncoderProgressListener listener) throws EncoderException {
+                encodeMergeVideoByDamagingOnce(files, target, attributes, listener);
+                return target.getAbsoluteFile();
+            }
+        });
+    }
+
+    /**
+     * Private utility. The body of
+     * {@link Encoder#encodeMergeVideoByDamaging(List, File, EncodingAttributes, EncoderProgressListener)}.
+     */
+    private void encodeMergeVideoByDamagingOnce(List<File> files, File target, EncodingAttributes attributes, EncoderProgressListener listener) throws IllegalArgumentException, InputFormatException, EncoderException {
         String formatAttribute = attributes.getFormat();
         Float offsetAttribute = attributes.getOffset();
         Float durationAttribute = attributes.getDuration();
@@ -1380,7 +3335,7 @@ public class Encoder {
         }
         target = target.getAbsoluteFile();
         target.getParentFile().mkdirs();
-        FFMPEGExecutor ffmpeg = locator.createExecutor();
+        FFMPEGExecutor ffmpeg = createExecutor(attributes);
 
         if (offsetAttribute != null) {
             ffmpeg.addArgument("-ss");
@@ -1500,19 +3455,7 @@ public class Encoder {
         }
         ffmpeg.addArgument("-y");
         ffmpeg.addArgument(target.getAbsolutePath());
-        try {
-            ffmpeg.execute();
-        } catch (IOException e) {
-            throw new EncoderException(e);
-        }
-        try {
-            RBufferedReader reader = new RBufferedReader(new InputStreamReader(ffmpeg.getErrorStream()));
-            processErrorOutput(attributes, reader, null, listener);
-        } catch (IOException e) {
-            throw new EncoderException(e);
-        } finally {
-            ffmpeg.destroy();
-        }
+        runEncoding(ffmpeg, attributes, null, files, true, listener);
     }
 
 
@@ -1535,6 +3478,19 @@ public class Encoder {
 
 
     public void encodeMergeVideoByLossless(File txtFile, File target, EncodingAttributes attributes, EncoderProgressListener listener) throws IllegalArgumentException, InputFormatException, EncoderException {
+        runShared("encodeMergeVideoByLossless", Collections.singletonList(txtFile), target, attributes, listener, new SingleFlight.Job<File>() {
+            public File run(EncoderProgressListener listener) throws EncoderException {
+                encodeMergeVideoByLosslessOnce(txtFile, target, attributes, listener);
+                return target.getAbsoluteFile();
+            }
+        });
+    }
+
+    /**
+     * Private utility. The body of
+     * {@link Encoder#encodeMergeVideoByLossless(File, File, EncodingAttributes, EncoderProgressListener)}.
+     */
+    private void encodeMergeVideoByLosslessOnce(File txtFile, File target, EncodingAttributes attributes, EncoderProgressListener listener) throws IllegalArgumentException, InputFormatException, EncoderException {
         String formatAttribute = attributes.getFormat();
         Float offsetAttribute = attributes.getOffset();
         Float durationAttribute = attributes.getDuration();
@@ -1545,7 +3501,7 @@ public class Encoder {
         }
         target = target.getAbsoluteFile();
         target.getParentFile().mkdirs();
-        FFMPEGExecutor ffmpeg = locator.createExecutor();
+        FFMPEGExecutor ffmpeg = createExecutor(attributes);
 
         if (offsetAttribute != null) {
             ffmpeg.addArgument("-ss");
@@ -1651,20 +3607,209 @@ public class Encoder {
         }
         ffmpeg.addArgument("-y");
         ffmpeg.addArgument(target.getAbsolutePath());
+        runEncoding(ffmpeg, attributes, txtFile, listener);
+    }
+
+    /**
+     * Asynchronously re-encodes a multimedia file on the default executor. See
+     * {@link Encoder#encode(File, File, EncodingAttributes, EncoderProgressListener)}.
+     *
+     * @param source     The source multimedia file.
+     * @param target     The target multimedia re-encoded file.
+     * @param attributes A set of attributes for the encoding process.
+     * @return A future completed when the encoding ends. Cancelling it with
+     * {@code cancel(true)} kills ffmpeg and removes the partial target.
+     */
+    public EncodingFuture<Void> encodeAsync(File source, File target, EncodingAttributes attributes) {
+        return encodeAsync(source, target, attributes, null, getDefaultAsyncExecutor());
+    }
+
+    /**
+     * Asynchronously re-encodes a multimedia file. See
+     * {@link Encoder#encode(File, File, EncodingAttributes, EncoderProgressListener)}.
+     *
+     * @param source     The source multimedia file.
+     * @param target     The target multimedia re-encoded file.
+     * @param attributes A set of attributes for the encoding process.
+     * @param listener   An optional progress listener. It can be null.
+     * @param executor   The executor running the job, e.g. an
+     *                   {@link EncodingScheduler}.
+     * @return A future completed when the encoding ends. Cancelling it with
+     * {@code cancel(true)} kills ffmpeg and removes the partial target.
+     */
+    public EncodingFuture<Void> encodeAsync(final File source, final File target, final EncodingAttributes attributes, final EncoderProgressListener listener, Executor executor) {
+        return submitAsync(new Callable<Void>() {
+            public Void call() throws Exception {
+                encode(source, target, attributes, listener);
+                return null;
+            }
+        }, executor);
+    }
+
+    /**
+     * Asynchronously merges several audio files. See
+     * {@link Encoder#encodeMergeAudio(List, File, EncodingAttributes, EncoderProgressListener)}.
+     *
+     * @param sourceList The audio files.
+     * @param target     The merged file.
+     * @param attributes A set of attributes for the encoding process.
+     * @param listener   An optional progress listener. It can be null.
+     * @param executor   The executor running the job.
+     * @return A future completed when the merge ends.
+     */
+    public EncodingFuture<Void> encodeMergeAudioAsync(final List<File> sourceList, final File target, final EncodingAttributes attributes, final EncoderProgressListener listener, Executor executor) {
+        return submitAsync(new Callable<Void>() {
+            public Void call() throws Exception {
+                encodeMergeAudio(sourceList, target, attributes, listener);
+                return null;
+            }
+        }, executor);
+    }
+
+    /**
+     * Asynchronously merges a video and an audio file. See
+     * {@link Encoder#encodeMergeVideoAndAudio(List, File, EncodingAttributes, EncoderProgressListener)}.
+     *
+     * @param files      The video and the audio files.
+     * @param target     The merged file.
+     * @param attributes A set of attributes for the encoding process.
+     * @param listener   An optional progress listener. It can be null.
+     * @param executor   The executor running the job.
+     * @return A future completed when the merge ends.
+     */
+    public EncodingFuture<Void> encodeMergeVideoAndAudioAsync(final List<File> files, final File target, final EncodingAttributes attributes, final EncoderProgressListener listener, Executor executor) {
+        return submitAsync(new Callable<Void>() {
+            public Void call() throws Exception {
+                encodeMergeVideoAndAudio(files, target, attributes, listener);
+                return null;
+            }
+        }, executor);
+    }
+
+    /**
+     * Asynchronously merges several video files re-encoding them. See
+     * {@link Encoder#encodeMergeVideoByDamaging(List, File, EncodingAttributes, EncoderProgressListener)}.
+     *
+     * @param files      The video files.
+     * @param target     The merged file.
+     * @param attributes A set of attributes for the encoding process.
+     * @param listener   An optional progress listener. It can be null.
+     * @param executor   The executor running the job.
+     * @return A future completed when the merge ends.
+     */
+    public EncodingFuture<Void> encodeMergeVideoByDamagingAsync(final List<File> files, final File target, final EncodingAttributes attributes, final EncoderProgressListener listener, Executor executor) {
+        return submitAsync(new Callable<Void>() {
+            public Void call() throws Exception {
+                encodeMergeVideoByDamaging(files, target, attributes, listener);
+                return null;
+            }
+        }, executor);
+    }
+
+    /**
+     * Asynchronously merges several video files without re-encoding them. See
+     * {@link Encoder#encodeMergeVideoByLossless(File, File, EncodingAttributes, EncoderProgressListener)}.
+     *
+     * @param txtFile    The concat list file.
+     * @param target     The merged file.
+     * @param attributes A set of attributes for the encoding process.
+     * @param listener   An optional progress listener. It can be null.
+     * @param executor   The executor running the job.
+     * @return A future completed when the merge ends.
+     */
+    public EncodingFuture<Void> encodeMergeVideoByLosslessAsync(final File txtFile, final File target, final EncodingAttributes attributes, final EncoderProgressListener listener, Executor executor) {
+        return submitAsync(new Callable<Void>() {
+            public Void call() throws Exception {
+                encodeMergeVideoByLossless(txtFile, target, attributes, listener);
+                return null;
+            }
+        }, executor);
+    }
+
+    /**
+     * Asynchronously reads the informations about a multimedia file on the
+     * default executor. See {@link Encoder#getInfo(File)}.
+     *
+     * @param source The source multimedia file.
+     * @return A future completed with the informations about the file.
+     */
+    public EncodingFuture<MultimediaInfo> getInfoAsync(File source) {
+        return getInfoAsync(source, getDefaultAsyncExecutor());
+    }
+
+    /**
+     * Asynchronously reads the informations about a multimedia file. See
+     * {@link Encoder#getInfo(File)}.
+     *
+     * @param source   The source multimedia file.
+     * @param executor The executor running the job.
+     * @return A future completed with the informations about the file.
+     */
+    public EncodingFuture<MultimediaInfo> getInfoAsync(final File source, Executor executor) {
+        return submitAsync(new Callable<MultimediaInfo>() {
+            public MultimediaInfo call() throws Exception {
+                return getInfo(source);
+            }
+        }, executor);
+    }
+
+    /**
+     * Private utility. It runs a job on the given executor, binding it to a
+     * {@link JobContext} so the returned future can kill its ffmpeg processes.
+     *
+     * @param job      The job.
+     * @param executor The executor.
+     * @return The future of the job.
+     */
+    private <T> EncodingFuture<T> submitAsync(final Callable<T> job, Executor executor) {
+        final JobContext context = new JobContext();
+        final EncodingFuture<T> future = new EncodingFuture<T>(context);
         try {
-            ffmpeg.execute();
-        } catch (IOException e) {
-            throw new EncoderException(e);
-        }
-        try {
-            RBufferedReader reader = new RBufferedReader(new InputStreamReader(ffmpeg.getErrorStream()));
-            processErrorOutput(attributes, reader, txtFile, listener);
-        } catch (IOException e) {
-            throw new EncoderException(e);
-        } finally {
-            ffmpeg.destroy();
+            executor.execute(new Runnable() {
+                public void run() {
+                    if (future.isDone()) {
+                        return;
+                    }
+                    JobContext previous = JobContext.enter(context);
+                    try {
+                        future.complete(job.call());
+                    } catch (Throwable t) {
+                        future.completeExceptionally(t);
+                    } finally {
+                        JobContext.exit(previous);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
         }
+        return future;
     }
 
+    /**
+     * Returns the executor used by the asynchronous methods when the caller
+     * does not supply one: an unbounded pool of daemon threads, shared by all
+     * the encoders.
+     *
+     * @return The default asynchronous executor.
+     */
+    protected static Executor getDefaultAsyncExecutor() {
+        if (defaultAsyncExecutor == null) {
+            synchronized (Encoder.class) {
+                if (defaultAsyncExecutor == null) {
+                    defaultAsyncExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "jave-async-" + count.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+                }
+            }
+        }
+        return defaultAsyncExecutor;
+    }
 
 }
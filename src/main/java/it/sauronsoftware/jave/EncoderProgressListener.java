@@ -43,6 +43,21 @@ public interface EncoderProgressListener {
 	 */
 	public void progress(int permil);
 
+	/**
+	 * This method is called to notify a progress in the encoding process, read
+	 * from the machine-readable ffmpeg progress output. The default
+	 * implementation forwards the permil value, when known, to
+	 * {@link EncoderProgressListener#progress(int)}.
+	 * 
+	 * @param event
+	 *            The progress report.
+	 */
+	public default void progress(ProgressEvent event) {
+		if (event.getPermil() >= 0) {
+			progress(event.getPermil());
+		}
+	}
+
 	/**
 	 * This method is called every time the encoder need to send a message
 	 * (usually, a warning).
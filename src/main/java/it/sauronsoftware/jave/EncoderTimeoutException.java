@@ -0,0 +1,49 @@
+/*
+ * JAVE - A Java Audio/Video Encoder (based on FFMPEG)
+ *
+ * Copyright (C) 2008-2009 Carlo Pelliccia (www.sauronsoftware.it)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.sauronsoftware.jave;
+
+/**
+ * This expection is thrown if a ffmpeg execution exceeds its wall-clock or
+ * cpu time budget and is killed.
+ */
+public class EncoderTimeoutException extends EncoderException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * True if the cpu time budget was exceeded, false if the wall-clock one.
+	 */
+	private final boolean cpuTime;
+
+	EncoderTimeoutException(String message, boolean cpuTime, Throwable cause) {
+		super(message, cause);
+		this.cpuTime = cpuTime;
+	}
+
+	/**
+	 * Returns true if the cpu time budget was exceeded, false if the
+	 * wall-clock one.
+	 *
+	 * @return true if the cpu time budget was exceeded.
+	 */
+	public boolean isCpuTime() {
+		return cpuTime;
+	}
+
+}
@@ -74,4 +74,18 @@ public class EncodingAttributes implements Serializable {
 
 	private String metadataSv;
 
+	/**
+	 * The wall-clock budget (millis) of the ffmpeg execution. If null or not
+	 * specified the encoder default applies (see
+	 * {@link Encoder#setDefaultTimeout(long)}).
+	 */
+	private Long timeout = null;
+
+	/**
+	 * The cpu time budget (seconds) of the ffmpeg execution. If null or not
+	 * specified the encoder default applies (see
+	 * {@link Encoder#setDefaultCpuTimeLimit(int)}).
+	 */
+	private Integer cpuTimeLimit = null;
+
 }
@@ -0,0 +1,37 @@
+package it.sauronsoftware.jave;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The future returned by the asynchronous {@link Encoder} methods. Cancelling
+ * it with {@code cancel(true)} kills the ffmpeg processes of the job, and the
+ * partial target file is removed. {@code cancel(false)} only prevents a job
+ * not yet started from running.
+ *
+ * @param <T> The job result type.
+ */
+public class EncodingFuture<T> extends CompletableFuture<T> {
+
+    /**
+     * The handle on the job processes.
+     */
+    private final JobContext context;
+
+    EncodingFuture(JobContext context) {
+        this.context = context;
+    }
+
+    JobContext getContext() {
+        return context;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            context.cancel(mayInterruptIfRunning);
+        }
+        return cancelled;
+    }
+
+}
@@ -0,0 +1,315 @@
+package it.sauronsoftware.jave;
+
+import it.sauronsoftware.jave.audio.AudioAttributes;
+import it.sauronsoftware.jave.audio.AudioInfo;
+import it.sauronsoftware.jave.enumers.EncodingPlanTypeEnum;
+import it.sauronsoftware.jave.video.VideoAttributes;
+import it.sauronsoftware.jave.video.VideoInfo;
+import it.sauronsoftware.jave.video.VideoSize;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Picks the cheapest way to produce an encoding, see
+ * {@link Encoder#setEncodingPlanning(boolean)}, by comparing the probed
+ * source with the encoding attributes. A stream can be copied when the
+ * attributes ask for no filter, trim or rate change and for its own codec,
+ * or for no codec when its codec is the default one of the target format.
+ */
+class EncodingPlanner {
+
+    /**
+     * The codecs produced by the ffmpeg encoders whose name is not the codec
+     * name.
+     */
+    private static final Map<String, String> ENCODER_CODECS = new HashMap<String, String>();
+
+    /**
+     * The default video codec of each target format.
+     */
+    private static final Map<String, String> DEFAULT_VIDEO_CODECS = new HashMap<String, String>();
+
+    /**
+     * The default audio codec of each target format.
+     */
+    private static final Map<String, String> DEFAULT_AUDIO_CODECS = new HashMap<String, String>();
+
+    /**
+     * The demuxer reading back each target format.
+     */
+    private static final Map<String, String> DEMUXERS = new HashMap<String, String>();
+
+    /**
+     * The target formats known by other names.
+     */
+    private static final Map<String, String> FORMAT_ALIASES = new HashMap<String, String>();
+
+    static {
+        ENCODER_CODECS.put("libmp3lame", "mp3");
+        ENCODER_CODECS.put("libshine", "mp3");
+        ENCODER_CODECS.put("libx264", "h264");
+        ENCODER_CODECS.put("libx265", "hevc");
+        ENCODER_CODECS.put("libvpx", "vp8");
+        ENCODER_CODECS.put("libvpx-vp9", "vp9");
+        ENCODER_CODECS.put("libaom-av1", "av1");
+        ENCODER_CODECS.put("libsvtav1", "av1");
+        ENCODER_CODECS.put("libxvid", "mpeg4");
+        ENCODER_CODECS.put("flv", "flv1");
+        ENCODER_CODECS.put("libopus", "opus");
+        ENCODER_CODECS.put("libvorbis", "vorbis");
+        ENCODER_CODECS.put("libfdk_aac", "aac");
+        ENCODER_CODECS.put("libopencore_amrnb", "amr_nb");
+        ENCODER_CODECS.put("libvo_amrwbenc", "amr_wb");
+        ENCODER_CODECS.put("amrnb", "amr_nb");
+        ENCODER_CODECS.put("amrwb", "amr_wb");
+
+        defaults("mp4", "h264", "aac");
+        defaults("mov", "h264", "aac");
+        defaults("m4v", "h264", "aac");
+        defaults("m4a", null, "aac");
+        defaults("3gp", "h263", "amr_nb");
+        defaults("mkv", "h264", "vorbis");
+        defaults("webm", "vp9", "opus");
+        defaults("flv", "flv1", "mp3");
+        defaults("avi", "mpeg4", "mp3");
+        defaults("ogg", "theora", "vorbis");
+        defaults("mp3", null, "mp3");
+        defaults("wav", null, "pcm_s16le");
+        defaults("flac", null, "flac");
+        defaults("opus", null, "opus");
+        defaults("aac", null, "aac");
+        defaults("amr", null, "amr_nb");
+
+        DEMUXERS.put("mp4", "mov");
+        DEMUXERS.put("m4v", "mov");
+        DEMUXERS.put("m4a", "mov");
+        DEMUXERS.put("3gp", "mov");
+        DEMUXERS.put("mkv", "matroska");
+        DEMUXERS.put("webm", "matroska");
+
+        FORMAT_ALIASES.put("matroska", "mkv");
+        FORMAT_ALIASES.put("ipod", "m4a");
+        FORMAT_ALIASES.put("adts", "aac");
+    }
+
+    private static void defaults(String format, String videoCodec, String audioCodec) {
+        if (videoCodec != null) {
+            DEFAULT_VIDEO_CODECS.put(format, videoCodec);
+        }
+        DEFAULT_AUDIO_CODECS.put(format, audioCodec);
+    }
+
+    /**
+     * Plans an encoding.
+     *
+     * @param info       The informations about the source, or null if the
+     *                   source cannot be probed.
+     * @param source     The source file.
+     * @param target     The target file.
+     * @param attributes The encoding attributes.
+     * @return The cheapest way to produce the target.
+     */
+    static EncodingPlanTypeEnum plan(MultimediaInfo info, File source, File target, EncodingAttributes attributes) {
+        return plan(info, source, target, attributes, false);
+    }
+
+    /**
+     * Plans an encoding.
+     *
+     * @param info       The informations about the source, or null if the
+     *                   source cannot be probed.
+     * @param source     The source file.
+     * @param target     The target file.
+     * @param attributes The encoding attributes.
+     * @param cut        true to plan the cut range only, ignoring the trim
+     *                   attributes; the source is then never copied whole.
+     * @return The cheapest way to produce the target.
+     */
+    static EncodingPlanTypeEnum plan(MultimediaInfo info, File source, File target, EncodingAttributes attributes, boolean cut) {
+        if (info == null || (!cut && (attributes.getOffset() != null || attributes.getDuration() != null))) {
+            return EncodingPlanTypeEnum.TRANSCODE;
+        }
+        AudioAttributes audioAttributes = attributes.getAudioAttributes();
+        VideoAttributes videoAttributes = attributes.getVideoAttributes();
+        int audioStreams = info.getAudioStreams().size();
+        int videoStreams = info.getVideoStreams().size();
+        if (audioStreams == 0 && videoStreams == 0) {
+            return EncodingPlanTypeEnum.TRANSCODE;
+        }
+        String format = targetFormat(target, attributes);
+        // A dropped stream costs nothing.
+        boolean videoCopied = videoAttributes == null || videoStreams == 0 || canCopy(info.getVideo(), videoAttributes, format, cut);
+        boolean audioCopied = audioAttributes == null || audioStreams == 0 || canCopy(info.getAudio(), audioAttributes, format, cut);
+        if (videoCopied && audioCopied) {
+            if (!cut && isSame(info, source, target, attributes, format)) {
+                return EncodingPlanTypeEnum.SKIP;
+            }
+            return EncodingPlanTypeEnum.REMUX;
+        }
+        if (videoCopied && videoAttributes != null && videoStreams > 0) {
+            return EncodingPlanTypeEnum.AUDIO_ONLY;
+        }
+        return EncodingPlanTypeEnum.TRANSCODE;
+    }
+
+    /**
+     * Returns the audio codec an encoding produces.
+     *
+     * @param target     The target file.
+     * @param attributes The encoding attributes.
+     * @return The codec, i.e. "mp3", or null if it is unknown.
+     */
+    static String audioCodec(File target, EncodingAttributes attributes) {
+        AudioAttributes audioAttributes = attributes.getAudioAttributes();
+        if (audioAttributes == null) {
+            return null;
+        }
+        String encoder = audioAttributes.getCodec();
+        if (encoder == null) {
+            String format = targetFormat(target, attributes);
+            return format != null ? DEFAULT_AUDIO_CODECS.get(format) : null;
+        }
+        return "copy".equals(encoder) ? null : codec(encoder);
+    }
+
+    /**
+     * Private utility. It checks whether the target would hold exactly the
+     * streams of the source, in the same container.
+     */
+    private static boolean isSame(MultimediaInfo info, File source, File target, EncodingAttributes attributes, String format) {
+        if (!isEmpty(attributes.getFflags()) || !isEmpty(attributes.getMetadataSv())) {
+            return false;
+        }
+        int audioStreams = info.getAudioStreams().size();
+        int videoStreams = info.getVideoStreams().size();
+        if (audioStreams > 1 || videoStreams > 1
+                || (audioStreams > 0 && attributes.getAudioAttributes() == null)
+                || (videoStreams > 0 && attributes.getVideoAttributes() == null)) {
+            return false;
+        }
+        String extension = extension(source);
+        if (extension == null || !extension.equals(extension(target)) || format == null) {
+            return false;
+        }
+        String demuxer = DEMUXERS.get(format);
+        return (demuxer != null ? demuxer : format).equalsIgnoreCase(info.getFormat());
+    }
+
+    private static boolean canCopy(VideoInfo video, VideoAttributes attributes, String format, boolean cut) {
+        if (!isCodec(attributes.getCodec(), video.getDecoder(), DEFAULT_VIDEO_CODECS.get(format))) {
+            return false;
+        }
+        if (attributes.getTag() != null || !isEmpty(attributes.getSetpts()) || !isEmpty(attributes.getVf())
+                || (!cut && (attributes.getStartTime() != null || attributes.getDuration() != null))
+                || !isEmpty(attributes.getQv()) || !isEmpty(attributes.getBv())
+                || !isEmpty(attributes.getBufsize()) || !isEmpty(attributes.getMaxrate())) {
+            return false;
+        }
+        if (attributes.getBitRate() != null && !isBitRate(video.getBitRate(), attributes.getBitRate())) {
+            return false;
+        }
+        Integer frameRate = attributes.getFrameRate();
+        if (frameRate != null && Math.abs(video.getFrameRate() - frameRate.intValue()) > 0.01F) {
+            return false;
+        }
+        VideoSize size = attributes.getSize();
+        VideoSize sourceSize = video.getSize();
+        if (size != null && (sourceSize == null || size.getWidth() != sourceSize.getWidth()
+                || size.getHeight() != sourceSize.getHeight())) {
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean canCopy(AudioInfo audio, AudioAttributes attributes, String format, boolean cut) {
+        if (!isCodec(attributes.getCodec(), audio.getDecoder(), DEFAULT_AUDIO_CODECS.get(format))) {
+            return false;
+        }
+        if (attributes.getVol() != null || (!cut && (attributes.getStartTime() != null || attributes.getDuration() != null))
+                || !isEmpty(attributes.getAb()) || !isEmpty(attributes.getAf())
+                || !isEmpty(attributes.getFilterComplex()) || !isEmpty(attributes.getAf_Atempo())
+                || !isEmpty(attributes.getAf_volume())) {
+            return false;
+        }
+        if (attributes.getBitRate() != null && !isBitRate(audio.getBitRate(), attributes.getBitRate())) {
+            return false;
+        }
+        if (attributes.getChannels() != null && attributes.getChannels().intValue() != audio.getChannels()) {
+            return false;
+        }
+        if (attributes.getSamplingRate() != null && attributes.getSamplingRate().intValue() != audio.getSamplingRate()) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Private utility. It checks whether the requested encoder produces the
+     * codec of the source stream.
+     *
+     * @param encoder        The requested encoder, or null for the default one
+     *                       of the target format.
+     * @param decoder        The decoder of the source stream, as reported by
+     *                       ffmpeg, i.e. "h264 (High)".
+     * @param defaultCodec   The default codec of the target format, or null if
+     *                       it is unknown.
+     */
+    private static boolean isCodec(String encoder, String decoder, String defaultCodec) {
+        if (decoder == null) {
+            return false;
+        }
+        if ("copy".equals(encoder)) {
+            return true;
+        }
+        String codec = codec(decoder.trim().split("[\\s,]", 2)[0]);
+        if (encoder == null) {
+            return codec.equals(defaultCodec);
+        }
+        return codec.equals(codec(encoder));
+    }
+
+    private static String codec(String name) {
+        name = name.toLowerCase(Locale.ROOT);
+        String codec = ENCODER_CODECS.get(name);
+        return codec != null ? codec : name;
+    }
+
+    /**
+     * Private utility. It checks whether a requested bit rate (bit/s) matches
+     * the one of the source stream (kb/s), within 5%.
+     */
+    private static boolean isBitRate(int sourceBitRate, int bitRate) {
+        return sourceBitRate > 0 && Math.abs(sourceBitRate * 1000L - bitRate) <= bitRate / 20;
+    }
+
+    /**
+     * Private utility. It returns the target format: the format attribute, or
+     * else the extension of the target.
+     */
+    private static String targetFormat(File target, EncodingAttributes attributes) {
+        String format = attributes.getFormat();
+        if (isEmpty(format)) {
+            format = extension(target);
+            if (format == null) {
+                return null;
+            }
+        }
+        format = format.toLowerCase(Locale.ROOT);
+        String alias = FORMAT_ALIASES.get(format);
+        return alias != null ? alias : format;
+    }
+
+    private static String extension(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && dot < name.length() - 1 ? name.substring(dot + 1).toLowerCase(Locale.ROOT) : null;
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.length() == 0;
+    }
+
+}
@@ -0,0 +1,421 @@
+package it.sauronsoftware.jave;
+
+import it.sauronsoftware.jave.enumers.BackpressureTypeEnum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded scheduler in front of an {@link Encoder}. It runs at most a fixed
+ * number of ffmpeg processes at the same time and keeps the other jobs in a
+ * bounded queue. When the queue is full the behaviour is chosen with a
+ * {@link BackpressureTypeEnum}.
+ */
+public class EncodingScheduler implements Executor {
+    private static final Logger log = LoggerFactory.getLogger(EncodingScheduler.class);
+
+    /**
+     * The default queue capacity, per allowed concurrent job.
+     */
+    private static final int DEFAULT_QUEUE_CAPACITY_PER_JOB = 16;
+
+    /**
+     * The encoder running the jobs.
+     */
+    private final Encoder encoder;
+
+    /**
+     * The backpressure policy.
+     */
+    private final BackpressureTypeEnum backpressure;
+
+    /**
+     * The pool running the jobs.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Statistics about the time spent by the jobs in the queue.
+     */
+    private final AtomicLong totalWaitMillis = new AtomicLong();
+    private final AtomicLong maxWaitMillis = new AtomicLong();
+    private final AtomicLong startedJobs = new AtomicLong();
+    private final AtomicLong rejectedJobs = new AtomicLong();
+
+    /**
+     * It builds a scheduler with a concurrency limit picked by
+     * {@link EncodingScheduler#getAvailableProcessors()}, a proportional queue
+     * and the {@link BackpressureTypeEnum#BLOCK} policy.
+     *
+     * @param encoder The encoder running the jobs.
+     */
+    public EncodingScheduler(Encoder encoder) {
+        this(encoder, getAvailableProcessors(), getAvailableProcessors() * DEFAULT_QUEUE_CAPACITY_PER_JOB, BackpressureTypeEnum.BLOCK);
+    }
+
+    /**
+     * It builds a scheduler.
+     *
+     * @param encoder       The encoder running the jobs.
+     * @param concurrency   The max number of ffmpeg processes running at the
+     *                      same time.
+     * @param queueCapacity The max number of jobs waiting in the queue.
+     * @param backpressure  What to do when the queue is full.
+     */
+    public EncodingScheduler(Encoder encoder, int concurrency, int queueCapacity, BackpressureTypeEnum backpressure) {
+        if (encoder == null || backpressure == null) {
+            throw new IllegalArgumentException("encoder and backpressure cannot be null");
+        }
+        if (concurrency <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("concurrency and queueCapacity must be positive");
+        }
+        this.encoder = encoder;
+        this.backpressure = backpressure;
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new JobThreadFactory(), new BackpressureHandler());
+    }
+
+    /**
+     * Returns the number of processors this JVM is allowed to use, taking into
+     * account the cgroup cpu quota of the container it runs in, if any.
+     *
+     * @return The number of usable processors, at least 1.
+     */
+    public static int getAvailableProcessors() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int quota = readCpuQuota();
+        if (quota > 0 && quota < processors) {
+            processors = quota;
+        }
+        return Math.max(1, processors);
+    }
+
+    /**
+     * Private utility. It reads the cgroup (v2, then v1) cpu quota.
+     *
+     * @return The cpu quota rounded up, or -1 if there's no quota.
+     */
+    private static int readCpuQuota() {
+        // cgroup v2: "<quota> <period>" or "max <period>"
+        String line = readFirstLine("/sys/fs/cgroup/cpu.max");
+        if (line != null) {
+            String[] parts = line.trim().split("\\s+");
+            if (parts.length == 2 && !"max".equals(parts[0])) {
+                return quota(parts[0], parts[1]);
+            }
+            return -1;
+        }
+        // cgroup v1
+        String quota = readFirstLine("/sys/fs/cgroup/cpu/cpu.cfs_quota_us");
+        String period = readFirstLine("/sys/fs/cgroup/cpu/cpu.cfs_period_us");
+        if (quota != null && period != null) {
+            return quota(quota.trim(), period.trim());
+        }
+        return -1;
+    }
+
+    private static int quota(String quota, String period) {
+        try {
+            long q = Long.parseLong(quota);
+            long p = Long.parseLong(period);
+            if (q <= 0 || p <= 0) {
+                return -1;
+            }
+            return (int) ((q + p - 1) / p);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String readFirstLine(String path) {
+        File file = new File(path);
+        if (!file.canRead()) {
+            return null;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            return reader.readLine();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Schedules the re-encoding of a multimedia file. See
+     * {@link Encoder#encode(File, File, EncodingAttributes, EncoderProgressListener)}.
+     *
+     * @param source     The source multimedia file.
+     * @param target     The target multimedia re-encoded file.
+     * @param attributes A set of attributes for the encoding process.
+     * @param listener   An optional progress listener. It can be null.
+     * @return A future completed when the job ends.
+     * @throws RejectedExecutionException If the queue is full and the policy is
+     *                                    {@link BackpressureTypeEnum#REJECT}.
+     */
+    public Future<Void> submitEncode(final File source, final File target, final EncodingAttributes attributes, final EncoderProgressListener listener) {
+        return submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                encoder.encode(source, target, attributes, listener);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Schedules the merge of several audio files. See
+     * {@link Encoder#encodeMergeAudio(List, File, EncodingAttributes, EncoderProgressListener)}.
+     *
+     * @param sourceList The audio files.
+     * @param target     The merged file.
+     * @param attributes A set of attributes for the encoding process.
+     * @param listener   An optional progress listener. It can be null.
+     * @return A future completed when the job ends.
+     */
+    public Future<Void> submitMergeAudio(final List<File> sourceList, final File target, final EncodingAttributes attributes, final EncoderProgressListener listener) {
+        return submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                encoder.encodeMergeAudio(sourceList, target, attributes, listener);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Schedules the merge of a video and an audio file. See
+     * {@link Encoder#encodeMergeVideoAndAudio(List, File, EncodingAttributes, EncoderProgressListener)}.
+     *
+     * @param files      The video and the audio files.
+     * @param target     The merged file.
+     * @param attributes A set of attributes for the encoding process.
+     * @param listener   An optional progress listener. It can be null.
+     * @return A future completed when the job ends.
+     */
+    public Future<Void> submitMergeVideoAndAudio(final List<File> files, final File target, final EncodingAttributes attributes, final EncoderProgressListener listener) {
+        return submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                encoder.encodeMergeVideoAndAudio(files, target, attributes, listener);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Schedules a re-encoding merge of several video files. See
+     * {@link Encoder#encodeMergeVideoByDamaging(List, File, EncodingAttributes, EncoderProgressListener)}.
+     *
+     * @param files      The video files.
+     * @param target     The merged file.
+     * @param attributes A set of attributes for the encoding process.
+     * @param listener   An optional progress listener. It can be null.
+     * @return A future completed when the job ends.
+     */
+    public Future<Void> submitMergeVideoByDamaging(final List<File> files, final File target, final EncodingAttributes attributes, final EncoderProgressListener listener) {
+        return submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                encoder.encodeMergeVideoByDamaging(files, target, attributes, listener);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Schedules a lossless merge of several video files. See
+     * {@link Encoder#encodeMergeVideoByLossless(File, File, EncodingAttributes, EncoderProgressListener)}.
+     *
+     * @param txtFile    The concat list file.
+     * @param target     The merged file.
+     * @param attributes A set of attributes for the encoding process.
+     * @param listener   An optional progress listener. It can be null.
+     * @return A future completed when the job ends.
+     */
+    public Future<Void> submitMergeVideoByLossless(final File txtFile, final File target, final EncodingAttributes attributes, final EncoderProgressListener listener) {
+        return submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                encoder.encodeMergeVideoByLossless(txtFile, target, attributes, listener);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Schedules a generic job, sharing the concurrency limit with the encoding
+     * jobs.
+     *
+     * @param job The job.
+     * @param <T> The job result type.
+     * @return A future completed when the job ends.
+     */
+    public <T> Future<T> submit(Callable<T> job) {
+        FutureTask<T> task = new FutureTask<T>(job);
+        execute(task);
+        return task;
+    }
+
+    /**
+     * Runs a command under the concurrency limit and the backpressure policy
+     * of this scheduler.
+     *
+     * @param command The command.
+     */
+    @Override
+    public void execute(Runnable command) {
+        executor.execute(new QueuedJob(command));
+    }
+
+    /**
+     * Returns the number of jobs waiting in the queue.
+     *
+     * @return The queue depth.
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Returns the number of jobs currently running.
+     *
+     * @return The number of running jobs.
+     */
+    public int getRunningJobs() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Returns the max number of jobs running at the same time.
+     *
+     * @return The concurrency limit.
+     */
+    public int getConcurrency() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Returns the number of jobs rejected because the queue was full.
+     *
+     * @return The number of rejected jobs.
+     */
+    public long getRejectedJobs() {
+        return rejectedJobs.get();
+    }
+
+    /**
+     * Returns the average time spent in the queue by the started jobs.
+     *
+     * @return The average wait time in millis.
+     */
+    public long getAverageWaitTime() {
+        long started = startedJobs.get();
+        return started == 0 ? 0 : totalWaitMillis.get() / started;
+    }
+
+    /**
+     * Returns the longest time spent in the queue by a started job.
+     *
+     * @return The max wait time in millis.
+     */
+    public long getMaxWaitTime() {
+        return maxWaitMillis.get();
+    }
+
+    /**
+     * Stops accepting new jobs. Queued and running jobs are completed.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Waits for the completion of the queued and running jobs after a
+     * {@link EncodingScheduler#shutdown()}.
+     *
+     * @param timeout The max time to wait.
+     * @param unit    The timeout unit.
+     * @return true if all the jobs ended, false if the timeout elapsed.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * A job recording the time it spends in the queue.
+     */
+    private class QueuedJob implements Runnable {
+
+        private final Runnable command;
+
+        private final long queuedAt = System.currentTimeMillis();
+
+        QueuedJob(Runnable command) {
+            this.command = command;
+        }
+
+        public void run() {
+            long wait = System.currentTimeMillis() - queuedAt;
+            startedJobs.incrementAndGet();
+            totalWaitMillis.addAndGet(wait);
+            long max;
+            while (wait > (max = maxWaitMillis.get()) && !maxWaitMillis.compareAndSet(max, wait)) {
+                ;
+            }
+            command.run();
+        }
+    }
+
+    /**
+     * Applies the backpressure policy when the queue is full.
+     */
+    private class BackpressureHandler implements RejectedExecutionHandler {
+
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                rejectedJobs.incrementAndGet();
+                throw new RejectedExecutionException("encoding scheduler is shut down");
+            }
+            switch (backpressure) {
+                case BLOCK:
+                    try {
+                        executor.getQueue().put(r);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        rejectedJobs.incrementAndGet();
+                        throw new RejectedExecutionException("interrupted while waiting for the encoding queue", e);
+                    }
+                    break;
+                case CALLER_RUNS:
+                    r.run();
+                    break;
+                default:
+                    rejectedJobs.incrementAndGet();
+                    log.warn("encoding queue is full, job rejected. queue depth: {}", executor.getQueue().size());
+                    throw new RejectedExecutionException("encoding queue is full");
+            }
+        }
+    }
+
+    /**
+     * Names the scheduler threads.
+     */
+    private static class JobThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+        private final int pool = POOL_NUMBER.incrementAndGet();
+
+        private final AtomicInteger thread = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "jave-encoder-" + pool + "-" + thread.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+}
@@ -0,0 +1,172 @@
+package it.sauronsoftware.jave;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The codecs and file formats supported by a ffmpeg executable. Instances are
+ * immutable and are probed once per executable, see
+ * {@link Encoder#getCapabilities()}.
+ */
+public final class FFMPEGCapabilities {
+
+    private final Set<String> audioDecoders;
+
+    private final Set<String> audioEncoders;
+
+    private final Set<String> videoDecoders;
+
+    private final Set<String> videoEncoders;
+
+    private final Set<String> decodingFormats;
+
+    private final Set<String> encodingFormats;
+
+    FFMPEGCapabilities(Collection<String> audioDecoders, Collection<String> audioEncoders,
+                       Collection<String> videoDecoders, Collection<String> videoEncoders,
+                       Collection<String> decodingFormats, Collection<String> encodingFormats) {
+        this.audioDecoders = freeze(audioDecoders);
+        this.audioEncoders = freeze(audioEncoders);
+        this.videoDecoders = freeze(videoDecoders);
+        this.videoEncoders = freeze(videoEncoders);
+        this.decodingFormats = freeze(decodingFormats);
+        this.encodingFormats = freeze(encodingFormats);
+    }
+
+    private static Set<String> freeze(Collection<String> values) {
+        return Collections.unmodifiableSet(new LinkedHashSet<String>(values));
+    }
+
+    /**
+     * Returns the names of the audio decoders, in the ffmpeg order.
+     *
+     * @return The audio decoders.
+     */
+    public Set<String> getAudioDecoders() {
+        return audioDecoders;
+    }
+
+    /**
+     * Returns the names of the audio encoders, in the ffmpeg order.
+     *
+     * @return The audio encoders.
+     */
+    public Set<String> getAudioEncoders() {
+        return audioEncoders;
+    }
+
+    /**
+     * Returns the names of the video decoders, in the ffmpeg order.
+     *
+     * @return The video decoders.
+     */
+    public Set<String> getVideoDecoders() {
+        return videoDecoders;
+    }
+
+    /**
+     * Returns the names of the video encoders, in the ffmpeg order.
+     *
+     * @return The video encoders.
+     */
+    public Set<String> getVideoEncoders() {
+        return videoEncoders;
+    }
+
+    /**
+     * Returns the names of the file formats supported at decoding time.
+     *
+     * @return The decoding formats.
+     */
+    public Set<String> getDecodingFormats() {
+        return decodingFormats;
+    }
+
+    /**
+     * Returns the names of the file formats supported at encoding time.
+     *
+     * @return The encoding formats.
+     */
+    public Set<String> getEncodingFormats() {
+        return encodingFormats;
+    }
+
+    public boolean canDecodeAudio(String codec) {
+        return audioDecoders.contains(codec);
+    }
+
+    public boolean canEncodeAudio(String codec) {
+        return audioEncoders.contains(codec);
+    }
+
+    public boolean canDecodeVideo(String codec) {
+        return videoDecoders.contains(codec);
+    }
+
+    public boolean canEncodeVideo(String codec) {
+        return videoEncoders.contains(codec);
+    }
+
+    public boolean canDecodeFormat(String format) {
+        return decodingFormats.contains(format);
+    }
+
+    public boolean canEncodeFormat(String format) {
+        return encodingFormats.contains(format);
+    }
+
+    /**
+     * Serializes the capabilities as JSON.
+     *
+     * @return The JSON text.
+     */
+    String toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("audioDecoders", audioDecoders);
+        json.put("audioEncoders", audioEncoders);
+        json.put("videoDecoders", videoDecoders);
+        json.put("videoEncoders", videoEncoders);
+        json.put("decodingFormats", decodingFormats);
+        json.put("encodingFormats", encodingFormats);
+        return json.toJSONString();
+    }
+
+    /**
+     * Parses capabilities serialized by {@link FFMPEGCapabilities#toJSON()}.
+     *
+     * @param text The JSON text.
+     * @return The capabilities.
+     */
+    static FFMPEGCapabilities fromJSON(String text) {
+        JSONObject json = JSON.parseObject(text);
+        return new FFMPEGCapabilities(list(json, "audioDecoders"), list(json, "audioEncoders"),
+                list(json, "videoDecoders"), list(json, "videoEncoders"),
+                list(json, "decodingFormats"), list(json, "encodingFormats"));
+    }
+
+    private static Collection<String> list(JSONObject json, String key) {
+        JSONArray array = json.getJSONArray(key);
+        if (array == null) {
+            return Collections.emptyList();
+        }
+        return array.toJavaList(String.class);
+    }
+
+    @Override
+    public String toString() {
+        return "FFMPEGCapabilities{" +
+                "audioDecoders=" + audioDecoders.size() +
+                ", audioEncoders=" + audioEncoders.size() +
+                ", videoDecoders=" + videoDecoders.size() +
+                ", videoEncoders=" + videoEncoders.size() +
+                ", decodingFormats=" + decodingFormats.size() +
+                ", encodingFormats=" + encodingFormats.size() +
+                '}';
+    }
+}
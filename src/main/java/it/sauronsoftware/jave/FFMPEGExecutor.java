@@ -19,13 +19,15 @@
 package it.sauronsoftware.jave;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.TeeInputStream;
+import org.apache.commons.io.output.TeeOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ScheduledFuture;
 
 /**
  * A ffmpeg process wrapper.
@@ -34,6 +36,44 @@ import java.util.Arrays;
  */
 class FFMPEGExecutor {
     private static final Logger log = LoggerFactory.getLogger(FFMPEGExecutor.class);
+
+    /**
+     * How many bytes of the ffmpeg error channel are kept to describe a failed
+     * execution.
+     */
+    private static final int ERROR_TAIL_SIZE = 64 * 1024;
+
+    /**
+     * How long a killed ffmpeg process is given to terminate before being
+     * forcibly destroyed.
+     */
+    private static final long KILL_GRACE_MILLIS = 2000L;
+
+    /**
+     * The exit value of a process killed by SIGXCPU, which is what the
+     * -timelimit option of ffmpeg sends when the cpu budget is exhausted.
+     * ffmpeg catches it, though: it logs {@link #SIGXCPU_MESSAGE} and exits
+     * with {@link #SIGNAL_EXIT_VALUE}, or, if it does not stop in time, the
+     * kernel kills it at the hard limit, one second later, with
+     * {@link #SIGKILL_EXIT_VALUE}.
+     */
+    private static final int SIGXCPU_EXIT_VALUE = 128 + 24;
+
+    /**
+     * The exit value of ffmpeg stopped by a signal it catches.
+     */
+    private static final int SIGNAL_EXIT_VALUE = 255;
+
+    /**
+     * The exit value of a process killed by SIGKILL.
+     */
+    private static final int SIGKILL_EXIT_VALUE = 128 + 9;
+
+    /**
+     * The line ffmpeg logs when it is stopped by SIGXCPU.
+     */
+    private static final String SIGXCPU_MESSAGE = "received signal 24";
+
     /**
      * The path of the ffmpeg executable.
      */
@@ -47,13 +87,23 @@ class FFMPEGExecutor {
     /**
      * The process representing the ffmpeg execution.
      */
-    private Process ffmpeg = null;
+    private volatile Process ffmpeg = null;
+
+    /**
+     * The id of the execution in the {@link ProcessRegistry}, assigned when
+     * the process starts.
+     */
+    private long id = -1;
+
+    /**
+     * The full command line, set when the process starts.
+     */
+    private String command = null;
 
     /**
-     * A process killer to kill the ffmpeg process with a shutdown hook, useful
-     * if the jvm execution is shutted down during an ongoing encoding process.
+     * When the process started, in millis.
      */
-    private ProcessKiller ffmpegKiller = null;
+    private long startTime = 0;
 
     /**
      * A stream reading from the ffmpeg process standard output channel.
@@ -72,6 +122,85 @@ class FFMPEGExecutor {
 
     private String errorMsg = null;
 
+    /**
+     * The exit value of the process, -1 until it has terminated.
+     */
+    private int exitValue = -1;
+
+    /**
+     * If true the caller reads the ffmpeg standard output channel, and the
+     * standard error channel is drained in background. Otherwise the caller
+     * reads the standard error channel and the standard output channel is
+     * drained in background.
+     */
+    private boolean readInputStream = false;
+
+    /**
+     * The last bytes sent by ffmpeg on its standard error channel.
+     */
+    private TailOutputStream errorTail = new TailOutputStream(ERROR_TAIL_SIZE);
+
+    /**
+     * The arguments placed before all the others, i.e. the global options.
+     */
+    private ArrayList<String> globalArgs = new ArrayList<String>();
+
+    /**
+     * An optional sink receiving the standard output channel when the caller
+     * reads the standard error channel.
+     */
+    private OutputStream outputSink = null;
+
+    /**
+     * An optional sink receiving a copy of the standard error channel.
+     */
+    private OutputStream errorSink = null;
+
+    /**
+     * The thread draining the channel not read by the caller.
+     */
+    private StreamGobbler gobbler = null;
+
+    /**
+     * The job this execution belongs to, if any.
+     */
+    private JobContext context;
+
+    /**
+     * True if the execution has been killed before its natural end.
+     */
+    private volatile boolean killed = false;
+
+    /**
+     * The wall-clock budget of the execution in millis. 0 means no limit.
+     */
+    private long timeout = 0;
+
+    /**
+     * The cpu time budget of the execution in seconds. 0 means no limit.
+     */
+    private int cpuTimeLimit = 0;
+
+    /**
+     * The watchdog task enforcing the wall-clock budget.
+     */
+    private ScheduledFuture<?> timeoutTask = null;
+
+    /**
+     * True if the execution has been killed by the watchdog.
+     */
+    private volatile boolean timedOut = false;
+
+    /**
+     * True if ffmpeg has been stopped because of the cpu time budget.
+     */
+    private boolean cpuTimeExceeded = false;
+
+    /**
+     * True once {@link FFMPEGExecutor#destroy()} has been called.
+     */
+    private boolean destroyed = false;
+
     /**
      * It build the executor.
      *
@@ -79,6 +208,7 @@ class FFMPEGExecutor {
      */
     public FFMPEGExecutor(String ffmpegExecutablePath) {
         this.ffmpegExecutablePath = ffmpegExecutablePath;
+        this.context = JobContext.current();
     }
 
     /**
@@ -91,29 +221,210 @@ class FFMPEGExecutor {
     }
 
     /**
-     * Executes the ffmpeg process with the previous given arguments.
+     * Chooses which ffmpeg output channel is read by the caller. By default
+     * the caller reads the standard error channel, where ffmpeg logs its
+     * progress. It must be called before {@link FFMPEGExecutor#execute()}.
+     *
+     * @param readInputStream true to read the standard output channel
+     *                        instead of the standard error one.
+     */
+    public void setReadInputStream(boolean readInputStream) {
+        this.readInputStream = readInputStream;
+    }
+
+    /**
+     * Adds an argument placed before all the ones added with
+     * {@link FFMPEGExecutor#addArgument(String)}, as required by the ffmpeg
+     * global options.
+     *
+     * @param arg The argument.
+     */
+    void addGlobalArgument(String arg) {
+        globalArgs.add(arg);
+    }
+
+    /**
+     * Sets a sink receiving the standard output channel, when the caller reads
+     * the standard error one. It is written by a background thread.
+     *
+     * @param outputSink The sink.
+     */
+    void setOutputSink(OutputStream outputSink) {
+        this.outputSink = outputSink;
+    }
+
+    /**
+     * Sets a sink receiving a copy of the standard error channel, as it is
+     * read.
+     *
+     * @param errorSink The sink.
+     */
+    void setErrorSink(OutputStream errorSink) {
+        this.errorSink = errorSink;
+    }
+
+    /**
+     * Sets the wall-clock budget of the execution. When it elapses the process
+     * is killed and {@link FFMPEGExecutor#isTimedOut()} returns true. It must
+     * be called before {@link FFMPEGExecutor#execute()}.
+     *
+     * @param timeout The budget in millis, 0 for no limit.
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Sets the cpu time budget of the execution, enforced by ffmpeg itself
+     * through its -timelimit option. It must be called before
+     * {@link FFMPEGExecutor#execute()}.
+     *
+     * @param cpuTimeLimit The budget in seconds, 0 for no limit.
+     */
+    public void setCpuTimeLimit(int cpuTimeLimit) {
+        this.cpuTimeLimit = cpuTimeLimit;
+    }
+
+    /**
+     * Executes the ffmpeg process with the previous given arguments. It returns
+     * as soon as the process is started: the channel chosen with
+     * {@link FFMPEGExecutor#setReadInputStream(boolean)} is streamed live to the
+     * caller, while the other one is drained concurrently by a background
+     * thread.
      *
      * @throws IOException If the process call fails.
      */
     public void execute() throws IOException {
+        if (context != null && context.isCancelled()) {
+            throw new InterruptedIOException("ffmpeg execution cancelled");
+        }
         int argsSize = args.size();
-        String[] cmd = new String[argsSize + 1];
+        int globalSize = globalArgs.size();
+        int first = (cpuTimeLimit > 0 ? 3 : 1) + globalSize;
+        String[] cmd = new String[argsSize + first];
         cmd[0] = ffmpegExecutablePath;
+        if (cpuTimeLimit > 0) {
+            cmd[1] = "-timelimit";
+            cmd[2] = String.valueOf(cpuTimeLimit);
+        }
+        for (int i = 0; i < globalSize; i++) {
+            cmd[first - globalSize + i] = globalArgs.get(i);
+        }
         for (int i = 0; i < argsSize; i++) {
-            cmd[i + 1] = (String) args.get(i);
+            cmd[i + first] = (String) args.get(i);
         }
         Runtime runtime = Runtime.getRuntime();
-        log.info("exec cmd: {}", Arrays.toString(cmd));
+        command = Arrays.toString(cmd);
+        log.info("exec cmd: {}", command);
         ffmpeg = runtime.exec(cmd);
-        ffmpegKiller = new ProcessKiller(ffmpeg);
-        runtime.addShutdownHook(ffmpegKiller);
-        inputStream = ffmpeg.getInputStream();
+        startTime = System.currentTimeMillis();
+        id = ProcessRegistry.register(this);
         outputStream = ffmpeg.getOutputStream();
-        errorStream = ffmpeg.getErrorStream();
-        if (errorStream != null) {
-            byte[] content = IOUtils.toByteArray(errorStream);
-            errorStream = new ByteArrayInputStream(content);
-            errorMsg = IOUtils.toString(new ByteArrayInputStream(content), "utf-8");
+        OutputStream errorCopy = errorSink != null ? new TeeOutputStream(errorTail, errorSink) : errorTail;
+        if (readInputStream) {
+            inputStream = ffmpeg.getInputStream();
+            gobbler = new StreamGobbler("ffmpeg-stderr", ffmpeg.getErrorStream(), errorCopy);
+        } else {
+            errorStream = new TeeInputStream(ffmpeg.getErrorStream(), errorCopy);
+            gobbler = new StreamGobbler("ffmpeg-stdout", ffmpeg.getInputStream(), outputSink);
+        }
+        gobbler.start();
+        if (timeout > 0) {
+            timeoutTask = ProcessWatchdog.schedule(new Runnable() {
+                public void run() {
+                    log.warn("ffmpeg execution exceeded its {}ms timeout, killing it", timeout);
+                    timedOut = true;
+                    kill();
+                }
+            }, timeout);
+        }
+        if (context != null) {
+            context.attach(this);
+        }
+    }
+
+    /**
+     * Kills the ffmpeg execution in progress, if any. The process is asked to
+     * terminate (SIGTERM) and, if still alive after a short grace period,
+     * forcibly destroyed (SIGKILL) by the watchdog thread. The target file of
+     * a killed execution is deleted by {@link FFMPEGExecutor#destroy()}. It
+     * can be called from any thread and does not block.
+     */
+    public void kill() {
+        killed = true;
+        final Process process = ffmpeg;
+        if (process == null) {
+            return;
+        }
+        process.destroy();
+        ProcessWatchdog.schedule(new Runnable() {
+            public void run() {
+                if (process.isAlive()) {
+                    log.warn("ffmpeg process still alive {}ms after SIGTERM, forcibly destroying it", KILL_GRACE_MILLIS);
+                    process.destroyForcibly();
+                }
+            }
+        }, KILL_GRACE_MILLIS);
+    }
+
+    /**
+     * Returns true if the execution exceeded its wall-clock budget. Reliable
+     * only after the end of the process, e.g. after
+     * {@link FFMPEGExecutor#destroy()}.
+     *
+     * @return true if the wall-clock budget was exceeded.
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * Returns true if ffmpeg was stopped because it exceeded its cpu time
+     * budget. Reliable only after the end of the process, e.g. after
+     * {@link FFMPEGExecutor#destroy()}.
+     *
+     * @return true if the cpu time budget was exceeded.
+     */
+    public boolean isCpuTimeExceeded() {
+        return cpuTimeExceeded;
+    }
+
+    /**
+     * Returns true if the execution has been killed before its natural end.
+     *
+     * @return true if the execution has been killed.
+     */
+    public boolean isKilled() {
+        return killed;
+    }
+
+    /**
+     * Waits for the end of the ffmpeg process, draining whatever the caller
+     * left unread on its channel.
+     */
+    private void waitForCompletion() {
+        if (ffmpeg == null) {
+            return;
+        }
+        InputStream unread = readInputStream ? inputStream : errorStream;
+        if (unread != null) {
+            try {
+                byte[] buffer = new byte[8192];
+                while (unread.read(buffer) != -1) {
+                    ;
+                }
+            } catch (IOException e) {
+                ;
+            }
+        }
+        try {
+            if (gobbler != null) {
+                gobbler.join();
+            }
+            ffmpeg.waitFor();
+        } catch (InterruptedException e) {
+            kill();
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -145,10 +456,36 @@ class FFMPEGExecutor {
     }
 
     /**
-     * If there's a ffmpeg execution in progress, it kills it.
+     * Waits for the ffmpeg execution in progress, if any, and releases its
+     * resources. If the calling thread is interrupted while waiting, the
+     * execution is killed.
      */
     public void destroy() {
-        if (args != null || args.size() > 0) {
+        if (destroyed) {
+            return;
+        }
+        destroyed = true;
+        waitForCompletion();
+        if (timeoutTask != null) {
+            timeoutTask.cancel(false);
+            timeoutTask = null;
+        }
+        Process process = ffmpeg;
+        if (process != null && !process.isAlive()) {
+            exitValue = process.exitValue();
+        }
+        try {
+            errorMsg = errorTail.size() > 0 ? errorTail.toString("utf-8") : null;
+        } catch (UnsupportedEncodingException e) {
+            errorMsg = null;
+        }
+        // The processes killed by this executor exit with SIGKILL as well.
+        if (cpuTimeLimit > 0 && !killed && (exitValue == SIGXCPU_EXIT_VALUE || exitValue == SIGKILL_EXIT_VALUE
+                || (exitValue == SIGNAL_EXIT_VALUE && errorMsg != null && errorMsg.contains(SIGXCPU_MESSAGE)))) {
+            cpuTimeExceeded = true;
+            killed = true;
+        }
+        if (args != null && args.size() > 1) {
             int size = args.size();
             String param = (String) args.get(size - 2);
             if (param != null && param != "" && param.equals("-y")) {
@@ -157,6 +494,9 @@ class FFMPEGExecutor {
                     File result = null;
                     String suffix = targetValue.substring(targetValue.lastIndexOf("."));
                     File targetFile = new File(targetValue);
+                    if (killed && targetFile.exists()) {
+                        targetFile.delete();
+                    }
                     if (targetFile.exists()) {
                         targetValue = targetValue.replace(suffix, ".ok");
                         result = new File(targetValue);
@@ -226,12 +566,78 @@ class FFMPEGExecutor {
             ffmpeg.destroy();
             ffmpeg = null;
         }
-        if (ffmpegKiller != null) {
-            Runtime runtime = Runtime.getRuntime();
-            runtime.removeShutdownHook(ffmpegKiller);
-            ffmpegKiller = null;
+        gobbler = null;
+        if (context != null) {
+            context.detach(this);
+        }
+        if (id >= 0) {
+            ProcessRegistry.unregister(id);
         }
+    }
 
+    /**
+     * Returns the id of the execution in the {@link ProcessRegistry}.
+     *
+     * @return The id, or -1 if the process has not been started.
+     */
+    long getId() {
+        return id;
+    }
+
+    /**
+     * Returns the full command line of the execution.
+     *
+     * @return The command line, or null if the process has not been started.
+     */
+    String getCommand() {
+        return command;
+    }
+
+    /**
+     * Returns when the process started.
+     *
+     * @return The start time in millis.
+     */
+    long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Returns the wall-clock budget of the execution.
+     *
+     * @return The budget in millis, 0 for no limit.
+     */
+    long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Returns the exit value of the process. It is available after
+     * {@link FFMPEGExecutor#destroy()}.
+     *
+     * @return The exit value, or -1 if the process has not terminated.
+     */
+    int getExitValue() {
+        return exitValue;
+    }
+
+    /**
+     * Returns the tail of the standard error channel. It is available after
+     * {@link FFMPEGExecutor#destroy()}.
+     *
+     * @return The error output, or null if the process printed none.
+     */
+    String getErrorMessage() {
+        return errorMsg;
+    }
+
+    /**
+     * Returns the running ffmpeg process.
+     *
+     * @return The process, or null if not started or already released.
+     */
+    Process getProcess() {
+        return ffmpeg;
     }
 
 }
@@ -18,6 +18,8 @@
  */
 package it.sauronsoftware.jave;
 
+import java.io.File;
+
 /**
  * Abstract class whose derived concrete instances are used by {@link Encoder}
  * to locate the ffmpeg executable path.
@@ -35,6 +37,36 @@ public abstract class FFMPEGLocator {
 	 */
 	protected abstract String getFFMPEGExecutablePath();
 
+	/**
+	 * This method should return the path of a ffprobe executable suitable for
+	 * the current machine, or null if none is available. The default
+	 * implementation looks for a ffprobe executable in the directory of the
+	 * ffmpeg one, named after it (i.e. ffprobe.exe next to ffmpeg.exe).
+	 * 
+	 * @return The path of the ffprobe executable, or null.
+	 */
+	protected String getFFProbeExecutablePath() {
+		File ffmpeg = new File(getFFMPEGExecutablePath());
+		String name = ffmpeg.getName().replace("ffmpeg", "ffprobe");
+		if (name.equals(ffmpeg.getName())) {
+			return null;
+		}
+		File ffprobe = new File(ffmpeg.getAbsoluteFile().getParentFile(), name);
+		return ffprobe.isFile() ? ffprobe.getAbsolutePath() : null;
+	}
+
+	/**
+	 * It returns a brand new {@link FFMPEGExecutor} calling the ffprobe
+	 * executable, if available.
+	 * 
+	 * @return A newly instanced {@link FFMPEGExecutor} calling ffprobe, or
+	 *         null if this locator cannot find a ffprobe executable.
+	 */
+	FFMPEGExecutor createProbeExecutor() {
+		String path = getFFProbeExecutablePath();
+		return path != null ? new FFMPEGExecutor(path) : null;
+	}
+
 	/**
 	 * It returns a brand new {@link FFMPEGExecutor}, ready to be used in a
 	 * ffmpeg call.
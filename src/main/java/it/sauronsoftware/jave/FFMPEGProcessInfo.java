@@ -0,0 +1,40 @@
+package it.sauronsoftware.jave;
+
+import lombok.Data;
+
+/**
+ * Informations about a live ffmpeg process, see {@link ProcessRegistry#list()}.
+ */
+@Data
+public class FFMPEGProcessInfo {
+
+    /**
+     * The process id in the registry.
+     */
+    private final long id;
+
+    /**
+     * The full command line.
+     */
+    private final String command;
+
+    /**
+     * When the process started, in millis.
+     */
+    private final long startTime;
+
+    /**
+     * The wall-clock budget in millis, 0 for no limit.
+     */
+    private final long timeout;
+
+    /**
+     * Returns how long the process has been running.
+     *
+     * @return The running time in millis.
+     */
+    public long getRunningTime() {
+        return System.currentTimeMillis() - startTime;
+    }
+
+}
@@ -0,0 +1,161 @@
+package it.sauronsoftware.jave;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import it.sauronsoftware.jave.audio.AudioInfo;
+import it.sauronsoftware.jave.video.VideoInfo;
+import it.sauronsoftware.jave.video.VideoSize;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A package-private parser of the ffprobe json output, as printed with the
+ * <code>-print_format json -show_format -show_streams</code> options. Values
+ * are converted to the units used by the ffmpeg output parser: millis for the
+ * durations and kb/s for the bit rates.
+ */
+class FFProbeParser {
+
+    private FFProbeParser() {
+    }
+
+    /**
+     * Parses the ffprobe json output.
+     *
+     * @param json The ffprobe output.
+     * @return A set of informations about the probed file, or null if the
+     * output does not describe a format.
+     */
+    static MultimediaInfo parse(String json) {
+        JSONObject root = JSON.parseObject(json);
+        JSONObject format = root != null ? root.getJSONObject("format") : null;
+        if (format == null) {
+            return null;
+        }
+        MultimediaInfo info = new MultimediaInfo();
+        String formatName = format.getString("format_name");
+        if (formatName != null) {
+            int comma = formatName.indexOf(',');
+            info.setFormat(comma >= 0 ? formatName.substring(0, comma) : formatName);
+        }
+        Double duration = format.getDouble("duration");
+        if (duration != null) {
+            info.setDuration((long) (duration.doubleValue() * 1000));
+        }
+        String creationTime = creationTime(format);
+        if (creationTime != null) {
+            info.setCreationTime(DateUtil.UTCGMT2Date(creationTime));
+        }
+        List<AudioInfo> audioStreams = new ArrayList<AudioInfo>();
+        List<VideoInfo> videoStreams = new ArrayList<VideoInfo>();
+        JSONArray streams = root.getJSONArray("streams");
+        if (streams != null) {
+            for (int i = 0; i < streams.size(); i++) {
+                JSONObject stream = streams.getJSONObject(i);
+                String type = stream.getString("codec_type");
+                if ("audio".equals(type)) {
+                    audioStreams.add(parseAudio(stream));
+                } else if ("video".equals(type)) {
+                    videoStreams.add(parseVideo(stream));
+                }
+            }
+        }
+        if (!audioStreams.isEmpty()) {
+            info.setAudio(audioStreams.get(0));
+        }
+        if (!videoStreams.isEmpty()) {
+            info.setVideo(videoStreams.get(0));
+        }
+        info.setAudioStreams(Collections.unmodifiableList(audioStreams));
+        info.setVideoStreams(Collections.unmodifiableList(videoStreams));
+        return info;
+    }
+
+    private static AudioInfo parseAudio(JSONObject stream) {
+        AudioInfo audio = new AudioInfo();
+        audio.setDecoder(stream.getString("codec_name"));
+        audio.setSamplingRate(intValue(stream, "sample_rate", -1));
+        audio.setChannels(intValue(stream, "channels", -1));
+        audio.setBitRate(bitRate(stream));
+        String creationTime = creationTime(stream);
+        if (creationTime != null) {
+            audio.setCreationTime(DateUtil.UTCGMT2Date(creationTime));
+        }
+        return audio;
+    }
+
+    private static VideoInfo parseVideo(JSONObject stream) {
+        VideoInfo video = new VideoInfo();
+        video.setDecoder(stream.getString("codec_name"));
+        int width = intValue(stream, "width", -1);
+        int height = intValue(stream, "height", -1);
+        if (width > 0 && height > 0) {
+            video.setSize(new VideoSize(width, height));
+        }
+        video.setBitRate(bitRate(stream));
+        float frameRate = rational(stream.getString("avg_frame_rate"));
+        if (frameRate <= 0) {
+            frameRate = rational(stream.getString("r_frame_rate"));
+        }
+        if (frameRate > 0) {
+            video.setFrameRate(frameRate);
+        }
+        String creationTime = creationTime(stream);
+        if (creationTime != null) {
+            video.setCreationTime(DateUtil.UTCGMT2Date(creationTime));
+        }
+        return video;
+    }
+
+    private static String creationTime(JSONObject object) {
+        JSONObject tags = object.getJSONObject("tags");
+        return tags != null ? tags.getString("creation_time") : null;
+    }
+
+    private static int bitRate(JSONObject stream) {
+        long bitRate = longValue(stream, "bit_rate", -1);
+        return bitRate > 0 ? (int) (bitRate / 1000) : -1;
+    }
+
+    private static int intValue(JSONObject object, String key, int defaultValue) {
+        return (int) longValue(object, key, defaultValue);
+    }
+
+    private static long longValue(JSONObject object, String key, long defaultValue) {
+        String value = object.getString(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Parses a ffprobe rational, i.e. "30000/1001".
+     *
+     * @param value The rational.
+     * @return Its value, or -1 if it is missing or undefined ("0/0").
+     */
+    private static float rational(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            int slash = value.indexOf('/');
+            if (slash < 0) {
+                return Float.parseFloat(value);
+            }
+            float den = Float.parseFloat(value.substring(slash + 1));
+            return den != 0 ? Float.parseFloat(value.substring(0, slash)) / den : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+}
@@ -13,6 +13,29 @@ import java.io.File;
 public class IgnoreErrorEncoder extends Encoder {
     private Logger log = LoggerFactory.getLogger(IgnoreErrorEncoder.class);
 
+    /**
+     * 工具类共用的实例，见 {@link IgnoreErrorEncoder#getInstance()}
+     */
+    private static final IgnoreErrorEncoder INSTANCE = new IgnoreErrorEncoder();
+
+    static {
+        // 工具类反复查询同一文件的信息，只探测一次
+        INSTANCE.setInfoCache(new MultimediaInfoCache(1024, 0));
+        // 源文件已符合要求时直接复制或只做流复制，不重新编码
+        INSTANCE.setEncodingPlanning(true);
+        // 剪切时在输入端定位，只重新编码两端不完整的 GOP
+        INSTANCE.setSmartCut(true);
+    }
+
+    /**
+     * 返回共用的实例，AudioUtils/VideoUtils 等工具类通过它执行转换，避免每次调用都创建新的 Encoder
+     *
+     * @return 共用的实例
+     */
+    public static IgnoreErrorEncoder getInstance() {
+        return INSTANCE;
+    }
+
     @Override
     protected void processErrorOutput(EncodingAttributes attributes, BufferedReader errorReader, File source, EncoderProgressListener listener) {
         try {
@@ -0,0 +1,151 @@
+package it.sauronsoftware.jave;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A package-private handle on the ffmpeg processes spawned by one logical
+ * job. It is bound to the thread running the job, and every
+ * {@link FFMPEGExecutor} built on that thread attaches to it, so the job can
+ * be cancelled from another thread.
+ */
+class JobContext {
+
+    /**
+     * The context bound to the current thread.
+     */
+    private static final ThreadLocal<JobContext> CURRENT = new ThreadLocal<JobContext>();
+
+    /**
+     * The running executors of the job.
+     */
+    private final List<FFMPEGExecutor> executors = new CopyOnWriteArrayList<FFMPEGExecutor>();
+
+    /**
+     * True if the job has been cancelled.
+     */
+    private volatile boolean cancelled = false;
+
+    /**
+     * The job this one is a part of, or null.
+     */
+    private final JobContext parent;
+
+    /**
+     * The parts of the job, cancelled with it.
+     */
+    private final List<JobContext> children = new CopyOnWriteArrayList<JobContext>();
+
+    JobContext() {
+        this(null);
+    }
+
+    /**
+     * It builds the context of a part of a job, cancelled with the job. It
+     * must be closed when the part ends.
+     *
+     * @param parent The context of the job, or null.
+     */
+    JobContext(JobContext parent) {
+        this.parent = parent;
+        if (parent != null) {
+            parent.children.add(this);
+            if (parent.isCancelled()) {
+                cancelled = true;
+            }
+        }
+    }
+
+    /**
+     * Detaches the context of a part of a job from the job.
+     */
+    void close() {
+        if (parent != null) {
+            parent.children.remove(this);
+        }
+    }
+
+    /**
+     * Returns the context bound to the current thread.
+     *
+     * @return The current context, or null if the thread is not running a job.
+     */
+    static JobContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Binds a context to the current thread.
+     *
+     * @param context The context.
+     * @return The context previously bound, to be restored with
+     * {@link JobContext#exit(JobContext)}.
+     */
+    static JobContext enter(JobContext context) {
+        JobContext previous = CURRENT.get();
+        CURRENT.set(context);
+        return previous;
+    }
+
+    /**
+     * Restores the context bound before {@link JobContext#enter(JobContext)}.
+     *
+     * @param previous The previous context.
+     */
+    static void exit(JobContext previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Attaches a started executor. If the job was already cancelled the
+     * executor is killed.
+     *
+     * @param executor The executor.
+     */
+    void attach(FFMPEGExecutor executor) {
+        executors.add(executor);
+        if (isCancelled()) {
+            executor.kill();
+        }
+    }
+
+    /**
+     * Detaches a terminated executor.
+     *
+     * @param executor The executor.
+     */
+    void detach(FFMPEGExecutor executor) {
+        executors.remove(executor);
+    }
+
+    /**
+     * Returns true if the job has been cancelled.
+     *
+     * @return true if the job has been cancelled.
+     */
+    boolean isCancelled() {
+        return cancelled || (parent != null && parent.isCancelled());
+    }
+
+    /**
+     * Cancels the job. Executors not yet started will refuse to start.
+     *
+     * @param kill If true the running ffmpeg processes are killed too.
+     */
+    void cancel(boolean kill) {
+        cancelled = true;
+        if (kill) {
+            for (FFMPEGExecutor executor : executors) {
+                executor.kill();
+            }
+        }
+        for (JobContext child : children) {
+            child.cancel(kill);
+        }
+    }
+
+}
@@ -0,0 +1,501 @@
+package it.sauronsoftware.jave;
+
+import it.sauronsoftware.jave.audio.AudioInfo;
+import it.sauronsoftware.jave.video.VideoInfo;
+import it.sauronsoftware.jave.video.VideoSize;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+
+/**
+ * A persistent catalog of the {@link MultimediaInfo} of many files, see
+ * {@link Encoder#setCatalog(MediaCatalog)}. It is a single file of fixed-width
+ * records, memory mapped, and it is itself an open-addressing hash table
+ * keyed by a 64 bit hash of the canonical path: opening it costs no parsing,
+ * whatever its size. A record is valid as long as the size and last
+ * modification time of its file do not change.
+ * <p>
+ * Only the files with at most one audio and one video stream are stored,
+ * so a stored record holds all their streams; names longer than their fields
+ * are truncated. The file is used by one catalog at a time: opening it
+ * takes an exclusive lock on a ".lock" file next to it, released by
+ * {@link MediaCatalog#close()}.
+ */
+public class MediaCatalog implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(MediaCatalog.class);
+
+    private static final long MAGIC = 0x4A41564543415431L; // "JAVECAT1"
+
+    private static final int VERSION = 2;
+
+    /*
+     * The header layout.
+     */
+    private static final int HEADER_SIZE = 64;
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 8;
+    private static final int H_CAPACITY = 12;
+    private static final int H_COUNT = 16;
+    private static final int H_TOMBSTONES = 20;
+
+    /*
+     * The record layout.
+     */
+    private static final int RECORD_SIZE = 176;
+    private static final int R_HASH = 0;
+    private static final int R_SIZE = 8;
+    private static final int R_MODIFIED = 16;
+    private static final int R_DURATION = 24;
+    private static final int R_CREATION = 32;
+    private static final int R_FLAGS = 40;
+    private static final int R_SAMPLING_RATE = 44;
+    private static final int R_CHANNELS = 48;
+    private static final int R_AUDIO_BIT_RATE = 52;
+    private static final int R_WIDTH = 56;
+    private static final int R_HEIGHT = 60;
+    private static final int R_FRAME_RATE = 64;
+    private static final int R_VIDEO_BIT_RATE = 68;
+    private static final int R_FORMAT = 72;
+    private static final int R_AUDIO_DECODER = 96;
+    private static final int R_VIDEO_DECODER = 128;
+    private static final int R_AUDIO_CREATION = 160;
+    private static final int R_VIDEO_CREATION = 168;
+    private static final int FORMAT_LENGTH = 24;
+    private static final int DECODER_LENGTH = 32;
+
+    private static final int F_AUDIO = 1;
+    private static final int F_VIDEO = 2;
+    private static final int F_VIDEO_SIZE = 4;
+
+    /*
+     * The hash values marking free slots.
+     */
+    private static final long EMPTY = 0;
+    private static final long TOMBSTONE = 1;
+
+    /**
+     * The largest capacity whose file can be mapped at once.
+     */
+    private static final int MAX_CAPACITY = 1 << 23;
+
+    private final File file;
+
+    /**
+     * The channel holding the lock of the catalog, open until it is closed.
+     */
+    private final FileChannel lockChannel;
+
+    private FileLock lock;
+
+    private MappedByteBuffer buffer;
+
+    private int capacity;
+
+    private int count;
+
+    private int tombstones;
+
+    /**
+     * It opens a catalog, creating it if the file does not exist.
+     *
+     * @param file The catalog file.
+     * @throws IOException If the file cannot be read or is not a catalog.
+     */
+    public MediaCatalog(File file) throws IOException {
+        this(file, 1 << 16);
+    }
+
+    /**
+     * It opens a catalog, creating it with the given capacity if the file does
+     * not exist. The capacity doubles when the catalog is 70% full.
+     *
+     * @param file            The catalog file.
+     * @param initialCapacity The number of records of a new catalog.
+     * @throws IOException If the file cannot be read, is not a catalog, or
+     *                     is used by another catalog.
+     */
+    public MediaCatalog(File file, int initialCapacity) throws IOException {
+        this.file = file.getAbsoluteFile();
+        this.file.getParentFile().mkdirs();
+        // A separate file: the catalog file is replaced when it grows.
+        lockChannel = FileChannel.open(new File(this.file.getPath() + ".lock").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException(this.file + " is used by another media catalog");
+        }
+        try {
+            open(initialCapacity);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void open(int initialCapacity) throws IOException {
+        if (file.isFile() && file.length() > 0) {
+            buffer = map(file, -1);
+            if (buffer.getLong(H_MAGIC) != MAGIC) {
+                throw new IOException(file + " is not a media catalog");
+            }
+            if (buffer.getInt(H_VERSION) == VERSION) {
+                capacity = buffer.getInt(H_CAPACITY);
+                count = buffer.getInt(H_COUNT);
+                tombstones = buffer.getInt(H_TOMBSTONES);
+                return;
+            }
+            // A catalog of another version: its records are probed again.
+            log.info("media catalog " + file + " has another version, recreated");
+        }
+        int size = Integer.highestOneBit(Math.max(16, Math.min(MAX_CAPACITY, initialCapacity)) * 2 - 1);
+        create(file, size);
+        buffer = map(file, -1);
+        capacity = size;
+        count = 0;
+        tombstones = 0;
+    }
+
+    private static void create(File file, int capacity) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // Clears the records of a replaced catalog.
+            raf.setLength(0);
+            raf.setLength(HEADER_SIZE + (long) capacity * RECORD_SIZE);
+            raf.writeLong(MAGIC);
+            raf.writeInt(VERSION);
+            raf.writeInt(capacity);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static MappedByteBuffer map(File file, long size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            // The mapping stays valid after the channel is closed.
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size >= 0 ? size : channel.size());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the catalogued informations about a file.
+     *
+     * @param source The file.
+     * @return The informations, or null if the file is not catalogued or has
+     * changed since.
+     */
+    public synchronized MultimediaInfo get(File source) {
+        long hash = hash(source);
+        int slot = find(hash);
+        if (slot < 0) {
+            return null;
+        }
+        int offset = offset(slot);
+        if (buffer.getLong(offset + R_SIZE) != source.length() || buffer.getLong(offset + R_MODIFIED) != source.lastModified()) {
+            return null;
+        }
+        return read(offset);
+    }
+
+    /**
+     * Catalogs the informations about a file, replacing the previous ones. A
+     * file with many audio or video streams is not catalogued.
+     *
+     * @param source The file.
+     * @param info   The informations.
+     */
+    public synchronized void put(File source, MultimediaInfo info) {
+        if (info.getAudioStreams().size() > 1 || info.getVideoStreams().size() > 1) {
+            remove(source);
+            return;
+        }
+        long hash = hash(source);
+        int slot = find(hash);
+        if (slot < 0) {
+            if ((count + tombstones + 1) * 10L > capacity * 7L && !grow()) {
+                log.warn("media catalog " + file + " is full, " + source + " not catalogued");
+                return;
+            }
+            slot = free(hash);
+            if (buffer.getLong(offset(slot) + R_HASH) == TOMBSTONE) {
+                tombstones--;
+            }
+            count++;
+            writeCounts();
+        }
+        write(offset(slot), hash, source.length(), source.lastModified(), info);
+    }
+
+    /**
+     * Removes a file from the catalog.
+     *
+     * @param source The file.
+     */
+    public synchronized void remove(File source) {
+        int slot = find(hash(source));
+        if (slot >= 0) {
+            buffer.putLong(offset(slot) + R_HASH, TOMBSTONE);
+            count--;
+            tombstones++;
+            writeCounts();
+        }
+    }
+
+    /**
+     * Returns the number of catalogued files.
+     *
+     * @return The number of files.
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Writes the pending changes to the disk.
+     */
+    public synchronized void flush() {
+        buffer.force();
+    }
+
+    /**
+     * Writes the pending changes to the disk and releases the lock of the
+     * catalog. The catalog must not be used afterwards.
+     */
+    public synchronized void close() {
+        if (buffer != null) {
+            buffer.force();
+        }
+        try {
+            if (lock != null) {
+                lock.release();
+                lock = null;
+            }
+            lockChannel.close();
+        } catch (IOException e) {
+            log.warn("cannot release the lock of media catalog " + file, e);
+        }
+    }
+
+    private int offset(int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+    private void writeCounts() {
+        buffer.putInt(H_COUNT, count);
+        buffer.putInt(H_TOMBSTONES, tombstones);
+    }
+
+    /**
+     * Returns the slot of the record with the given hash, or -1.
+     */
+    private int find(long hash) {
+        int mask = capacity - 1;
+        for (int slot = index(hash, mask); ; slot = (slot + 1) & mask) {
+            long current = buffer.getLong(offset(slot) + R_HASH);
+            if (current == hash) {
+                return slot;
+            }
+            if (current == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Returns the first free slot for a new record with the given hash.
+     */
+    private int free(long hash) {
+        int mask = capacity - 1;
+        for (int slot = index(hash, mask); ; slot = (slot + 1) & mask) {
+            long current = buffer.getLong(offset(slot) + R_HASH);
+            if (current == EMPTY || current == TOMBSTONE) {
+                return slot;
+            }
+        }
+    }
+
+    private static int index(long hash, int mask) {
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * Doubles the capacity, rehashing the records into a new file which then
+     * replaces the current one.
+     *
+     * @return false if the catalog cannot grow.
+     */
+    private boolean grow() {
+        int newCapacity = tombstones > count ? capacity : capacity * 2;
+        if (newCapacity > MAX_CAPACITY) {
+            return false;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            create(tmp, newCapacity);
+            MappedByteBuffer target = map(tmp, -1);
+            int mask = newCapacity - 1;
+            byte[] record = new byte[RECORD_SIZE];
+            for (int slot = 0; slot < capacity; slot++) {
+                int offset = offset(slot);
+                long hash = buffer.getLong(offset + R_HASH);
+                if (hash == EMPTY || hash == TOMBSTONE) {
+                    continue;
+                }
+                int newSlot = index(hash, mask);
+                while (target.getLong(offset(newSlot) + R_HASH) != EMPTY) {
+                    newSlot = (newSlot + 1) & mask;
+                }
+                buffer.position(offset);
+                buffer.get(record);
+                target.position(offset(newSlot));
+                target.put(record);
+            }
+            target.putInt(H_COUNT, count);
+            target.putInt(H_TOMBSTONES, 0);
+            target.force();
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            buffer = target;
+            capacity = newCapacity;
+            tombstones = 0;
+            return true;
+        } catch (IOException e) {
+            log.warn("cannot grow media catalog " + file, e);
+            tmp.delete();
+            return false;
+        }
+    }
+
+    private void write(int offset, long hash, long size, long modified, MultimediaInfo info) {
+        AudioInfo audio = info.getAudio();
+        VideoInfo video = info.getVideo();
+        VideoSize videoSize = video != null ? video.getSize() : null;
+        int flags = (audio != null ? F_AUDIO : 0) | (video != null ? F_VIDEO : 0) | (videoSize != null ? F_VIDEO_SIZE : 0);
+        // The hash goes last, so a torn record is never found.
+        buffer.putLong(offset + R_HASH, TOMBSTONE);
+        buffer.putLong(offset + R_SIZE, size);
+        buffer.putLong(offset + R_MODIFIED, modified);
+        buffer.putLong(offset + R_DURATION, info.getDuration());
+        buffer.putLong(offset + R_CREATION, info.getCreationTime() != null ? info.getCreationTime().getTime() : Long.MIN_VALUE);
+        buffer.putInt(offset + R_FLAGS, flags);
+        buffer.putInt(offset + R_SAMPLING_RATE, audio != null ? audio.getSamplingRate() : -1);
+        buffer.putInt(offset + R_CHANNELS, audio != null ? audio.getChannels() : -1);
+        buffer.putInt(offset + R_AUDIO_BIT_RATE, audio != null ? audio.getBitRate() : -1);
+        buffer.putInt(offset + R_WIDTH, videoSize != null ? videoSize.getWidth() : -1);
+        buffer.putInt(offset + R_HEIGHT, videoSize != null ? videoSize.getHeight() : -1);
+        buffer.putFloat(offset + R_FRAME_RATE, video != null ? video.getFrameRate() : -1);
+        buffer.putInt(offset + R_VIDEO_BIT_RATE, video != null ? video.getBitRate() : -1);
+        putString(offset + R_FORMAT, FORMAT_LENGTH, info.getFormat());
+        putString(offset + R_AUDIO_DECODER, DECODER_LENGTH, audio != null ? audio.getDecoder() : null);
+        putString(offset + R_VIDEO_DECODER, DECODER_LENGTH, video != null ? video.getDecoder() : null);
+        buffer.putLong(offset + R_AUDIO_CREATION, audio != null && audio.getCreationTime() != null ? audio.getCreationTime().getTime() : Long.MIN_VALUE);
+        buffer.putLong(offset + R_VIDEO_CREATION, video != null && video.getCreationTime() != null ? video.getCreationTime().getTime() : Long.MIN_VALUE);
+        buffer.putLong(offset + R_HASH, hash);
+    }
+
+    private MultimediaInfo read(int offset) {
+        MultimediaInfo info = new MultimediaInfo();
+        int flags = buffer.getInt(offset + R_FLAGS);
+        info.setFormat(getString(offset + R_FORMAT, FORMAT_LENGTH));
+        info.setDuration(buffer.getLong(offset + R_DURATION));
+        info.setCreationTime(getDate(offset + R_CREATION));
+        if ((flags & F_AUDIO) != 0) {
+            AudioInfo audio = new AudioInfo();
+            audio.setDecoder(getString(offset + R_AUDIO_DECODER, DECODER_LENGTH));
+            audio.setSamplingRate(buffer.getInt(offset + R_SAMPLING_RATE));
+            audio.setChannels(buffer.getInt(offset + R_CHANNELS));
+            audio.setBitRate(buffer.getInt(offset + R_AUDIO_BIT_RATE));
+            audio.setCreationTime(getDate(offset + R_AUDIO_CREATION));
+            info.setAudio(audio);
+        }
+        if ((flags & F_VIDEO) != 0) {
+            VideoInfo video = new VideoInfo();
+            video.setDecoder(getString(offset + R_VIDEO_DECODER, DECODER_LENGTH));
+            if ((flags & F_VIDEO_SIZE) != 0) {
+                video.setSize(new VideoSize(buffer.getInt(offset + R_WIDTH), buffer.getInt(offset + R_HEIGHT)));
+            }
+            video.setFrameRate(buffer.getFloat(offset + R_FRAME_RATE));
+            video.setBitRate(buffer.getInt(offset + R_VIDEO_BIT_RATE));
+            video.setCreationTime(getDate(offset + R_VIDEO_CREATION));
+            info.setVideo(video);
+        }
+        return info;
+    }
+
+    private Date getDate(int offset) {
+        long time = buffer.getLong(offset);
+        return time != Long.MIN_VALUE ? new Date(time) : null;
+    }
+
+    private void putString(int offset, int length, String value) {
+        byte[] bytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        if (bytes.length > length) {
+            // Truncate on a character boundary.
+            int end = length;
+            while (end > 0 && (bytes[end] & 0xC0) == 0x80) {
+                end--;
+            }
+            byte[] truncated = new byte[end];
+            System.arraycopy(bytes, 0, truncated, 0, end);
+            bytes = truncated;
+        }
+        for (int i = 0; i < length; i++) {
+            buffer.put(offset + i, i < bytes.length ? bytes[i] : 0);
+        }
+    }
+
+    private String getString(int offset, int length) {
+        int end = 0;
+        while (end < length && buffer.get(offset + end) != 0) {
+            end++;
+        }
+        if (end == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[end];
+        for (int i = 0; i < end; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the 64 bit FNV-1a hash of the canonical path of a file, never
+     * equal to the free slot markers.
+     */
+    private static long hash(File source) {
+        String path;
+        try {
+            path = source.getCanonicalPath();
+        } catch (IOException e) {
+            path = source.getAbsolutePath();
+        }
+        long hash = 0xcbf29ce484222325L;
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        for (byte b : bytes) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash == EMPTY || hash == TOMBSTONE ? hash + 2 : hash;
+    }
+
+}
@@ -19,9 +19,14 @@
 package it.sauronsoftware.jave;
 
 import it.sauronsoftware.jave.audio.AudioInfo;
+import it.sauronsoftware.jave.audio.VolumedetectInfo;
 import it.sauronsoftware.jave.video.VideoInfo;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
 
 /**
  * Instances of this class report informations about a decoded multimedia file.
@@ -58,6 +63,18 @@ public class MultimediaInfo {
      */
     private VideoInfo video = null;
 
+    /**
+     * All the audio streams of the multimedia file, in order. Only the ffprobe
+     * backend lists them; otherwise it is null.
+     */
+    private List<AudioInfo> audioStreams = null;
+
+    /**
+     * All the video streams of the multimedia file, in order. Only the ffprobe
+     * backend lists them; otherwise it is null.
+     */
+    private List<VideoInfo> videoStreams = null;
+
     /**
      * Returns the multimedia file format name.
      *
@@ -134,6 +151,50 @@ public class MultimediaInfo {
         this.video = video;
     }
 
+    /**
+     * Returns all the audio streams of the multimedia file, in order. The first
+     * one is {@link MultimediaInfo#getAudio()}.
+     *
+     * @return The audio streams, empty if there are none.
+     */
+    public List<AudioInfo> getAudioStreams() {
+        if (audioStreams != null) {
+            return audioStreams;
+        }
+        return audio != null ? Collections.singletonList(audio) : Collections.<AudioInfo>emptyList();
+    }
+
+    /**
+     * Sets all the audio streams of the multimedia file.
+     *
+     * @param audioStreams The audio streams.
+     */
+    void setAudioStreams(List<AudioInfo> audioStreams) {
+        this.audioStreams = audioStreams;
+    }
+
+    /**
+     * Returns all the video streams of the multimedia file, in order. The first
+     * one is {@link MultimediaInfo#getVideo()}.
+     *
+     * @return The video streams, empty if there are none.
+     */
+    public List<VideoInfo> getVideoStreams() {
+        if (videoStreams != null) {
+            return videoStreams;
+        }
+        return video != null ? Collections.singletonList(video) : Collections.<VideoInfo>emptyList();
+    }
+
+    /**
+     * Sets all the video streams of the multimedia file.
+     *
+     * @param videoStreams The video streams.
+     */
+    void setVideoStreams(List<VideoInfo> videoStreams) {
+        this.videoStreams = videoStreams;
+    }
+
     public Date getCreationTime() {
         return creationTime;
     }
@@ -142,6 +203,74 @@ public class MultimediaInfo {
         this.creationTime = creationTime;
     }
 
+    /**
+     * Returns a deep copy of these informations, so a caller changing what it
+     * got back does not change the instance kept by a cache.
+     *
+     * @return The copy.
+     */
+    MultimediaInfo copy() {
+        MultimediaInfo copy = new MultimediaInfo();
+        copy.format = format;
+        copy.duration = duration;
+        copy.creationTime = copy(creationTime);
+        copy.audio = copy(audio);
+        copy.video = copy(video);
+        if (audioStreams != null) {
+            copy.audioStreams = new ArrayList<AudioInfo>(audioStreams.size());
+            for (AudioInfo stream : audioStreams) {
+                copy.audioStreams.add(stream == audio ? copy.audio : copy(stream));
+            }
+        }
+        if (videoStreams != null) {
+            copy.videoStreams = new ArrayList<VideoInfo>(videoStreams.size());
+            for (VideoInfo stream : videoStreams) {
+                copy.videoStreams.add(stream == video ? copy.video : copy(stream));
+            }
+        }
+        return copy;
+    }
+
+    private static Date copy(Date date) {
+        return date != null ? new Date(date.getTime()) : null;
+    }
+
+    private static AudioInfo copy(AudioInfo audio) {
+        if (audio == null) {
+            return null;
+        }
+        AudioInfo copy = new AudioInfo();
+        copy.setDecoder(audio.getDecoder());
+        copy.setSamplingRate(audio.getSamplingRate());
+        copy.setChannels(audio.getChannels());
+        copy.setBitRate(audio.getBitRate());
+        copy.setCreationTime(copy(audio.getCreationTime()));
+        VolumedetectInfo volumedetect = audio.getVolumedetect();
+        if (volumedetect != null) {
+            VolumedetectInfo volumedetectCopy = new VolumedetectInfo();
+            volumedetectCopy.setMeanVolume(volumedetect.getMeanVolume());
+            volumedetectCopy.setMaxVolume(volumedetect.getMaxVolume());
+            if (volumedetect.getHistogramMap() != null) {
+                volumedetectCopy.setHistogramMap(new LinkedHashMap<String, String>(volumedetect.getHistogramMap()));
+            }
+            copy.setVolumedetect(volumedetectCopy);
+        }
+        return copy;
+    }
+
+    private static VideoInfo copy(VideoInfo video) {
+        if (video == null) {
+            return null;
+        }
+        VideoInfo copy = new VideoInfo();
+        copy.setDecoder(video.getDecoder());
+        copy.setSize(video.getSize());
+        copy.setBitRate(video.getBitRate());
+        copy.setFrameRate(video.getFrameRate());
+        copy.setCreationTime(copy(video.getCreationTime()));
+        return copy;
+    }
+
     @Override
     public String toString() {
         return "MultimediaInfo{" +
@@ -0,0 +1,206 @@
+package it.sauronsoftware.jave;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of the {@link MultimediaInfo} probed by an {@link Encoder}, see
+ * {@link Encoder#setInfoCache(MultimediaInfoCache)}. Entries are keyed by the
+ * canonical path, size and last modification time of the source, so a
+ * modified file is probed again. The least recently used entries are evicted
+ * beyond the maximum size, and entries older than the time to live are probed
+ * again. Copies are stored and returned, so a caller modifying what it got
+ * back does not change the later lookups.
+ */
+public class MultimediaInfoCache {
+
+    /**
+     * The maximum number of entries.
+     */
+    private final int maxEntries;
+
+    /**
+     * The time to live of the entries in millis, 0 for no limit.
+     */
+    private final long ttl;
+
+    /**
+     * The entries, in access order.
+     */
+    private final LinkedHashMap<String, CachedInfo> entries;
+
+    private long hitCount = 0;
+
+    private long missCount = 0;
+
+    private long evictionCount = 0;
+
+    /**
+     * It builds a cache.
+     *
+     * @param maxEntries The maximum number of entries.
+     * @param ttl        The time to live of the entries in millis, 0 for no
+     *                   limit.
+     */
+    public MultimediaInfoCache(int maxEntries, long ttl) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1");
+        }
+        if (ttl < 0) {
+            throw new IllegalArgumentException("ttl must not be negative");
+        }
+        this.maxEntries = maxEntries;
+        this.ttl = ttl;
+        this.entries = new LinkedHashMap<String, CachedInfo>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedInfo> eldest) {
+                if (size() > MultimediaInfoCache.this.maxEntries) {
+                    evictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cache key of a source file.
+     *
+     * @param source The source file.
+     * @return The key.
+     */
+    static String key(File source) {
+        return path(source) + "|" + source.length() + "|" + source.lastModified();
+    }
+
+    private static String path(File source) {
+        try {
+            return source.getCanonicalPath();
+        } catch (IOException e) {
+            return source.getAbsolutePath();
+        }
+    }
+
+    /**
+     * Returns the cached informations about a source file.
+     *
+     * @param source The source file.
+     * @return The informations, or null if they must be probed.
+     */
+    public MultimediaInfo get(File source) {
+        return get(key(source));
+    }
+
+    synchronized MultimediaInfo get(String key) {
+        CachedInfo entry = entries.get(key);
+        if (entry != null && ttl > 0 && System.currentTimeMillis() - entry.time > ttl) {
+            entries.remove(key);
+            evictionCount++;
+            entry = null;
+        }
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry.info.copy();
+    }
+
+    /**
+     * Caches the informations about a source file.
+     *
+     * @param source The source file.
+     * @param info   The informations.
+     */
+    public void put(File source, MultimediaInfo info) {
+        put(key(source), info);
+    }
+
+    synchronized void put(String key, MultimediaInfo info) {
+        entries.put(key, new CachedInfo(info.copy(), System.currentTimeMillis()));
+    }
+
+    /**
+     * Drops the informations about a source file.
+     *
+     * @param source The source file.
+     */
+    public synchronized void invalidate(File source) {
+        String prefix = path(source) + "|";
+        // Drop the entries of the previous versions of the file too.
+        for (Iterator<String> i = entries.keySet().iterator(); i.hasNext(); ) {
+            if (i.next().startsWith(prefix)) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops all the cached informations.
+     */
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * Returns the number of cached entries.
+     *
+     * @return The number of entries.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of lookups answered by the cache.
+     *
+     * @return The hit count.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of lookups which required a probe.
+     *
+     * @return The miss count.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the number of entries evicted by the size bound or expired.
+     *
+     * @return The eviction count.
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MultimediaInfoCache{" +
+                "size=" + entries.size() +
+                ", hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                ", evictionCount=" + evictionCount +
+                '}';
+    }
+
+    private static class CachedInfo {
+
+        private final MultimediaInfo info;
+
+        private final long time;
+
+        CachedInfo(MultimediaInfo info, long time) {
+            this.info = info;
+            this.time = time;
+        }
+    }
+
+}
@@ -0,0 +1,420 @@
+package it.sauronsoftware.jave;
+
+import it.sauronsoftware.jave.audio.AudioInfo;
+import it.sauronsoftware.jave.audio.VolumedetectInfo;
+import it.sauronsoftware.jave.video.VideoInfo;
+import it.sauronsoftware.jave.video.VideoSize;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.StringTokenizer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A package-private parser of the informations ffmpeg prints about its
+ * inputs. It is a single pass, line-oriented state machine: every line is
+ * tested with cheap prefix checks, and the few regexps still needed are
+ * compiled once and only run on the lines passing them.
+ */
+class MultimediaInfoParser {
+
+    /**
+     * This regexp is used to parse the ffmpeg output about the size of a video
+     * stream.
+     */
+    private static final Pattern SIZE_PATTERN = Pattern.compile("(\\d+)x(\\d+)", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * This regexp is used to parse the ffmpeg output about the frame rate value
+     * of a video stream.
+     */
+    private static final Pattern FRAME_RATE_PATTERN = Pattern.compile("([\\d.]+)\\s+(?:fps|tb\\(r\\))", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * This regexp is used to parse the ffmpeg output about the bit rate value
+     * of a stream.
+     */
+    private static final Pattern BIT_RATE_PATTERN = Pattern.compile("(\\d+)\\s+kb/s", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * This regexp is used to parse the ffmpeg output about the sampling rate of
+     * an audio stream.
+     */
+    private static final Pattern SAMPLING_RATE_PATTERN = Pattern.compile("(\\d+)\\s+Hz", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * This regexp is used to parse the ffmpeg output about the channels number
+     * of an audio stream.
+     */
+    private static final Pattern CHANNELS_PATTERN = Pattern.compile("(mono|stereo)", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * The prefix of the lines printed by the volumedetect filter.
+     */
+    private static final String VOLUMEDETECT_PREFIX = "[Parsed_volumedetect_0 @ ";
+
+    /**
+     * This regexp is used to parse the lines printed by the volumedetect
+     * filter.
+     */
+    private static final Pattern VOLUMEDETECT_PATTERN = Pattern.compile("(\\[Parsed_volumedetect_0 @ )(\\w*)\\] ([a-z_A-Z]*)(\\d*)([a-zA-Z: ]*)([-.\\d]*)", Pattern.CASE_INSENSITIVE);
+
+    private static final String DURATION_PREFIX = "Duration: ";
+
+    private static final String STREAM_PREFIX = "Stream #";
+
+    private static final String CREATION_TIME = "creation_time";
+
+    /**
+     * The parser steps.
+     */
+    private static final int STEP_INPUT = 0;
+    private static final int STEP_DURATION = 1;
+    private static final int STEP_STREAMS = 2;
+    private static final int STEP_DONE = 3;
+
+    /**
+     * The kinds of entry a creation_time line refers to.
+     */
+    private static final int ENTRY_NONE = 0;
+    private static final int ENTRY_METADATA = 1;
+    private static final int ENTRY_VIDEO = 2;
+    private static final int ENTRY_AUDIO = 3;
+
+    private MultimediaInfoParser() {
+    }
+
+    /**
+     * Parses the ffmpeg output, extracting informations about the source
+     * multimedia file given as the input of the given index.
+     *
+     * @param source The source multimedia file.
+     * @param reader The ffmpeg output channel.
+     * @param input  The index of the source among the ffmpeg inputs.
+     * @return A set of informations about the source multimedia file and its
+     * contents.
+     * @throws InputFormatException If the format of the source file cannot be recognized and
+     *                              decoded.
+     * @throws EncoderException     If a problem occurs reading the ffmpeg output.
+     */
+    static MultimediaInfo parse(File source, RBufferedReader reader, int input) throws InputFormatException, EncoderException {
+        String errorPrefix = source.getAbsolutePath() + ": ";
+        String inputPrefix = "Input #" + input + ", ";
+        MultimediaInfo info = null;
+        VideoInfo video = new VideoInfo();
+        AudioInfo audio = new AudioInfo();
+        boolean videoInfo = false;
+        boolean audioInfo = false;
+        // creation_time lines belong to the last metadata, video or audio entry.
+        int creationCount = 0;
+        int lastEntry = ENTRY_NONE;
+        String metadataCreation = null;
+        String videoCreation = null;
+        String audioCreation = null;
+        int step = STEP_INPUT;
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int start = skipSpaces(line);
+                if (step == STEP_INPUT) {
+                    if (line.startsWith(errorPrefix)) {
+                        throw new InputFormatException(line.substring(errorPrefix.length()));
+                    }
+                    String format = parseFormat(line, start, inputPrefix);
+                    if (format != null) {
+                        info = new MultimediaInfo();
+                        info.setFormat(format);
+                        lastEntry = ENTRY_METADATA;
+                        step = STEP_DURATION;
+                    }
+                }
+                if (step == STEP_DURATION) {
+                    long duration = parseDuration(line, start);
+                    if (duration >= 0) {
+                        info.setDuration(duration);
+                        step = STEP_STREAMS;
+                    }
+                }
+                if (step == STEP_STREAMS) {
+                    if (line.regionMatches(true, start, STREAM_PREFIX, 0, STREAM_PREFIX.length())) {
+                        int specs = streamSpecs(line, start + STREAM_PREFIX.length(), "Video: ");
+                        if (specs >= 0) {
+                            parseVideo(line.substring(specs), video);
+                            info.setVideo(video);
+                            videoInfo = true;
+                            lastEntry = ENTRY_VIDEO;
+                            videoCreation = null;
+                        } else {
+                            specs = streamSpecs(line, start + STREAM_PREFIX.length(), "Audio: ");
+                            if (specs >= 0) {
+                                parseAudio(line.substring(specs), audio);
+                                info.setAudio(audio);
+                                audioInfo = true;
+                                lastEntry = ENTRY_AUDIO;
+                                audioCreation = null;
+                            }
+                        }
+                    }
+                    if (audioInfo && videoInfo && creationCount == 3) {
+                        step = STEP_DONE;
+                        if (metadataCreation != null) {
+                            info.setCreationTime(DateUtil.UTCGMT2Date(metadataCreation));
+                        }
+                        if (videoCreation != null) {
+                            video.setCreationTime(DateUtil.UTCGMT2Date(videoCreation));
+                        }
+                        if (audioCreation != null) {
+                            audio.setCreationTime(DateUtil.UTCGMT2Date(audioCreation));
+                        }
+                    }
+                }
+                if (lastEntry != ENTRY_NONE && line.indexOf(CREATION_TIME, start) >= 0) {
+                    String value = creationTime(line);
+                    if (value != null) {
+                        creationCount++;
+                        if (lastEntry == ENTRY_METADATA) {
+                            metadataCreation = metadataCreation == null ? value : metadataCreation + value;
+                        } else if (lastEntry == ENTRY_VIDEO) {
+                            videoCreation = videoCreation == null ? value : videoCreation + value;
+                        } else {
+                            audioCreation = audioCreation == null ? value : audioCreation + value;
+                        }
+                    }
+                }
+                if (line.indexOf(VOLUMEDETECT_PREFIX) >= 0 && !parseVolumedetect(line, audio)) {
+                    continue;
+                }
+                if (step == STEP_DONE) {
+                    reader.reinsertLine(line);
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new EncoderException(e);
+        }
+        if (info == null) {
+            throw new InputFormatException();
+        }
+        return info;
+    }
+
+    /**
+     * Returns the index of the first character of a line which is not a
+     * whitespace, as matched by <code>\s</code>.
+     */
+    static int skipSpaces(String line) {
+        int i = 0;
+        int length = line.length();
+        while (i < length && isSpace(line.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    private static boolean isDigit(String line, int i) {
+        char c = line.charAt(i);
+        return c >= '0' && c <= '9';
+    }
+
+    private static int digit(String line, int i) {
+        return line.charAt(i) - '0';
+    }
+
+    /**
+     * Parses an "Input #n, format, from 'file':" line.
+     *
+     * @return The format name, or null if the line does not introduce the
+     * wanted input.
+     */
+    private static String parseFormat(String line, int start, String inputPrefix) {
+        if (!line.regionMatches(true, start, inputPrefix, 0, inputPrefix.length())) {
+            return null;
+        }
+        int begin = start + inputPrefix.length();
+        int end = begin;
+        int length = line.length();
+        while (end < length && isWordChar(line.charAt(end))) {
+            end++;
+        }
+        if (end == length) {
+            // The name must be followed by something.
+            end--;
+        }
+        return end > begin ? line.substring(begin, end) : null;
+    }
+
+    /**
+     * Parses a "Duration: hh:mm:ss.d..." line.
+     *
+     * @return The duration in millis, or -1 if the line does not report it.
+     */
+    static long parseDuration(String line, int start) {
+        if (!line.regionMatches(true, start, DURATION_PREFIX, 0, DURATION_PREFIX.length())) {
+            return -1;
+        }
+        int i = start + DURATION_PREFIX.length();
+        if (line.length() < i + 10
+                || !isDigit(line, i) || !isDigit(line, i + 1) || line.charAt(i + 2) != ':'
+                || !isDigit(line, i + 3) || !isDigit(line, i + 4) || line.charAt(i + 5) != ':'
+                || !isDigit(line, i + 6) || !isDigit(line, i + 7) || line.charAt(i + 8) != '.'
+                || !isDigit(line, i + 9)) {
+            return -1;
+        }
+        long hours = digit(line, i) * 10 + digit(line, i + 1);
+        long minutes = digit(line, i + 3) * 10 + digit(line, i + 4);
+        long seconds = digit(line, i + 6) * 10 + digit(line, i + 7);
+        long dec = digit(line, i + 9);
+        return (dec * 100L) + (seconds * 1000L) + (minutes * 60L * 1000L) + (hours * 60L * 60L * 1000L);
+    }
+
+    /**
+     * Checks a "Stream #0:0(und): Type: specs" line, from the character
+     * following the '#'.
+     *
+     * @return The index of the specs, or -1 if the line does not report a
+     * stream of the given type.
+     */
+    private static int streamSpecs(String line, int from, String type) {
+        int length = line.length();
+        int end = from;
+        while (end < length && !isSpace(line.charAt(end))) {
+            end++;
+        }
+        // The stream id is followed by ": ".
+        if (end - from < 2 || line.charAt(end - 1) != ':' || end == length || line.charAt(end) != ' ') {
+            return -1;
+        }
+        if (!line.regionMatches(true, end + 1, type, 0, type.length())) {
+            return -1;
+        }
+        return end + 1 + type.length();
+    }
+
+    private static void parseVideo(String specs, VideoInfo video) {
+        StringTokenizer st = new StringTokenizer(specs, ",");
+        for (int i = 0; st.hasMoreTokens(); i++) {
+            String token = st.nextToken().trim();
+            if (i == 0) {
+                video.setDecoder(token);
+                continue;
+            }
+            // Video size.
+            Matcher m = SIZE_PATTERN.matcher(token);
+            if (m.find()) {
+                int width = Integer.parseInt(m.group(1));
+                int height = Integer.parseInt(m.group(2));
+                video.setSize(new VideoSize(width, height));
+                continue;
+            }
+            // Frame rate.
+            m = FRAME_RATE_PATTERN.matcher(token);
+            if (m.find()) {
+                try {
+                    video.setFrameRate(Float.parseFloat(m.group(1)));
+                } catch (NumberFormatException e) {
+                    ;
+                }
+                continue;
+            }
+            // Bit rate.
+            m = BIT_RATE_PATTERN.matcher(token);
+            if (m.find()) {
+                video.setBitRate(Integer.parseInt(m.group(1)));
+            }
+        }
+    }
+
+    private static void parseAudio(String specs, AudioInfo audio) {
+        StringTokenizer st = new StringTokenizer(specs, ",");
+        for (int i = 0; st.hasMoreTokens(); i++) {
+            String token = st.nextToken().trim();
+            if (i == 0) {
+                audio.setDecoder(token);
+                continue;
+            }
+            // Sampling rate.
+            Matcher m = SAMPLING_RATE_PATTERN.matcher(token);
+            if (m.find()) {
+                audio.setSamplingRate(Integer.parseInt(m.group(1)));
+                continue;
+            }
+            // Channels.
+            m = CHANNELS_PATTERN.matcher(token);
+            if (m.find()) {
+                String ms = m.group(1);
+                if ("mono".equalsIgnoreCase(ms)) {
+                    audio.setChannels(1);
+                } else if ("stereo".equalsIgnoreCase(ms)) {
+                    audio.setChannels(2);
+                }
+                continue;
+            }
+            // Bit rate.
+            m = BIT_RATE_PATTERN.matcher(token);
+            if (m.find()) {
+                audio.setBitRate(Integer.parseInt(m.group(1)));
+            }
+        }
+    }
+
+    /**
+     * Parses a "creation_time   : 2019-09-30T12:18:21.000000Z" line.
+     *
+     * @return The time, or null if the line is not a single key/value pair.
+     */
+    private static String creationTime(String line) {
+        int colon = line.indexOf(" :");
+        if (colon < 0 || colon + 2 >= line.length() || line.indexOf(" :", colon + 2) >= 0) {
+            return null;
+        }
+        return line.substring(colon + 2).trim();
+    }
+
+    /**
+     * Parses a line printed by the volumedetect filter into the volumedetect
+     * informations of the given audio stream.
+     *
+     * @return false if the line carries no value.
+     */
+    private static boolean parseVolumedetect(String line, AudioInfo audio) {
+        Matcher m = VOLUMEDETECT_PATTERN.matcher(line);
+        if (!m.find()) {
+            return true;
+        }
+        if (audio.getVolumedetect() == null) {
+            audio.setVolumedetect(new VolumedetectInfo());
+        }
+        if (audio.getVolumedetect().getHistogramMap() == null) {
+            audio.getVolumedetect().setHistogramMap(new HashMap<String, String>());
+        }
+        String type = m.group(3);
+        if (type == null || type.length() == 0) {
+            return false;
+        }
+        String group = m.group(4);
+        String value = m.group(6);
+        switch (type) {
+            case "mean_volume":
+                audio.getVolumedetect().setMeanVolume(value);
+                break;
+            case "max_volume":
+                audio.getVolumedetect().setMaxVolume(value);
+                break;
+            case "histogram_":
+                audio.getVolumedetect().getHistogramMap().put(group + "db", value);
+                break;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,371 @@
+package it.sauronsoftware.jave;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A disk cache of encoded files, see
+ * {@link Encoder#setOutputCache(OutputCache)}. Entries are addressed by a
+ * SHA-256 hash of the source content, the encoding attributes and the ffmpeg
+ * executable, so an identical encoding is served by copying the cached file
+ * instead of running ffmpeg. Entries are published atomically, and the least
+ * recently used ones are evicted beyond the size budget.
+ */
+public class OutputCache {
+    private static final Logger log = LoggerFactory.getLogger(OutputCache.class);
+
+    private static final String SUFFIX = ".out";
+
+    /**
+     * The cache directory.
+     */
+    private final File dir;
+
+    /**
+     * The size budget in bytes.
+     */
+    private final long maxBytes;
+
+    /**
+     * True if hits are served by hard links instead of copies.
+     */
+    private volatile boolean hardLinks = false;
+
+    /**
+     * The entry sizes by key, in access order.
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75F, true);
+
+    private long totalBytes = 0;
+
+    private long hitCount = 0;
+
+    private long missCount = 0;
+
+    private long evictionCount = 0;
+
+    /**
+     * It opens a cache, indexing the entries already in the directory in last
+     * modification order.
+     *
+     * @param dir      The cache directory.
+     * @param maxBytes The size budget in bytes.
+     */
+    public OutputCache(File dir, long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.dir = dir.getAbsoluteFile();
+        this.maxBytes = maxBytes;
+        this.dir.mkdirs();
+        File[] files = this.dir.listFiles();
+        if (files != null) {
+            Arrays.sort(files, new Comparator<File>() {
+                public int compare(File f1, File f2) {
+                    return Long.compare(f1.lastModified(), f2.lastModified());
+                }
+            });
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(SUFFIX)) {
+                    entries.put(name.substring(0, name.length() - SUFFIX.length()), file.length());
+                    totalBytes += file.length();
+                } else if (name.endsWith(".tmp")) {
+                    // Left by an interrupted publication.
+                    file.delete();
+                }
+            }
+        }
+        evict();
+    }
+
+    /**
+     * Sets whether hits are served by hard links to the cached files instead
+     * of copies. Links are faster and take no space, but the served files
+     * must then never be modified in place: an encoding overwriting one of
+     * them would corrupt the cache.
+     *
+     * @param hardLinks true to serve hits by hard links.
+     */
+    public void setHardLinks(boolean hardLinks) {
+        this.hardLinks = hardLinks;
+    }
+
+    /**
+     * Returns the key of an encoding.
+     *
+     * @param source     The source file.
+     * @param target     The target file, whose extension picks the format
+     *                   when the attributes do not.
+     * @param attributes The encoding attributes.
+     * @param ffmpeg     The key of the ffmpeg executable.
+     * @return The key.
+     * @throws IOException If the source cannot be read.
+     */
+    static String key(File source, File target, EncodingAttributes attributes, String ffmpeg) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[65536];
+        InputStream input = new FileInputStream(source);
+        try {
+            int l;
+            while ((l = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, l);
+            }
+        } finally {
+            input.close();
+        }
+        digest.update(("\n" + spec(target, attributes) + "\n" + ffmpeg).getBytes(StandardCharsets.UTF_8));
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the specification of an encoded file, as text: the extension of
+     * the target and the attributes affecting the output, leaving out the
+     * time budgets.
+     *
+     * @param target     The target file.
+     * @param attributes The encoding attributes.
+     * @return The specification.
+     */
+    static String spec(File target, EncodingAttributes attributes) {
+        String name = target.getName();
+        String extension = name.lastIndexOf('.') >= 0 ? name.substring(name.lastIndexOf('.')) : "";
+        return extension + "\n" + normalize(attributes);
+    }
+
+    private static String normalize(EncodingAttributes attributes) {
+        EncodingAttributes normalized = new EncodingAttributes();
+        normalized.setFormat(attributes.getFormat());
+        normalized.setOffset(attributes.getOffset());
+        normalized.setDuration(attributes.getDuration());
+        normalized.setAudioAttributes(attributes.getAudioAttributes());
+        normalized.setVideoAttributes(attributes.getVideoAttributes());
+        normalized.setFflags(attributes.getFflags());
+        normalized.setMetadataSv(attributes.getMetadataSv());
+        return normalized.toString();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Serves a cached encoding.
+     *
+     * @param key    The encoding key.
+     * @param target The target file.
+     * @return true on a hit, false if the encoding must run.
+     */
+    boolean serve(String key, File target) {
+        File entry = new File(dir, key + SUFFIX);
+        synchronized (this) {
+            if (entries.get(key) == null || !entry.isFile()) {
+                missCount++;
+                return false;
+            }
+            hitCount++;
+        }
+        entry.setLastModified(System.currentTimeMillis());
+        File tmp = null;
+        try {
+            if (hardLinks) {
+                target.delete();
+                Files.createLink(target.toPath(), entry.toPath());
+            } else {
+                tmp = File.createTempFile("." + target.getName() + "-", ".tmp", target.getParentFile());
+                copy(entry, tmp);
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            return true;
+        } catch (IOException e) {
+            // Evicted meanwhile, or not linkable: encode again.
+            log.warn("cannot serve cached encoding " + key + " to " + target, e);
+            if (tmp != null) {
+                tmp.delete();
+            }
+            synchronized (this) {
+                hitCount--;
+                missCount++;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Publishes an encoded file.
+     *
+     * @param key    The encoding key.
+     * @param target The encoded file.
+     */
+    void store(String key, File target) {
+        long size = target.length();
+        if (size > maxBytes) {
+            return;
+        }
+        File entry = new File(dir, key + SUFFIX);
+        File tmp = null;
+        try {
+            tmp = File.createTempFile(key, ".tmp", dir);
+            copy(target, tmp);
+            Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("cannot cache encoding " + key, e);
+            if (tmp != null) {
+                tmp.delete();
+            }
+            return;
+        }
+        synchronized (this) {
+            Long previous = entries.put(key, size);
+            totalBytes += size - (previous != null ? previous : 0);
+        }
+        evict();
+    }
+
+    /**
+     * Removes the least recently used entries beyond the size budget.
+     */
+    private void evict() {
+        List<String> evicted = new ArrayList<String>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Long>> i = entries.entrySet().iterator();
+            while (totalBytes > maxBytes && i.hasNext()) {
+                Map.Entry<String, Long> eldest = i.next();
+                totalBytes -= eldest.getValue();
+                evicted.add(eldest.getKey());
+                evictionCount++;
+                i.remove();
+            }
+        }
+        for (String key : evicted) {
+            new File(dir, key + SUFFIX).delete();
+        }
+    }
+
+    /**
+     * Copies a file with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+     * letting the kernel move the bytes where it can.
+     *
+     * @param from The file to copy.
+     * @param to   The copy.
+     * @throws IOException If the copy fails.
+     */
+    static void copy(File from, File to) throws IOException {
+        FileInputStream input = new FileInputStream(from);
+        try {
+            FileOutputStream output = new FileOutputStream(to);
+            try {
+                FileChannel in = input.getChannel();
+                FileChannel out = output.getChannel();
+                long size = in.size();
+                long position = 0;
+                while (position < size) {
+                    position += in.transferTo(position, size - position, out);
+                }
+            } finally {
+                output.close();
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Drops all the cached encodings.
+     */
+    public void clear() {
+        List<String> keys;
+        synchronized (this) {
+            keys = new ArrayList<String>(entries.keySet());
+            entries.clear();
+            totalBytes = 0;
+        }
+        for (String key : keys) {
+            new File(dir, key + SUFFIX).delete();
+        }
+    }
+
+    /**
+     * Returns the total size of the cached encodings.
+     *
+     * @return The size in bytes.
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Returns the number of cached encodings.
+     *
+     * @return The number of entries.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of encodings served by the cache.
+     *
+     * @return The hit count.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of encodings which ran ffmpeg.
+     *
+     * @return The miss count.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the number of entries evicted by the size budget.
+     *
+     * @return The eviction count.
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "OutputCache{" +
+                "size=" + entries.size() +
+                ", totalBytes=" + totalBytes +
+                ", hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                ", evictionCount=" + evictionCount +
+                '}';
+    }
+
+}
@@ -0,0 +1,38 @@
+package it.sauronsoftware.jave;
+
+import lombok.Data;
+
+/**
+ * The outcome of one output of a multi-output encoding, see
+ * {@link Encoder#encode(java.io.File, java.util.List, EncoderProgressListener)}.
+ */
+@Data
+public class OutputResult {
+
+    /**
+     * The output.
+     */
+    private final OutputSpec output;
+
+    /**
+     * The failure of the output, null if it succeeded.
+     */
+    private final Exception error;
+
+    /**
+     * true if the output has been encoded by the single decoding of the
+     * source shared with the other outputs, false if it has been encoded
+     * apart.
+     */
+    private final boolean shared;
+
+    /**
+     * Returns true if the output has succeeded.
+     *
+     * @return true if the target has been encoded.
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+}
@@ -0,0 +1,24 @@
+package it.sauronsoftware.jave;
+
+import lombok.Data;
+
+import java.io.File;
+
+/**
+ * An output of a multi-output encoding, see
+ * {@link Encoder#encode(File, java.util.List, EncoderProgressListener)}.
+ */
+@Data
+public class OutputSpec {
+
+    /**
+     * The target multimedia re-encoded file.
+     */
+    private final File target;
+
+    /**
+     * The attributes of the output.
+     */
+    private final EncodingAttributes attributes;
+
+}
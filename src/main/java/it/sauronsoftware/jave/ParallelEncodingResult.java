@@ -0,0 +1,42 @@
+package it.sauronsoftware.jave;
+
+import lombok.Data;
+
+/**
+ * The outcome of a segment-parallel encoding, see
+ * {@link Encoder#encodeParallel(java.io.File, java.io.File, EncodingAttributes, int, EncoderProgressListener)}.
+ */
+@Data
+public class ParallelEncodingResult {
+
+    /**
+     * The number of segments encoded, 1 if the source has been encoded
+     * whole.
+     */
+    private final int segments;
+
+    /**
+     * The wall-clock time of the encoding, in milliseconds.
+     */
+    private final long wallClockMillis;
+
+    /**
+     * The sum of the wall-clock times of the segment encodings, in
+     * milliseconds: about the time of a serial encoding.
+     */
+    private final long segmentMillis;
+
+    /**
+     * Returns the wall-clock speedup over a serial encoding, estimated as the
+     * ratio of the segment times to the wall-clock time.
+     *
+     * @return The speedup, 1 if the source has been encoded whole.
+     */
+    public double getSpeedup() {
+        if (segments < 2 || wallClockMillis <= 0) {
+            return 1;
+        }
+        return (double) segmentMillis / wallClockMillis;
+    }
+
+}
@@ -0,0 +1,38 @@
+package it.sauronsoftware.jave;
+
+import lombok.Data;
+
+import java.io.File;
+
+/**
+ * The outcome of probing one file in a batch, see
+ * {@link Encoder#getInfo(java.util.List)}.
+ */
+@Data
+public class ProbeResult {
+
+    /**
+     * The probed file.
+     */
+    private final File source;
+
+    /**
+     * The informations about the file, null if probing it failed.
+     */
+    private final MultimediaInfo info;
+
+    /**
+     * The failure probing the file, null if it succeeded.
+     */
+    private final EncoderException error;
+
+    /**
+     * Returns true if the file has been probed successfully.
+     *
+     * @return true if {@link ProbeResult#getInfo()} is available.
+     */
+    public boolean isSuccess() {
+        return info != null;
+    }
+
+}
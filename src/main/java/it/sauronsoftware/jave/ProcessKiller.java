@@ -18,34 +18,68 @@
  */
 package it.sauronsoftware.jave;
 
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
 /**
  * A package-private utility to add a shutdown hook to kill ongoing encoding
- * processes at the jvm shutdown.
+ * processes at the jvm shutdown. A single instance is registered by the
+ * {@link ProcessRegistry}, and it kills every live ffmpeg process.
  * 
  * @author Carlo Pelliccia
  */
 class ProcessKiller extends Thread {
 
 	/**
-	 * The process to kill.
+	 * How long the processes are given to terminate before being forcibly
+	 * destroyed.
+	 */
+	private static final long GRACE_MILLIS = 1000L;
+
+	/**
+	 * The live executions, as seen at the jvm shutdown.
 	 */
-	private Process process;
+	private Collection<FFMPEGExecutor> executors;
 
 	/**
 	 * Builds the killer.
 	 * 
-	 * @param process
-	 *            The process to kill.
+	 * @param executors
+	 *            The live executions to kill. The collection is read when
+	 *            the hook runs.
 	 */
-	public ProcessKiller(Process process) {
-		this.process = process;
+	public ProcessKiller(Collection<FFMPEGExecutor> executors) {
+		super("ffmpeg-killer");
+		this.executors = executors;
 	}
 
 	/**
-	 * It kills the supplied process.
+	 * It kills the live processes. All of them are asked to terminate at
+	 * once, then the ones still alive after a grace period are forcibly
+	 * destroyed.
 	 */
 	public void run() {
-		process.destroy();
+		for (FFMPEGExecutor executor : executors) {
+			Process process = executor.getProcess();
+			if (process != null) {
+				process.destroy();
+			}
+		}
+		long deadline = System.currentTimeMillis() + GRACE_MILLIS;
+		for (FFMPEGExecutor executor : executors) {
+			Process process = executor.getProcess();
+			if (process == null) {
+				continue;
+			}
+			try {
+				long remaining = Math.max(0, deadline - System.currentTimeMillis());
+				if (!process.waitFor(remaining, TimeUnit.MILLISECONDS)) {
+					process.destroyForcibly();
+				}
+			} catch (InterruptedException e) {
+				process.destroyForcibly();
+			}
+		}
 	}
 
 }
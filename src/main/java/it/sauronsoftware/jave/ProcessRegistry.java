@@ -0,0 +1,107 @@
+package it.sauronsoftware.jave;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The registry of the live ffmpeg processes started by JAVE in this jvm. A
+ * single shutdown hook kills all of them when the jvm exits, and the live
+ * processes can be listed and killed on demand.
+ */
+public class ProcessRegistry {
+
+    /**
+     * The live executions, by id.
+     */
+    private static final ConcurrentHashMap<Long, FFMPEGExecutor> LIVE = new ConcurrentHashMap<Long, FFMPEGExecutor>();
+
+    /**
+     * The id generator.
+     */
+    private static final AtomicLong IDS = new AtomicLong();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new ProcessKiller(LIVE.values()));
+    }
+
+    private ProcessRegistry() {
+    }
+
+    /**
+     * Registers a started execution.
+     *
+     * @param executor The execution.
+     * @return The id assigned to the execution.
+     */
+    static long register(FFMPEGExecutor executor) {
+        long id = IDS.incrementAndGet();
+        LIVE.put(id, executor);
+        return id;
+    }
+
+    /**
+     * Unregisters a terminated execution.
+     *
+     * @param id The execution id.
+     */
+    static void unregister(long id) {
+        LIVE.remove(id);
+    }
+
+    /**
+     * Returns the number of live ffmpeg processes.
+     *
+     * @return The number of live processes.
+     */
+    public static int size() {
+        return LIVE.size();
+    }
+
+    /**
+     * Returns a snapshot of the live ffmpeg processes, oldest first.
+     *
+     * @return The live processes.
+     */
+    public static List<FFMPEGProcessInfo> list() {
+        List<FFMPEGProcessInfo> ret = new ArrayList<FFMPEGProcessInfo>();
+        for (FFMPEGExecutor executor : LIVE.values()) {
+            ret.add(new FFMPEGProcessInfo(executor.getId(), executor.getCommand(), executor.getStartTime(), executor.getTimeout()));
+        }
+        Collections.sort(ret, (a, b) -> Long.compare(a.getId(), b.getId()));
+        return ret;
+    }
+
+    /**
+     * Kills a live ffmpeg process. The encoding waiting for it fails and its
+     * partial target is removed.
+     *
+     * @param id The process id, as reported by {@link ProcessRegistry#list()}.
+     * @return true if the process was alive, false otherwise.
+     */
+    public static boolean kill(long id) {
+        FFMPEGExecutor executor = LIVE.get(id);
+        if (executor == null) {
+            return false;
+        }
+        executor.kill();
+        return true;
+    }
+
+    /**
+     * Kills all the live ffmpeg processes.
+     *
+     * @return The number of killed processes.
+     */
+    public static int killAll() {
+        int count = 0;
+        for (FFMPEGExecutor executor : LIVE.values()) {
+            executor.kill();
+            count++;
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,42 @@
+package it.sauronsoftware.jave;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A package-private single-thread timer shared by all the ffmpeg executions.
+ * It enforces the wall-clock timeouts and escalates the termination of killed
+ * processes, without dedicating a thread to each execution.
+ */
+class ProcessWatchdog {
+
+    private static final ScheduledThreadPoolExecutor TIMER;
+
+    static {
+        TIMER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ffmpeg-watchdog");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    private ProcessWatchdog() {
+    }
+
+    /**
+     * Schedules a task on the watchdog thread. The task must be short.
+     *
+     * @param task   The task.
+     * @param millis The delay in millis.
+     * @return The scheduled task, which can be cancelled.
+     */
+    static ScheduledFuture<?> schedule(Runnable task, long millis) {
+        return TIMER.schedule(task, millis, TimeUnit.MILLISECONDS);
+    }
+
+}
@@ -0,0 +1,266 @@
+package it.sauronsoftware.jave;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Delivers the {@link EncoderProgressListener} callbacks of the encodings on
+ * an executor, so a slow listener never delays the reading of the ffmpeg
+ * output. Progress reports are coalesced: only the latest one of each job is
+ * kept, and it is delivered at most once per interval, except the final one.
+ * Messages are queued in order, up to a bound beyond which the oldest are
+ * dropped. The callbacks of a job never run concurrently, and they have all
+ * been delivered when the encoding method returns.
+ */
+public class ProgressDispatcher {
+    private static final Logger log = LoggerFactory.getLogger(ProgressDispatcher.class);
+
+    /**
+     * The maximum number of pending messages of a job.
+     */
+    private static final int MAX_PENDING_MESSAGES = 64;
+
+    private static volatile ProgressDispatcher defaultDispatcher;
+
+    /**
+     * The executor running the callbacks.
+     */
+    private final Executor executor;
+
+    /**
+     * The minimum interval between two progress reports of a job, in millis.
+     */
+    private final long minInterval;
+
+    /**
+     * It builds a dispatcher.
+     *
+     * @param executor    The executor running the callbacks.
+     * @param minInterval The minimum interval between two progress reports of
+     *                    the same job, in millis. 0 delivers every report the
+     *                    listener can keep up with.
+     */
+    public ProgressDispatcher(Executor executor, long minInterval) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor is null");
+        }
+        if (minInterval < 0) {
+            throw new IllegalArgumentException("minInterval must not be negative");
+        }
+        this.executor = executor;
+        this.minInterval = minInterval;
+    }
+
+    /**
+     * Returns the dispatcher used by the encoders unless another one is set:
+     * a pool of daemon threads, one per cpu, delivering at most 10 progress
+     * reports per second to each job.
+     *
+     * @return The default dispatcher.
+     */
+    public static ProgressDispatcher getDefault() {
+        if (defaultDispatcher == null) {
+            synchronized (ProgressDispatcher.class) {
+                if (defaultDispatcher == null) {
+                    int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+                    ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "jave-progress-" + count.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+                    pool.allowCoreThreadTimeOut(true);
+                    defaultDispatcher = new ProgressDispatcher(pool, 100L);
+                }
+            }
+        }
+        return defaultDispatcher;
+    }
+
+    /**
+     * Wraps the listener of a job. The wrapper must be finished when the job
+     * ends.
+     *
+     * @param listener The listener.
+     * @return The dispatching listener.
+     */
+    Job wrap(EncoderProgressListener listener) {
+        return new Job(listener);
+    }
+
+    /**
+     * The dispatching listener of a job. Each job has at most one drain task
+     * queued or running on the executor.
+     */
+    class Job implements EncoderProgressListener, Runnable {
+
+        private final EncoderProgressListener listener;
+
+        private final ArrayBlockingQueue<Runnable> messages = new ArrayBlockingQueue<Runnable>(MAX_PENDING_MESSAGES);
+
+        /**
+         * The latest progress report not delivered yet: a
+         * {@link ProgressEvent} or an Integer permil value.
+         */
+        private final AtomicReference<Object> progress = new AtomicReference<Object>();
+
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        private volatile long lastProgress = 0;
+
+        private volatile boolean finished = false;
+
+        Job(EncoderProgressListener listener) {
+            this.listener = listener;
+        }
+
+        public void sourceInfo(final MultimediaInfo info) {
+            enqueue(new Runnable() {
+                public void run() {
+                    listener.sourceInfo(info);
+                }
+            });
+        }
+
+        public void message(final String message) {
+            enqueue(new Runnable() {
+                public void run() {
+                    listener.message(message);
+                }
+            });
+        }
+
+        public void progress(int permil) {
+            progress.set(Integer.valueOf(permil));
+            schedule();
+        }
+
+        public void progress(ProgressEvent event) {
+            progress.set(event);
+            schedule();
+        }
+
+        private void enqueue(Runnable callback) {
+            while (!messages.offer(callback)) {
+                if (messages.poll() != null) {
+                    log.debug("progress listener too slow, message dropped");
+                }
+            }
+            schedule();
+        }
+
+        /**
+         * Queues the drain task, unless it is already queued.
+         */
+        private void schedule() {
+            if (!scheduled.compareAndSet(false, true)) {
+                return;
+            }
+            long delay = 0;
+            if (messages.isEmpty() && !finished && !isFinal(progress.get())) {
+                delay = lastProgress + minInterval - System.currentTimeMillis();
+            }
+            if (delay > 0) {
+                ProcessWatchdog.schedule(new Runnable() {
+                    public void run() {
+                        submit();
+                    }
+                }, delay);
+            } else {
+                submit();
+            }
+        }
+
+        private void submit() {
+            try {
+                executor.execute(this);
+            } catch (RuntimeException e) {
+                // A rejecting executor must not lose the callbacks.
+                log.warn("progress executor rejected the callbacks, running them inline", e);
+                run();
+            }
+        }
+
+        /**
+         * Drains the pending callbacks.
+         */
+        public void run() {
+            try {
+                Runnable message;
+                while ((message = messages.poll()) != null) {
+                    deliver(message);
+                }
+                if (finished || isFinal(progress.get()) || System.currentTimeMillis() - lastProgress >= minInterval) {
+                    final Object latest = progress.getAndSet(null);
+                    if (latest != null) {
+                        lastProgress = System.currentTimeMillis();
+                        deliver(new Runnable() {
+                            public void run() {
+                                if (latest instanceof ProgressEvent) {
+                                    listener.progress((ProgressEvent) latest);
+                                } else {
+                                    listener.progress(((Integer) latest).intValue());
+                                }
+                            }
+                        });
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+            }
+            if (!messages.isEmpty() || progress.get() != null) {
+                schedule();
+            } else {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        private void deliver(Runnable callback) {
+            try {
+                callback.run();
+            } catch (RuntimeException e) {
+                log.warn("progress listener failed", e);
+            }
+        }
+
+        private boolean isFinal(Object latest) {
+            return latest instanceof ProgressEvent && ((ProgressEvent) latest).isEnd();
+        }
+
+        /**
+         * Delivers the pending callbacks and waits for them.
+         */
+        void finish() {
+            finished = true;
+            schedule();
+            synchronized (this) {
+                while (scheduled.get() || !messages.isEmpty() || progress.get() != null) {
+                    try {
+                        wait(100L);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,60 @@
+package it.sauronsoftware.jave;
+
+import lombok.Data;
+
+/**
+ * A progress report of an encoding process, read from the machine-readable
+ * ffmpeg progress output, see
+ * {@link EncoderProgressListener#progress(ProgressEvent)}. Values not reported
+ * by ffmpeg, or not computable, are -1.
+ */
+@Data
+public class ProgressEvent {
+
+    /**
+     * The progress in permil of the expected output duration.
+     */
+    private final int permil;
+
+    /**
+     * The duration of the output encoded so far, in millis.
+     */
+    private final long time;
+
+    /**
+     * The expected output duration, in millis.
+     */
+    private final long duration;
+
+    /**
+     * The size of the output written so far, in bytes.
+     */
+    private final long totalSize;
+
+    /**
+     * The current output bit rate, in kbit/s.
+     */
+    private final float bitRate;
+
+    /**
+     * The current encoding frame rate.
+     */
+    private final float fps;
+
+    /**
+     * The encoding speed as a realtime factor: 2 means two seconds of output
+     * are encoded every second.
+     */
+    private final float speed;
+
+    /**
+     * The estimated time to the end of the encoding, in millis.
+     */
+    private final long eta;
+
+    /**
+     * True for the last report, sent when ffmpeg ends.
+     */
+    private final boolean end;
+
+}
@@ -0,0 +1,248 @@
+package it.sauronsoftware.jave;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A package-private reader of the machine-readable progress ffmpeg writes with
+ * <code>-progress pipe:1 -nostats</code>. Its sinks are fed by the
+ * {@link FFMPEGExecutor} channels: the progress sink receives the key=value
+ * blocks of the standard output, the header sink a copy of the standard error,
+ * where the input duration is read when it is not known in advance. Each block
+ * is reported to the listener as a {@link ProgressEvent}.
+ */
+class ProgressTracker {
+    private static final Logger log = LoggerFactory.getLogger(ProgressTracker.class);
+
+    private final EncoderProgressListener listener;
+
+    /**
+     * The duration requested by the encoding attributes, in millis, or -1.
+     */
+    private final long durationAttribute;
+
+    /**
+     * The offset requested by the encoding attributes, in millis.
+     */
+    private final long offsetAttribute;
+
+    /**
+     * The expected output duration, in millis, or -1 if unknown.
+     */
+    private volatile long duration = -1;
+
+    /**
+     * True once the input duration is known, from the caller or the header.
+     */
+    private volatile boolean inputDurationSet = false;
+
+    private final long startTime = System.currentTimeMillis();
+
+    /*
+     * The values of the block being read.
+     */
+    private long outTime = -1;
+    private long totalSize = -1;
+    private float fps = -1;
+    private float bitRate = -1;
+    private float speed = -1;
+
+    private final OutputStream progressSink = new LineSink() {
+        @Override
+        void line(String line) {
+            progressLine(line);
+        }
+    };
+
+    private final OutputStream headerSink = new LineSink() {
+        private boolean done = false;
+
+        @Override
+        void line(String line) {
+            if (done) {
+                return;
+            }
+            if (line.startsWith("Output #")) {
+                done = true;
+            } else if (!inputDurationSet) {
+                long inputDuration = MultimediaInfoParser.parseDuration(line, MultimediaInfoParser.skipSpaces(line));
+                if (inputDuration >= 0) {
+                    setInputDuration(inputDuration);
+                }
+            }
+        }
+    };
+
+    /**
+     * It builds the tracker.
+     *
+     * @param listener   The listener receiving the events.
+     * @param attributes The encoding attributes, whose offset and duration
+     *                   bound the expected output duration.
+     */
+    ProgressTracker(EncoderProgressListener listener, EncodingAttributes attributes) {
+        this.listener = listener;
+        Float durationAttribute = attributes != null ? attributes.getDuration() : null;
+        Float offsetAttribute = attributes != null ? attributes.getOffset() : null;
+        this.durationAttribute = durationAttribute != null ? Math.round(durationAttribute.floatValue() * 1000.0F) : -1;
+        this.offsetAttribute = offsetAttribute != null ? Math.round(offsetAttribute.floatValue() * 1000.0F) : 0;
+        if (this.durationAttribute >= 0) {
+            duration = this.durationAttribute;
+        }
+    }
+
+    /**
+     * Sets the duration of the input, i.e. when it is not read from the
+     * ffmpeg header, as for the merge operations. The expected output duration
+     * is derived applying the attributes offset and duration.
+     *
+     * @param inputDuration The input duration in millis, or -1 if unknown.
+     */
+    void setInputDuration(long inputDuration) {
+        inputDurationSet = true;
+        if (durationAttribute >= 0 || inputDuration < 0) {
+            return;
+        }
+        duration = Math.max(0, inputDuration - offsetAttribute);
+    }
+
+    /**
+     * Returns the expected output duration.
+     *
+     * @return The duration in millis, or -1 if unknown.
+     */
+    long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Returns the sink of the ffmpeg standard output.
+     *
+     * @return The progress sink.
+     */
+    OutputStream getProgressSink() {
+        return progressSink;
+    }
+
+    /**
+     * Returns the sink of the copy of the ffmpeg standard error.
+     *
+     * @return The header sink.
+     */
+    OutputStream getHeaderSink() {
+        return headerSink;
+    }
+
+    private void progressLine(String line) {
+        int eq = line.indexOf('=');
+        if (eq <= 0) {
+            return;
+        }
+        String key = line.substring(0, eq).trim();
+        String value = line.substring(eq + 1).trim();
+        if ("out_time_us".equals(key) || ("out_time_ms".equals(key) && outTime < 0)) {
+            // out_time_ms is in microseconds too, and the only key of older ffmpeg.
+            long us = parseLong(value);
+            outTime = us >= 0 ? us / 1000 : -1;
+        } else if ("total_size".equals(key)) {
+            totalSize = parseLong(value);
+        } else if ("fps".equals(key)) {
+            fps = parseFloat(value, "");
+        } else if ("bitrate".equals(key)) {
+            bitRate = parseFloat(value, "kbits/s");
+        } else if ("speed".equals(key)) {
+            speed = parseFloat(value, "x");
+        } else if ("progress".equals(key)) {
+            fire("end".equals(value));
+            outTime = -1;
+            totalSize = -1;
+            fps = -1;
+            bitRate = -1;
+            speed = -1;
+        }
+    }
+
+    private void fire(boolean end) {
+        long duration = this.duration;
+        long time = outTime;
+        int permil = -1;
+        long eta = -1;
+        if (end) {
+            permil = 1000;
+            eta = 0;
+        } else if (duration > 0 && time >= 0) {
+            permil = (int) Math.min(1000L, time * 1000L / duration);
+            long remaining = Math.max(0, duration - time);
+            if (speed > 0) {
+                eta = Math.round(remaining / speed);
+            } else if (time > 0) {
+                eta = remaining * (System.currentTimeMillis() - startTime) / time;
+            }
+        }
+        ProgressEvent event = new ProgressEvent(permil, time, duration, totalSize, bitRate, fps, speed, eta, end);
+        try {
+            listener.progress(event);
+        } catch (RuntimeException e) {
+            log.warn("progress listener failed", e);
+        }
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static float parseFloat(String value, String unit) {
+        if (value.endsWith(unit)) {
+            value = value.substring(0, value.length() - unit.length()).trim();
+        }
+        try {
+            return Float.parseFloat(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * A sink splitting the written bytes in lines.
+     */
+    private abstract static class LineSink extends OutputStream {
+
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(128);
+
+        abstract void line(String line);
+
+        @Override
+        public void write(int b) {
+            if (b == '\n' || b == '\r') {
+                if (buffer.size() > 0) {
+                    String line = new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+                    buffer.reset();
+                    try {
+                        line(line);
+                    } catch (RuntimeException e) {
+                        log.warn("cannot process ffmpeg progress line " + line, e);
+                    }
+                }
+            } else {
+                buffer.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                write(b[i]);
+            }
+        }
+
+    }
+
+}
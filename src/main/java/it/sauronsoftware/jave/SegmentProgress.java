@@ -0,0 +1,84 @@
+package it.sauronsoftware.jave;
+
+/**
+ * Aggregates the progress of the segments of a parallel encoding, see
+ * {@link Encoder#setParallelSegments(int)}, into the progress of the whole
+ * encoding, weighting each segment by its duration. The reported progress
+ * never goes back.
+ */
+class SegmentProgress {
+
+    /**
+     * The listener of the whole encoding.
+     */
+    private final EncoderProgressListener listener;
+
+    /**
+     * The weight of each segment, summing to 1.
+     */
+    private final double[] weights;
+
+    /**
+     * The progress of each segment, in permils.
+     */
+    private final int[] permils;
+
+    private int reported = -1;
+
+    /**
+     * It builds an aggregator.
+     *
+     * @param listener  The listener of the whole encoding.
+     * @param durations The duration of each segment.
+     */
+    SegmentProgress(EncoderProgressListener listener, double[] durations) {
+        this.listener = listener;
+        this.weights = new double[durations.length];
+        this.permils = new int[durations.length];
+        double total = 0;
+        for (double duration : durations) {
+            total += duration;
+        }
+        for (int i = 0; i < durations.length; i++) {
+            weights[i] = total > 0 ? durations[i] / total : 1.0 / durations.length;
+        }
+    }
+
+    /**
+     * Returns the listener of a segment.
+     *
+     * @param index The segment index.
+     * @return The listener.
+     */
+    EncoderProgressListener part(final int index) {
+        return new EncoderProgressListener() {
+            public void sourceInfo(MultimediaInfo info) {
+                if (index == 0) {
+                    listener.sourceInfo(info);
+                }
+            }
+
+            public void progress(int permil) {
+                update(index, permil);
+            }
+
+            public void message(String message) {
+                listener.message(message);
+            }
+        };
+    }
+
+    private synchronized void update(int index, int permil) {
+        permils[index] = Math.max(permils[index], Math.min(permil, 1000));
+        double total = 0;
+        for (int i = 0; i < permils.length; i++) {
+            total += weights[i] * permils[i];
+        }
+        int aggregated = (int) Math.round(total);
+        if (aggregated > reported) {
+            reported = aggregated;
+            listener.progress(aggregated);
+        }
+    }
+
+}
@@ -0,0 +1,245 @@
+package it.sauronsoftware.jave;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deduplicates concurrent identical jobs, see
+ * {@link Encoder#setSingleFlight(SingleFlight)}. The first caller of a job
+ * runs it; the callers asking for the same job while it runs wait for its
+ * result instead of starting another ffmpeg process, and their listeners
+ * receive its callbacks from the moment they join. A failure is reported to
+ * all of them. A caller waits no longer than its own wall-clock budget. An
+ * instance can be shared by many encoders: the job key names the encoder
+ * class and the ffmpeg executable running it.
+ */
+public class SingleFlight {
+    private static final Logger log = LoggerFactory.getLogger(SingleFlight.class);
+
+    /**
+     * The running jobs by key.
+     */
+    private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+
+    private final AtomicLong runCount = new AtomicLong();
+
+    private final AtomicLong savedCount = new AtomicLong();
+
+    /**
+     * A deduplicated job.
+     *
+     * @param <V> The job result.
+     */
+    interface Job<V> {
+
+        /**
+         * Runs the job.
+         *
+         * @param listener The listener of the job, forwarding to the listeners
+         *                 of all the callers.
+         * @return The result.
+         * @throws EncoderException If the job fails.
+         */
+        V run(EncoderProgressListener listener) throws EncoderException;
+    }
+
+    /**
+     * Runs a job, or joins the identical one already running.
+     *
+     * @param key      The job key.
+     * @param listener The listener of the caller. It can be null.
+     * @param job      The job.
+     * @param timeout  The wall-clock budget of the caller in millis, 0 for
+     *                 no limit. A caller joining a running job stops
+     *                 waiting for it once the budget is exhausted.
+     * @param <V>      The job result.
+     * @return The result of the job.
+     * @throws EncoderException If the job fails.
+     * @throws EncoderTimeoutException If the joined job outlasts the budget.
+     */
+    @SuppressWarnings("unchecked")
+    <V> V run(String key, EncoderProgressListener listener, Job<V> job, long timeout) throws EncoderException {
+        Flight flight = new Flight();
+        Flight running = flights.putIfAbsent(key, flight);
+        if (running != null) {
+            savedCount.incrementAndGet();
+            running.attach(listener);
+            try {
+                return (V) running.await(timeout);
+            } finally {
+                running.detach(listener);
+            }
+        }
+        runCount.incrementAndGet();
+        flight.attach(listener);
+        try {
+            flight.result = job.run(flight);
+            return (V) flight.result;
+        } catch (EncoderException e) {
+            flight.failure = e;
+            throw e;
+        } catch (RuntimeException e) {
+            flight.failure = e;
+            throw e;
+        } catch (Error e) {
+            flight.failure = e;
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+            flight.done.countDown();
+        }
+    }
+
+    /**
+     * Returns the number of jobs run.
+     *
+     * @return The run count.
+     */
+    public long getRunCount() {
+        return runCount.get();
+    }
+
+    /**
+     * Returns the number of callers which joined a running job instead of
+     * running their own.
+     *
+     * @return The number of runs saved.
+     */
+    public long getSavedCount() {
+        return savedCount.get();
+    }
+
+    /**
+     * Returns the number of jobs running.
+     *
+     * @return The number of jobs.
+     */
+    public int getRunningCount() {
+        return flights.size();
+    }
+
+    @Override
+    public String toString() {
+        return "SingleFlight{" +
+                "runCount=" + runCount.get() +
+                ", savedCount=" + savedCount.get() +
+                ", runningCount=" + flights.size() +
+                '}';
+    }
+
+    /**
+     * A running job, and the listener forwarding its callbacks to the
+     * listeners of all its callers.
+     */
+    private static class Flight implements EncoderProgressListener {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private final List<EncoderProgressListener> listeners = new CopyOnWriteArrayList<EncoderProgressListener>();
+
+        private volatile MultimediaInfo sourceInfo;
+
+        private volatile Object result;
+
+        private volatile Throwable failure;
+
+        void attach(EncoderProgressListener listener) {
+            if (listener == null) {
+                return;
+            }
+            MultimediaInfo info;
+            // Registered and replayed under the lock of sourceInfo, so the
+            // listener receives the information exactly once.
+            synchronized (this) {
+                listeners.add(listener);
+                info = sourceInfo;
+            }
+            if (info != null) {
+                // The callers joining late still need it.
+                listener.sourceInfo(info);
+            }
+        }
+
+        void detach(EncoderProgressListener listener) {
+            if (listener != null) {
+                listeners.remove(listener);
+            }
+        }
+
+        Object await(long timeout) throws EncoderException {
+            try {
+                if (timeout <= 0) {
+                    done.await();
+                } else if (!done.await(timeout, TimeUnit.MILLISECONDS)) {
+                    throw new EncoderTimeoutException("joined job exceeded the wall-clock timeout", false, null);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EncoderException(e);
+            }
+            Throwable failure = this.failure;
+            if (failure instanceof EncoderException) {
+                throw (EncoderException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            return result;
+        }
+
+        public void sourceInfo(MultimediaInfo info) {
+            List<EncoderProgressListener> current;
+            synchronized (this) {
+                sourceInfo = info;
+                current = new ArrayList<EncoderProgressListener>(listeners);
+            }
+            for (EncoderProgressListener listener : current) {
+                try {
+                    listener.sourceInfo(info);
+                } catch (RuntimeException e) {
+                    log.warn("progress listener failed", e);
+                }
+            }
+        }
+
+        public void progress(int permil) {
+            for (EncoderProgressListener listener : listeners) {
+                try {
+                    listener.progress(permil);
+                } catch (RuntimeException e) {
+                    log.warn("progress listener failed", e);
+                }
+            }
+        }
+
+        public void progress(ProgressEvent event) {
+            for (EncoderProgressListener listener : listeners) {
+                try {
+                    listener.progress(event);
+                } catch (RuntimeException e) {
+                    log.warn("progress listener failed", e);
+                }
+            }
+        }
+
+        public void message(String message) {
+            for (EncoderProgressListener listener : listeners) {
+                try {
+                    listener.message(message);
+                } catch (RuntimeException e) {
+                    log.warn("progress listener failed", e);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,203 @@
+package it.sauronsoftware.jave;
+
+import it.sauronsoftware.jave.audio.AudioAttributes;
+import it.sauronsoftware.jave.video.VideoAttributes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The helpers of the keyframe-aligned operations. In a smart cut, see
+ * {@link Encoder#setSmartCut(boolean)}, a cut is sought on the input side,
+ * the complete GOPs inside it are copied, and only the partial GOPs at its
+ * two edges are re-encoded. In a parallel encoding, see
+ * {@link Encoder#setParallelSegments(int)}, the source is split at keyframes.
+ */
+class SmartCut {
+
+    /**
+     * The time range of a cut, in seconds.
+     */
+    static class Range {
+
+        /**
+         * The start of the cut.
+         */
+        final double start;
+
+        /**
+         * The duration of the cut, or -1 to cut up to the end.
+         */
+        final double duration;
+
+        Range(double start, double duration) {
+            this.start = start;
+            this.duration = duration;
+        }
+    }
+
+    /**
+     * Returns the cut requested by the encoding attributes, either by the
+     * offset and duration attributes or by the start time and duration of
+     * the streams.
+     *
+     * @param attributes The encoding attributes.
+     * @return The cut, or null if no cut is requested or if the streams are
+     * not cut alike.
+     */
+    static Range range(EncodingAttributes attributes) {
+        AudioAttributes audio = attributes.getAudioAttributes();
+        VideoAttributes video = attributes.getVideoAttributes();
+        double start = merge(merge(attributes.getOffset() != null ? attributes.getOffset().doubleValue() : -1,
+                video != null ? parseTime(video.getStartTime()) : -1),
+                audio != null ? parseTime(audio.getStartTime()) : -1);
+        double duration = merge(merge(attributes.getDuration() != null ? attributes.getDuration().doubleValue() : -1,
+                video != null ? parseTime(video.getDuration()) : -1),
+                audio != null ? parseTime(audio.getDuration()) : -1);
+        if (Double.isNaN(start) || Double.isNaN(duration) || (start < 0 && duration < 0)) {
+            return null;
+        }
+        return new Range(Math.max(start, 0), duration);
+    }
+
+    /**
+     * Private utility. It merges two requested times.
+     *
+     * @return The requested time, -1 if none is requested, or NaN if they
+     * differ.
+     */
+    private static double merge(double time1, double time2) {
+        if (Double.isNaN(time1) || Double.isNaN(time2)) {
+            return Double.NaN;
+        }
+        if (time1 < 0) {
+            return time2;
+        }
+        if (time2 < 0 || Math.abs(time1 - time2) < 0.0005) {
+            return time1;
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Parses a time in the ffmpeg syntax, "[[hh:]mm:]ss[.xxx]".
+     *
+     * @param time The time, or null.
+     * @return The time in seconds, -1 if it is null, or NaN if it cannot be
+     * parsed.
+     */
+    static double parseTime(String time) {
+        if (time == null || time.trim().length() == 0) {
+            return -1;
+        }
+        double seconds = 0;
+        try {
+            for (String part : time.trim().split(":", -1)) {
+                seconds = seconds * 60 + Double.parseDouble(part);
+            }
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+        return seconds >= 0 ? seconds : Double.NaN;
+    }
+
+    /**
+     * Formats a time for the ffmpeg command line.
+     *
+     * @param seconds The time in seconds.
+     * @return The formatted time.
+     */
+    static String format(double seconds) {
+        return String.format(Locale.ROOT, "%.6f", seconds);
+    }
+
+    /**
+     * Parses a line listing the video packets or frames: a ffprobe
+     * "pts_time,flags" csv line, or a line of the ffmpeg showinfo filter.
+     *
+     * @param line The line.
+     * @return The time of the keyframe reported by the line in seconds, or -1
+     * if the line does not report a keyframe.
+     */
+    static double parseKeyframe(String line) {
+        String time;
+        int i = line.indexOf("pts_time:");
+        if (i >= 0) {
+            if (line.indexOf("iskey:1") < 0) {
+                return -1;
+            }
+            int start = i + "pts_time:".length();
+            int end = line.indexOf(' ', start);
+            time = end >= 0 ? line.substring(start, end) : line.substring(start);
+        } else {
+            int comma = line.indexOf(',');
+            if (comma < 0 || line.indexOf('K', comma) < 0) {
+                return -1;
+            }
+            time = line.substring(0, comma);
+        }
+        try {
+            return Double.parseDouble(time.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Picks the keyframes splitting a source into segments of about the same
+     * duration.
+     *
+     * @param keyframes   The keyframes of the source, in order, in seconds.
+     * @param duration    The duration of the source, in seconds.
+     * @param segments    The wanted number of segments.
+     * @param minDuration The minimum duration of a segment, in seconds.
+     * @return The start of each segment, beginning with 0. There can be fewer
+     * segments than wanted, if the keyframes are too sparse.
+     */
+    static List<Double> split(List<Double> keyframes, double duration, int segments, double minDuration) {
+        List<Double> starts = new ArrayList<Double>();
+        starts.add(0.0);
+        for (int i = 1; i < segments; i++) {
+            double wanted = duration * i / segments;
+            double best = -1;
+            for (double keyframe : keyframes) {
+                if (keyframe - starts.get(starts.size() - 1) >= minDuration && duration - keyframe >= minDuration
+                        && (best < 0 || Math.abs(keyframe - wanted) < Math.abs(best - wanted))) {
+                    best = keyframe;
+                }
+            }
+            if (best > 0 && !starts.contains(best)) {
+                starts.add(best);
+            }
+        }
+        Collections.sort(starts);
+        return starts;
+    }
+
+    /**
+     * Returns the encoder re-encoding the edges of a cut video stream, with
+     * the options repeating its parameter sets in every keyframe and the
+     * filter doing the same with the copied packets, so the pieces can be
+     * concatenated whatever their headers.
+     *
+     * @param decoder The decoder of the video stream, as reported by ffmpeg.
+     * @return The encoder, its parameters option and the bitstream filter,
+     * or null if the codec is not supported.
+     */
+    static String[] edgeEncoder(String decoder) {
+        if (decoder == null) {
+            return null;
+        }
+        String codec = decoder.trim().split("[\\s,]", 2)[0].toLowerCase(Locale.ROOT);
+        if (codec.equals("h264")) {
+            return new String[]{"libx264", "-x264-params", "h264_mp4toannexb"};
+        }
+        if (codec.equals("hevc")) {
+            return new String[]{"libx265", "-x265-params", "hevc_mp4toannexb"};
+        }
+        return null;
+    }
+
+}
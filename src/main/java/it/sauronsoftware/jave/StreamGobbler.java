@@ -0,0 +1,73 @@
+/*
+ * JAVE - A Java Audio/Video Encoder (based on FFMPEG)
+ *
+ * Copyright (C) 2008-2009 Carlo Pelliccia (www.sauronsoftware.it)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.sauronsoftware.jave;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A package-private utility draining a ffmpeg output channel in background,
+ * so the ffmpeg process never blocks writing on a full pipe nobody reads.
+ */
+class StreamGobbler extends Thread {
+
+    /**
+     * The stream to drain.
+     */
+    private InputStream input;
+
+    /**
+     * An optional destination for the drained bytes. It can be null.
+     */
+    private OutputStream output;
+
+    /**
+     * It builds the gobbler.
+     *
+     * @param name   The thread name.
+     * @param input  The stream to drain.
+     * @param output An optional destination for the drained bytes. It can be
+     *               null.
+     */
+    public StreamGobbler(String name, InputStream input, OutputStream output) {
+        super(name);
+        this.input = input;
+        this.output = output;
+        setDaemon(true);
+    }
+
+    /**
+     * It reads the stream until its end.
+     */
+    public void run() {
+        byte[] buffer = new byte[8192];
+        int l;
+        try {
+            while ((l = input.read(buffer)) != -1) {
+                if (output != null) {
+                    output.write(buffer, 0, l);
+                }
+            }
+        } catch (IOException e) {
+            ;
+        }
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * JAVE - A Java Audio/Video Encoder (based on FFMPEG)
+ *
+ * Copyright (C) 2008-2009 Carlo Pelliccia (www.sauronsoftware.it)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.sauronsoftware.jave;
+
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A package-private utility keeping only the last bytes written into it. It
+ * is used to remember the tail of the ffmpeg error channel without holding
+ * the whole log in memory.
+ */
+class TailOutputStream extends OutputStream {
+
+    /**
+     * The ring buffer.
+     */
+    private final byte[] buffer;
+
+    /**
+     * The next write position in the ring buffer.
+     */
+    private int position = 0;
+
+    /**
+     * The number of valid bytes in the ring buffer.
+     */
+    private int count = 0;
+
+    /**
+     * It builds the stream.
+     *
+     * @param capacity The max number of bytes kept.
+     */
+    public TailOutputStream(int capacity) {
+        this.buffer = new byte[capacity];
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        buffer[position] = (byte) b;
+        position = (position + 1) % buffer.length;
+        if (count < buffer.length) {
+            count++;
+        }
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        if (len >= buffer.length) {
+            off += len - buffer.length;
+            len = buffer.length;
+        }
+        int first = Math.min(len, buffer.length - position);
+        System.arraycopy(b, off, buffer, position, first);
+        System.arraycopy(b, off + first, buffer, 0, len - first);
+        position = (position + len) % buffer.length;
+        count = Math.min(count + len, buffer.length);
+    }
+
+    /**
+     * Returns the number of bytes currently kept.
+     *
+     * @return The number of bytes currently kept.
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Returns the kept bytes decoded with the given charset.
+     *
+     * @param charsetName The charset name.
+     * @return The kept bytes as a string.
+     * @throws UnsupportedEncodingException If the charset is not supported.
+     */
+    public synchronized String toString(String charsetName) throws UnsupportedEncodingException {
+        byte[] ret = new byte[count];
+        int start = (position - count + buffer.length) % buffer.length;
+        int first = Math.min(count, buffer.length - start);
+        System.arraycopy(buffer, start, ret, 0, first);
+        System.arraycopy(buffer, 0, ret, first, count - first);
+        return new String(ret, charsetName);
+    }
+
+}
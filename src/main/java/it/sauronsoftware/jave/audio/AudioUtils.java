@@ -4,6 +4,7 @@ import it.sauronsoftware.jave.*;
 import it.sauronsoftware.jave.enumers.AudioMergeTypeEnum;
 
 import java.io.File;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -13,6 +14,8 @@ public class AudioUtils {
 
     private static final String LIBMP_3_LAME = "libmp3lame";
 
+    private static final String PCM_S16LE = "pcm_s16le";
+
     /**
      * amr转mp3
      *
@@ -63,13 +66,13 @@ public class AudioUtils {
             throw new IllegalArgumentException("source file does not exists: " + source.getAbsoluteFile());
         }
         AudioAttributes audio = new AudioAttributes();
-        audio.setCodec(LIBMP_3_LAME);
+        audio.setCodec(codecOf(format));
 
         EncodingAttributes attrs = new EncodingAttributes();
         attrs.setFormat(format);
         attrs.setAudioAttributes(audio);
 
-        Encoder encoder = new IgnoreErrorEncoder();
+        Encoder encoder = IgnoreErrorEncoder.getInstance();
         try {
             encoder.encode(source, target, attrs);
         } catch (Exception e) {
@@ -77,12 +80,56 @@ public class AudioUtils {
         }
     }
 
+    /**
+     * 分段并行转换长音频：按编码帧切分成多段，由多个ffmpeg进程同时编码后无缝拼接，支持 mp3/aac/opus
+     *
+     * @param source   音频来源
+     * @param target   目标存放地址
+     * @param format   目标格式
+     * @param segments 分段数
+     * @return 实际分段数及相对串行编码的加速比
+     */
+    public static ParallelEncodingResult convertParallel(File source, File target, String format, int segments) {
+        if (!source.exists()) {
+            throw new IllegalArgumentException("source file does not exists: " + source.getAbsoluteFile());
+        }
+        AudioAttributes audio = new AudioAttributes();
+        audio.setCodec(codecOf(format));
+
+        EncodingAttributes attrs = new EncodingAttributes();
+        attrs.setFormat(format);
+        attrs.setAudioAttributes(audio);
+
+        Encoder encoder = IgnoreErrorEncoder.getInstance();
+        try {
+            return encoder.encodeParallel(source, target, attrs, segments, null);
+        } catch (Exception e) {
+            throw new IllegalStateException("convert to " + format + " in parallel error: ", e);
+        }
+    }
+
+    /**
+     * 按目标格式选择编码器：mp3 用 libmp3lame，wav 用 pcm_s16le，其他格式用 ffmpeg 默认编码器
+     *
+     * @param format 目标格式
+     * @return 编码器，null 表示默认
+     */
+    private static String codecOf(String format) {
+        if ("mp3".equalsIgnoreCase(format)) {
+            return LIBMP_3_LAME;
+        }
+        if ("wav".equalsIgnoreCase(format)) {
+            return PCM_S16LE;
+        }
+        return null;
+    }
+
     public static void cutAndConvert(File source, File target, String format, String startTime, String duration) {
         if (!source.exists()) {
             throw new IllegalArgumentException("source file does not exists: " + source.getAbsoluteFile());
         }
         AudioAttributes audio = new AudioAttributes();
-        audio.setCodec(LIBMP_3_LAME);
+        audio.setCodec(codecOf(format));
         audio.setStartTime(startTime);
         audio.setDuration(duration);
 
@@ -90,7 +137,7 @@ public class AudioUtils {
         attrs.setFormat(format);
         attrs.setAudioAttributes(audio);
 
-        Encoder encoder = new IgnoreErrorEncoder();
+        Encoder encoder = IgnoreErrorEncoder.getInstance();
         try {
             encoder.encode(source, target, attrs);
         } catch (Exception e) {
@@ -102,7 +149,7 @@ public class AudioUtils {
         if (!source.exists()) {
             throw new IllegalArgumentException("source file does not exists: " + source.getAbsoluteFile());
         }
-        Encoder encoder = new IgnoreErrorEncoder();
+        Encoder encoder = IgnoreErrorEncoder.getInstance();
         try {
             encoder.encode(source, target, attrs);
         } catch (Exception e) {
@@ -110,12 +157,23 @@ public class AudioUtils {
         }
     }
 
+    /**
+     * 批量转换：按时长从长到短并行执行，按完成顺序返回每个任务的结果和耗时，单个任务失败不影响其它任务
+     *
+     * @param jobs 转换任务
+     * @return 执行中的批次，遍历时等待下一个完成的任务
+     */
+    public static EncodeBatch operateBatch(Collection<EncodeJob> jobs) {
+        Encoder encoder = IgnoreErrorEncoder.getInstance();
+        return encoder.encodeBatch(jobs, EncodingScheduler.getAvailableProcessors(), true);
+    }
+
     public static void mergeAudio(List<File> sourceList, File target, EncodingAttributes attrs) {
         if (attrs == null) {
             defultMergeAudio(sourceList, target);
             return;
         }
-        Encoder encoder = new IgnoreErrorEncoder();
+        Encoder encoder = IgnoreErrorEncoder.getInstance();
         try {
             encoder.encodeMergeAudio(sourceList, target, attrs);
         } catch (EncoderException e) {
@@ -131,7 +189,7 @@ public class AudioUtils {
         attrs.setFormat("wav");
         attrs.setAudioAttributes(audioAttributes);
 
-        Encoder encoder = new IgnoreErrorEncoder();
+        Encoder encoder = IgnoreErrorEncoder.getInstance();
         try {
             encoder.encodeMergeAudio(sourceList, target, attrs);
         } catch (EncoderException e) {
@@ -140,7 +198,7 @@ public class AudioUtils {
     }
 
     public static MultimediaInfo getAudioInfo(File source) {
-        Encoder encoder = new IgnoreErrorEncoder();
+        Encoder encoder = IgnoreErrorEncoder.getInstance();
         MultimediaInfo info = null;
         try {
             info = encoder.getInfo(source);
@@ -164,7 +222,7 @@ public class AudioUtils {
         EncodingAttributes attrs = new EncodingAttributes();
         attrs.setAudioAttributes(audioAttributes);
 
-        Encoder encoder = new IgnoreErrorEncoder();
+        Encoder encoder = IgnoreErrorEncoder.getInstance();
         try {
             encoder.encode(source, target, attrs);
         } catch (EncoderException e) {
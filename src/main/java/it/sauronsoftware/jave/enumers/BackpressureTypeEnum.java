@@ -0,0 +1,31 @@
+package it.sauronsoftware.jave.enumers;
+
+public enum BackpressureTypeEnum {
+    BLOCK("block", 1),//队列已满时阻塞提交线程
+    REJECT("reject", 2),//队列已满时拒绝任务
+    CALLER_RUNS("callerRuns", 3); //队列已满时由提交线程自己执行
+    // 成员变量
+    private String code;
+    private int index;
+
+    BackpressureTypeEnum(String code, int index) {
+        this.code = code;
+        this.index = index;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public void setCode(String code) {
+        this.code = code;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+}
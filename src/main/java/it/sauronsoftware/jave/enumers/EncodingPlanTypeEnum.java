@@ -0,0 +1,33 @@
+package it.sauronsoftware.jave.enumers;
+
+public enum EncodingPlanTypeEnum {
+    SKIP("skip", 1),//源文件已符合要求，直接复制
+    REMUX("remux", 2),//流复制，只更换容器
+    AUDIO_ONLY("audioOnly", 3),//复制视频流，只重新编码音频
+    TRANSCODE("transcode", 4),//完整转码
+    SMART_CUT("smartCut", 5);//输入端定位剪切，复制中间完整的 GOP，只重新编码两端
+    // 成员变量
+    private String code;
+    private int index;
+
+    EncodingPlanTypeEnum(String code, int index) {
+        this.code = code;
+        this.index = index;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public void setCode(String code) {
+        this.code = code;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+}
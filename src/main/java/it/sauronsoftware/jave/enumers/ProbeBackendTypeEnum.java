@@ -0,0 +1,31 @@
+package it.sauronsoftware.jave.enumers;
+
+public enum ProbeBackendTypeEnum {
+    AUTO("auto", 1),//有ffprobe时使用ffprobe，否则解析ffmpeg输出
+    FFPROBE("ffprobe", 2),//使用ffprobe的json输出
+    FFMPEG("ffmpeg", 3); //解析ffmpeg -i的输出
+    // 成员变量
+    private String code;
+    private int index;
+
+    ProbeBackendTypeEnum(String code, int index) {
+        this.code = code;
+        this.index = index;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public void setCode(String code) {
+        this.code = code;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+}
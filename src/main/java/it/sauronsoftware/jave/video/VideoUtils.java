@@ -6,7 +6,9 @@ import it.sauronsoftware.jave.enumers.VideoMergeTypeEnum;
 import org.apache.commons.lang3.StringUtils;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 
 /**
  * 视频相关工具
@@ -44,6 +46,39 @@ public class VideoUtils {
         thumbnail(source, imageTargetPath, 1, 5d, startTime, duration, null);
     }
 
+    /**
+     * 快速获取视频缩略图，每5秒抽一帧：只解码关键帧，得到近似的画面；关键帧过于稀疏时按精确方式抽取
+     *
+     * @param source          视频来源
+     * @param imageTargetPath 缩略图存放目标文件
+     */
+    public static void thumbnailByOneFrameEveryFiveSecondsFast(File source, File imageTargetPath) {
+        thumbnailFast(source, imageTargetPath, 5d, null);
+    }
+
+    /**
+     * 快速获取视频缩略图：只解码关键帧，解码器支持时以低分辨率解码，并在滤镜链开头缩放；关键帧过于稀疏时按精确方式抽取
+     *
+     * @param source          视频来源
+     * @param imageTargetPath 缩略图存放目标文件
+     * @param intervalTime    间隔时间（每隔多少秒抽取一帧）
+     * @param size            缩略图尺寸，null 表示原尺寸
+     * @return true 表示抽取的是关键帧，false 表示按精确方式抽取
+     */
+    public static boolean thumbnailFast(File source, File imageTargetPath, double intervalTime, VideoSize size) {
+        Encoder encoder = IgnoreErrorEncoder.getInstance();
+        VideoAttributes video = new VideoAttributes();
+        video.setSize(size);
+        EncodingAttributes attrs = new EncodingAttributes();
+        attrs.setFormat("image2");
+        attrs.setVideoAttributes(video);
+        try {
+            return encoder.thumbnails(source, imageTargetPath, attrs, intervalTime, true);
+        } catch (Exception e) {
+            throw new IllegalStateException("error: ", e);
+        }
+    }
+
     /**
      * 获取视频缩略图
      *
@@ -56,7 +91,7 @@ public class VideoUtils {
      * @param qv              设置图片质量
      */
     public static void thumbnail(File source, File imageTargetPath, Integer frameRate, Double intervalTime, String startTime, String duration, String qv) {
-        Encoder encoder = new IgnoreErrorEncoder();
+        Encoder encoder = IgnoreErrorEncoder.getInstance();
         VideoAttributes video = new VideoAttributes();
         if (frameRate != null && intervalTime == null) {
             video.setFrameRate(frameRate);
@@ -84,6 +119,42 @@ public class VideoUtils {
         }
     }
 
+    /**
+     * 快速抽取指定时间点的缩略图：在输入端定位，只解码时间点附近的画面，多个时间点并行抽取
+     *
+     * @param source    视频来源
+     * @param directory 缩略图存放目录，文件名为 thumbnail-序号.jpg
+     * @param exact     true 精确到时间点，false 取时间点前最近的关键帧（更快）
+     * @param seconds   时间点（秒）
+     * @return 缩略图文件，与时间点顺序一致
+     */
+    public static List<File> thumbnails(File source, File directory, boolean exact, double... seconds) {
+        if (!source.exists()) {
+            throw new IllegalArgumentException("source file does not exists: " + source.getAbsoluteFile());
+        }
+        directory.mkdirs();
+        List<OutputSpec> frames = new ArrayList<OutputSpec>();
+        for (int i = 0; i < seconds.length; i++) {
+            EncodingAttributes attrs = new EncodingAttributes();
+            attrs.setFormat("image2");
+            attrs.setOffset((float) seconds[i]);
+            frames.add(new OutputSpec(new File(directory, "thumbnail-" + i + ".jpg"), attrs));
+        }
+        Encoder encoder = IgnoreErrorEncoder.getInstance();
+        List<File> thumbnails = new ArrayList<File>();
+        try {
+            for (OutputResult result : encoder.thumbnails(source, frames, exact)) {
+                if (!result.isSuccess()) {
+                    throw result.getError();
+                }
+                thumbnails.add(result.getOutput().getTarget());
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("thumbnails error: ", e);
+        }
+        return thumbnails;
+    }
+
     /**
      * 抽取视频中的音频
      *
@@ -96,7 +167,7 @@ public class VideoUtils {
             getVoideoAudioToWav(source, target);
             return;
         }
-        Encoder encoder = new IgnoreErrorEncoder();
+        Encoder encoder = IgnoreErrorEncoder.getInstance();
         try {
             encoder.encode(source, target, attrs);
         } catch (EncoderException e) {
@@ -117,7 +188,7 @@ public class VideoUtils {
         attrs.setFormat("wav");
         attrs.setAudioAttributes(audio);
         attrs.setVideoAttributes(new VideoAttributes());
-        Encoder encoder = new IgnoreErrorEncoder();
+        Encoder encoder = IgnoreErrorEncoder.getInstance();
         try {
             encoder.encode(source, target, attrs);
         } catch (EncoderException e) {
@@ -142,7 +213,7 @@ public class VideoUtils {
         if (StringUtils.isEmpty(suffix) || !"txt".equalsIgnoreCase(suffix)) {
             throw new RuntimeException("请将文件名按格式保存到txt文件中");
         }
-        Encoder encoder = new IgnoreErrorEncoder();
+        Encoder encoder = IgnoreErrorEncoder.getInstance();
         EncodingAttributes attrs = new EncodingAttributes();
         if (StringUtils.isNoneEmpty(format)) {
             attrs.setFormat(format);
@@ -174,7 +245,7 @@ public class VideoUtils {
      * @param format 格式
      */
     public static void mergeVideoByDamaging(LinkedList<File> source, File target, String format) {
-        Encoder encoder = new IgnoreErrorEncoder();
+        Encoder encoder = IgnoreErrorEncoder.getInstance();
         EncodingAttributes attrs = new EncodingAttributes();
         if (StringUtils.isNoneEmpty(format)) {
             attrs.setFormat(format);
@@ -202,7 +273,7 @@ public class VideoUtils {
         if (source == null || source.size() != 2) {
             throw new RuntimeException("请传入要合并的文件");
         }
-        Encoder encoder = new IgnoreErrorEncoder();
+        Encoder encoder = IgnoreErrorEncoder.getInstance();
         EncodingAttributes attrs = new EncodingAttributes();
         if (StringUtils.isNoneEmpty(format)) {
             attrs.setFormat(format);
@@ -230,7 +301,7 @@ public class VideoUtils {
         if (source == null || source.size() != 2) {
             throw new RuntimeException("请传入要合并的文件");
         }
-        Encoder encoder = new IgnoreErrorEncoder();
+        Encoder encoder = IgnoreErrorEncoder.getInstance();
         EncodingAttributes attrs = new EncodingAttributes();
         if (StringUtils.isNoneEmpty(format)) {
             attrs.setFormat(format);
@@ -255,7 +326,7 @@ public class VideoUtils {
 
     //旋转视频
     public static void roateVideo(File source, File target, String vf) {
-        Encoder encoder = new IgnoreErrorEncoder();
+        Encoder encoder = IgnoreErrorEncoder.getInstance();
         VideoAttributes video = new VideoAttributes();
         if (vf != null && vf.length() > 0) {
             video.setVf(vf);
@@ -274,7 +345,7 @@ public class VideoUtils {
 
     //旋转视频 简单快速
     public static void roateVideoByMetadata(File source, File target, String rotate) {
-        Encoder encoder = new IgnoreErrorEncoder();
+        Encoder encoder = IgnoreErrorEncoder.getInstance();
         VideoAttributes video = new VideoAttributes();
         video.setCodec(VideoAttributes.DIRECT_STREAM_COPY);
         AudioAttributes audio = new AudioAttributes();
@@ -294,7 +365,7 @@ public class VideoUtils {
 
     //webm转mp4
     public static void webm2mp4(File source, File target, String bv, String bufsize, String maxrate) {
-        Encoder encoder = new IgnoreErrorEncoder();
+        Encoder encoder = IgnoreErrorEncoder.getInstance();
         VideoAttributes video = new VideoAttributes();
         video.setBv("2000k");
         video.setBufsize("2000k");
@@ -320,7 +391,7 @@ public class VideoUtils {
 
     //webm转mp4
     public static void webm2mp4(File source, File target, String fflags, Integer frameRate) {
-        Encoder encoder = new IgnoreErrorEncoder();
+        Encoder encoder = IgnoreErrorEncoder.getInstance();
         VideoAttributes video = new VideoAttributes();
         video.setFrameRate(24);
         if (frameRate != null) {
@@ -341,7 +412,7 @@ public class VideoUtils {
     }
 
     public static MultimediaInfo getVideoInfo(File source) {
-        Encoder encoder = new IgnoreErrorEncoder();
+        Encoder encoder = IgnoreErrorEncoder.getInstance();
         MultimediaInfo info = null;
         try {
             info = encoder.getInfo(source);
@@ -4,11 +4,23 @@ import it.sauronsoftware.jave.audio.AudioAttributes;
 import it.sauronsoftware.jave.audio.AudioInfo;
 import it.sauronsoftware.jave.audio.AudioUtils;
 import it.sauronsoftware.jave.audio.VolumedetectInfo;
+import it.sauronsoftware.jave.enumers.AudioMergeTypeEnum;
+import it.sauronsoftware.jave.enumers.BackpressureTypeEnum;
+import it.sauronsoftware.jave.enumers.EncodingPlanTypeEnum;
+import it.sauronsoftware.jave.enumers.ProbeBackendTypeEnum;
+import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * jave 音频转换测试
@@ -163,6 +175,638 @@ public class AudioTest {
         AudioUtils.operate(source, target, encodingAttributes);
     }
 
+    @Test
+    public void schedulerConvert() throws Exception {
+        //限制并发的ffmpeg进程数
+        EncodingScheduler scheduler = new EncodingScheduler(new IgnoreErrorEncoder(), 2, 4, BackpressureTypeEnum.BLOCK);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (String name : Arrays.asList("sunwukong", "luban", "diaochan", "direnjie")) {
+            AudioAttributes audio = new AudioAttributes();
+            audio.setCodec("pcm_s16le");
+            EncodingAttributes attrs = new EncodingAttributes();
+            attrs.setFormat("wav");
+            attrs.setAudioAttributes(audio);
+            File source = new File("target/test-classes/material/" + name + ".mp3");
+            File target = new File("target/test-classes/material/scheduler-" + name + ".wav");
+            futures.add(scheduler.submitEncode(source, target, attrs, null));
+        }
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+        System.out.println("avg wait: " + scheduler.getAverageWaitTime() + "ms, max wait: " + scheduler.getMaxWaitTime() + "ms");
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void encodeAsyncCancel() throws Exception {
+        //异步转换，取消时杀掉ffmpeg进程并删除未完成的文件
+        File source = new File("target/test-classes/material/longAudio.mp3");
+        File target = new File("target/test-classes/material/longAudio-async.wav");
+        AudioAttributes audio = new AudioAttributes();
+        audio.setCodec("pcm_s16le");
+        audio.setAf("aecho=0.8:0.9:1000:0.3");
+        EncodingAttributes attrs = new EncodingAttributes();
+        attrs.setFormat("wav");
+        attrs.setAudioAttributes(audio);
+
+        EncodingFuture<Void> future = new IgnoreErrorEncoder().encodeAsync(source, target, attrs);
+        Thread.sleep(300);
+        future.cancel(true);
+        Thread.sleep(3000);
+        Assert.assertTrue(future.isCancelled());
+        Assert.assertFalse(target.exists());
+    }
+
+    @Test(expected = EncoderTimeoutException.class)
+    public void encodeTimeout() throws Exception {
+        //超过执行时间限制时杀掉ffmpeg进程
+        File source = new File("target/test-classes/material/longAudio.mp3");
+        File target = new File("target/test-classes/material/longAudio-timeout.wav");
+        AudioAttributes audio = new AudioAttributes();
+        audio.setCodec("pcm_s16le");
+        audio.setAf("aecho=0.8:0.9:1000:0.3");
+        EncodingAttributes attrs = new EncodingAttributes();
+        attrs.setFormat("wav");
+        attrs.setAudioAttributes(audio);
+        attrs.setTimeout(300L);
+
+        new IgnoreErrorEncoder().encode(source, target, attrs);
+    }
+
+    @Test
+    public void getCapabilities() throws Exception {
+        //编解码能力只探测一次，之后走缓存
+        Encoder encoder = new Encoder();
+        FFMPEGCapabilities capabilities = encoder.getCapabilities();
+        System.out.println(capabilities);
+        Assert.assertTrue(capabilities.canEncodeAudio("libmp3lame"));
+        Assert.assertTrue(capabilities.canDecodeFormat("mp3"));
+        Assert.assertSame(capabilities, encoder.getCapabilities());
+        Assert.assertTrue(Arrays.asList(encoder.getAudioDecoders()).contains("mp3"));
+    }
+
+    @Test
+    public void probeBackends() throws Exception {
+        //对比ffprobe json解析和ffmpeg输出正则解析的耗时
+        File source = new File("target/test-classes/material/luban.mp3");
+        Encoder encoder = new Encoder();
+        List<ProbeBackendTypeEnum> backends = new ArrayList<>();
+        backends.add(ProbeBackendTypeEnum.FFMPEG);
+        if (DefaultFFMPEGLocator.getInstance().getFFProbeExecutablePath() != null) {
+            backends.add(ProbeBackendTypeEnum.FFPROBE);
+        }
+        for (ProbeBackendTypeEnum backend : backends) {
+            encoder.setProbeBackend(backend);
+            MultimediaInfo info = encoder.getInfo(source);
+            long start = System.nanoTime();
+            for (int i = 0; i < 20; i++) {
+                encoder.getInfo(source);
+            }
+            System.out.println(backend + ": " + (System.nanoTime() - start) / 20 / 1000 + "us/probe, " + info);
+            Assert.assertEquals("mp3", info.getFormat());
+            Assert.assertEquals(44100, info.getAudio().getSamplingRate());
+        }
+    }
+
+    @Test
+    public void batchGetInfo() throws Exception {
+        //一个ffmpeg进程探测多个文件，无法识别的文件单独报错
+        List<File> sources = new ArrayList<>();
+        sources.add(new File("target/test-classes/material/luban.mp3"));
+        sources.add(new File("target/test-classes/material/face.mp4"));
+        sources.add(new File("pom.xml"));
+        sources.add(new File("target/test-classes/material/lvbu.wav"));
+        sources.add(new File("target/test-classes/material/notExists.mp3"));
+        sources.add(new File("target/test-classes/material/diaochan.mp3"));
+        Encoder encoder = new Encoder();
+        encoder.setProbeBatchSize(4);
+        List<ProbeResult> results = encoder.getInfo(sources);
+        for (ProbeResult result : results) {
+            System.out.println(result);
+        }
+        Assert.assertEquals(sources.size(), results.size());
+        Assert.assertEquals("mp3", results.get(0).getInfo().getFormat());
+        Assert.assertEquals(1280, results.get(1).getInfo().getVideo().getSize().getWidth());
+        Assert.assertTrue(results.get(2).getError() instanceof InputFormatException);
+        Assert.assertEquals("wav", results.get(3).getInfo().getFormat());
+        Assert.assertTrue(results.get(4).getError() instanceof InputFormatException);
+        Assert.assertEquals(encoder.getInfo(sources.get(5)).getDuration(), results.get(5).getInfo().getDuration());
+    }
+
+    @Test
+    public void progressEvents() throws Exception {
+        //从ffmpeg -progress输出读取进度、速度和剩余时间
+        File source = new File("target/test-classes/material/longAudio.mp3");
+        File target = new File("target/test-classes/material/longAudio-progress.wav");
+        AudioAttributes audio = new AudioAttributes();
+        audio.setCodec("pcm_s16le");
+        EncodingAttributes attrs = new EncodingAttributes();
+        attrs.setFormat("wav");
+        attrs.setAudioAttributes(audio);
+        final List<ProgressEvent> events = new ArrayList<>();
+        new Encoder().encode(source, target, attrs, new EncoderProgressListener() {
+            public void sourceInfo(MultimediaInfo info) {
+            }
+
+            public void progress(int permil) {
+            }
+
+            public void progress(ProgressEvent event) {
+                System.out.println(event);
+                events.add(event);
+            }
+
+            public void message(String message) {
+            }
+        });
+        Assert.assertFalse(events.isEmpty());
+        ProgressEvent last = events.get(events.size() - 1);
+        Assert.assertTrue(last.isEnd());
+        Assert.assertEquals(1000, last.getPermil());
+        Assert.assertTrue(last.getDuration() > 0);
+        Assert.assertTrue(last.getTotalSize() > 0);
+    }
+
+    @Test
+    public void mergeProgress() throws Exception {
+        //合并时探测所有输入得到总时长
+        List<File> sources = Arrays.asList(new File("target/test-classes/material/luban.mp3"),
+                new File("target/test-classes/material/diaochan.mp3"));
+        File target = new File("target/test-classes/material/merge-progress.wav");
+        AudioAttributes audio = new AudioAttributes();
+        audio.setMergeType(AudioMergeTypeEnum.SPLIT_JOINT);
+        EncodingAttributes attrs = new EncodingAttributes();
+        attrs.setFormat("wav");
+        attrs.setAudioAttributes(audio);
+        Encoder encoder = new Encoder();
+        long expected = 0;
+        for (File source : sources) {
+            expected += encoder.getInfo(source).getDuration();
+        }
+        final List<Integer> permils = new ArrayList<>();
+        final long[] duration = new long[1];
+        encoder.encodeMergeAudio(sources, target, attrs, new EncoderProgressListener() {
+            public void sourceInfo(MultimediaInfo info) {
+            }
+
+            public void progress(int permil) {
+                permils.add(permil);
+            }
+
+            public void progress(ProgressEvent event) {
+                duration[0] = event.getDuration();
+                EncoderProgressListener.super.progress(event);
+            }
+
+            public void message(String message) {
+            }
+        });
+        Assert.assertEquals(expected, duration[0]);
+        Assert.assertEquals(Integer.valueOf(1000), permils.get(permils.size() - 1));
+    }
+
+    @Test
+    public void slowListener() throws Exception {
+        //慢监听器在单独线程上回调，进度事件合并，只保留最新的
+        File source = new File("target/test-classes/material/longAudio.mp3");
+        File target = new File("target/test-classes/material/longAudio-slow.wav");
+        AudioAttributes audio = new AudioAttributes();
+        audio.setCodec("pcm_s16le");
+        EncodingAttributes attrs = new EncodingAttributes();
+        attrs.setFormat("wav");
+        attrs.setAudioAttributes(audio);
+        final List<ProgressEvent> events = new ArrayList<>();
+        final List<String> threads = new ArrayList<>();
+        Encoder encoder = new Encoder();
+        encoder.setProgressDispatcher(new ProgressDispatcher(Executors.newSingleThreadExecutor(), 200L));
+        encoder.encode(source, target, attrs, new EncoderProgressListener() {
+            public void sourceInfo(MultimediaInfo info) {
+            }
+
+            public void progress(int permil) {
+            }
+
+            public void progress(ProgressEvent event) {
+                events.add(event);
+                threads.add(Thread.currentThread().getName());
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            public void message(String message) {
+            }
+        });
+        System.out.println(events.size() + " events on " + threads);
+        Assert.assertTrue(events.get(events.size() - 1).isEnd());
+        Assert.assertFalse(threads.contains(Thread.currentThread().getName()));
+    }
+
+    @Test
+    public void infoCache() throws Exception {
+        //同一文件只探测一次，文件修改后重新探测
+        File luban = new File("target/test-classes/material/luban.mp3");
+        File lvbu = new File("target/test-classes/material/lvbu.wav");
+        MultimediaInfoCache cache = new MultimediaInfoCache(2, 0);
+        Encoder encoder = new Encoder();
+        encoder.setInfoCache(cache);
+        MultimediaInfo info = encoder.getInfo(luban);
+        MultimediaInfo cached = encoder.getInfo(luban);
+        Assert.assertNotSame(info, cached);
+        Assert.assertEquals(info.getAudio(), cached.getAudio());
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+
+        AudioAttributes audio = new AudioAttributes();
+        audio.setCodec("pcm_s16le");
+        EncodingAttributes attrs = new EncodingAttributes();
+        attrs.setFormat("wav");
+        attrs.setAudioAttributes(audio);
+        final MultimediaInfo[] sourceInfo = new MultimediaInfo[1];
+        encoder.encode(luban, new File("target/test-classes/material/luban-cache.wav"), attrs, new EncoderProgressListener() {
+            public void sourceInfo(MultimediaInfo info) {
+                sourceInfo[0] = info;
+            }
+
+            public void progress(int permil) {
+            }
+
+            public void message(String message) {
+            }
+        });
+        Assert.assertEquals(info.getAudio(), sourceInfo[0].getAudio());
+        Assert.assertEquals(2, cache.getHitCount());
+
+        //修改返回的信息不影响之后的查询
+        cached.getAudio().setBitRate(1);
+        cached.getAudio().setDecoder("changed");
+        Assert.assertEquals(info.getAudio(), encoder.getInfo(luban).getAudio());
+        Assert.assertEquals(3, cache.getHitCount());
+
+        encoder.getInfo(Arrays.asList(lvbu, new File("target/test-classes/material/diaochan.mp3")));
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1, cache.getEvictionCount());
+        encoder.getInfo(lvbu);
+        Assert.assertEquals(4, cache.getHitCount());
+
+        Assert.assertTrue(lvbu.setLastModified(lvbu.lastModified() + 1000));
+        Assert.assertNull(cache.get(lvbu));
+        cache.invalidate(lvbu);
+        Assert.assertEquals(1, cache.size());
+        System.out.println(cache);
+    }
+
+    @Test
+    public void mediaCatalog() throws Exception {
+        //探测结果持久化到内存映射文件，重启后直接读取
+        File luban = new File("target/test-classes/material/luban.mp3");
+        File face = new File("target/test-classes/material/face.mp4");
+        File file = new File("target/catalog/media.catalog");
+        file.delete();
+        MediaCatalog catalog = new MediaCatalog(file, 16);
+        Encoder encoder = new Encoder();
+        encoder.setCatalog(catalog);
+        MultimediaInfo audio = encoder.getInfo(luban);
+        MultimediaInfo video = encoder.getInfo(face);
+        // 超过容量的70%时扩容
+        for (int i = 0; i < 20; i++) {
+            catalog.put(new File("target/catalog/fake" + i + ".mp3"), audio);
+        }
+        catalog.close();
+
+        long start = System.nanoTime();
+        catalog = new MediaCatalog(file);
+        System.out.println("catalog opened in " + (System.nanoTime() - start) / 1000 + "us");
+        Assert.assertEquals(22, catalog.size());
+        MultimediaInfo cached = catalog.get(luban);
+        Assert.assertEquals(audio.getDuration(), cached.getDuration());
+        Assert.assertEquals(audio.getFormat(), cached.getFormat());
+        Assert.assertEquals(audio.getAudio().getSamplingRate(), cached.getAudio().getSamplingRate());
+        Assert.assertNull(cached.getVideo());
+        cached = catalog.get(face);
+        Assert.assertEquals(video.getVideo().getSize().getWidth(), cached.getVideo().getSize().getWidth());
+        Assert.assertEquals(video.getVideo().getFrameRate(), cached.getVideo().getFrameRate(), 0.001F);
+
+        Assert.assertTrue(face.setLastModified(face.lastModified() + 1000));
+        Assert.assertNull(catalog.get(face));
+        catalog.remove(luban);
+        Assert.assertNull(catalog.get(luban));
+        Assert.assertEquals(21, catalog.size());
+
+        // 多音轨的文件不写入目录，避免读取时丢失其它音轨
+        MultimediaInfo tracks = new MultimediaInfo();
+        tracks.setAudio(audio.getAudio());
+        tracks.setAudioStreams(Arrays.asList(audio.getAudio(), audio.getAudio()));
+        catalog.put(luban, tracks);
+        Assert.assertNull(catalog.get(luban));
+
+        // 同一时间只能由一个实例打开
+        try {
+            new MediaCatalog(file);
+            Assert.fail("catalog opened twice");
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+        catalog.close();
+        new MediaCatalog(file).close();
+    }
+
+    @Test
+    public void outputCache() throws Exception {
+        //相同内容相同参数的转换直接复制缓存的结果，不再执行ffmpeg
+        File source = new File("target/test-classes/material/luban.mp3");
+        File target1 = new File("target/test-classes/material/luban-cached1.wav");
+        File target2 = new File("target/test-classes/material/luban-cached2.wav");
+        File dir = new File("target/output-cache");
+        OutputCache cache = new OutputCache(dir, 64L * 1024 * 1024);
+        cache.clear();
+        Encoder encoder = new Encoder();
+        encoder.setOutputCache(cache);
+        AudioAttributes audio = new AudioAttributes();
+        audio.setCodec("pcm_s16le");
+        EncodingAttributes attrs = new EncodingAttributes();
+        attrs.setFormat("wav");
+        attrs.setAudioAttributes(audio);
+        encoder.encode(source, target1, attrs);
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(1, cache.size());
+
+        attrs.setTimeout(60000L);
+        long start = System.nanoTime();
+        encoder.encode(source, target2, attrs);
+        System.out.println("hit served in " + (System.nanoTime() - start) / 1000 + "us, " + cache);
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(target1.length(), target2.length());
+
+        audio.setSamplingRate(22050);
+        encoder.encode(source, target2, attrs);
+        Assert.assertEquals(2, cache.getMissCount());
+
+        // 超出容量时淘汰最久未使用的结果
+        cache = new OutputCache(dir, target1.length() + 1);
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void encodingPlan() throws Exception {
+        //源文件已符合要求时直接复制，只换容器时流复制
+        File source = new File("target/test-classes/material/luban.mp3");
+        File mp3Target = new File("target/test-classes/material/luban-planned.mp3");
+        File mkvTarget = new File("target/test-classes/material/luban-planned.mkv");
+        Encoder encoder = new Encoder();
+        encoder.setInfoCache(new MultimediaInfoCache(16, 0));
+        encoder.setEncodingPlanning(true);
+        AudioAttributes audio = new AudioAttributes();
+        audio.setCodec("libmp3lame");
+        EncodingAttributes attrs = new EncodingAttributes();
+        attrs.setAudioAttributes(audio);
+        encoder.encode(source, mp3Target, attrs);
+        Assert.assertEquals(1, encoder.getPlanCount(EncodingPlanTypeEnum.SKIP));
+        Assert.assertEquals(source.length(), mp3Target.length());
+
+        encoder.encode(source, mkvTarget, attrs);
+        Assert.assertEquals(1, encoder.getPlanCount(EncodingPlanTypeEnum.REMUX));
+        MultimediaInfo info = encoder.getInfo(mkvTarget);
+        Assert.assertEquals("matroska", info.getFormat());
+        Assert.assertTrue(info.getAudio().getDecoder().startsWith("mp3"));
+
+        audio.setSamplingRate(22050);
+        Assert.assertEquals(EncodingPlanTypeEnum.TRANSCODE, encoder.plan(source, mp3Target, attrs));
+        audio.setSamplingRate(null);
+        audio.setCodec(null);
+        attrs.setFormat("wav");
+        Assert.assertEquals(EncodingPlanTypeEnum.TRANSCODE, encoder.plan(source, mp3Target, attrs));
+        System.out.println("plans: skip=" + encoder.getPlanCount(EncodingPlanTypeEnum.SKIP)
+                + ", remux=" + encoder.getPlanCount(EncodingPlanTypeEnum.REMUX));
+    }
+
+    @Test
+    public void smartCut() throws Exception {
+        //音频帧都是关键帧，剪切时直接复制
+        Encoder encoder = new Encoder();
+        encoder.setInfoCache(new MultimediaInfoCache(16, 0));
+        encoder.setSmartCut(true);
+        AudioAttributes audio = new AudioAttributes();
+        audio.setCodec("libmp3lame");
+        audio.setStartTime("00:00:02");
+        audio.setDuration("3");
+        EncodingAttributes attrs = new EncodingAttributes();
+        attrs.setFormat("mp3");
+        attrs.setAudioAttributes(audio);
+        File target = new File("target/test-classes/material/luban-cut.mp3");
+        encoder.encode(new File("target/test-classes/material/luban.mp3"), target, attrs);
+        Assert.assertEquals(1, encoder.getPlanCount(EncodingPlanTypeEnum.SMART_CUT));
+        Assert.assertEquals(3000, encoder.getInfo(target).getDuration(), 100);
+
+        // 需要转码时也在输入端定位
+        audio.setCodec("pcm_s16le");
+        attrs.setFormat("wav");
+        target = new File("target/test-classes/material/luban-cut.wav");
+        encoder.encode(new File("target/test-classes/material/luban.mp3"), target, attrs);
+        Assert.assertEquals(1, encoder.getPlanCount(EncodingPlanTypeEnum.SMART_CUT));
+        Assert.assertEquals(3000, encoder.getInfo(target).getDuration(), 100);
+    }
+
+    @Test
+    public void parallelAudio() throws Exception {
+        //长音频按编码帧分段并行编码，拼接后与串行编码的帧数、时长一致
+        File source = new File("target/test-classes/material/longAudio.mp3");
+        AudioAttributes audio = new AudioAttributes();
+        audio.setCodec("libmp3lame");
+        audio.setBitRate(96000);
+        EncodingAttributes attrs = new EncodingAttributes();
+        attrs.setFormat("mp3");
+        attrs.setAudioAttributes(audio);
+        Encoder encoder = new Encoder();
+        File serial = new File("target/test-classes/material/longAudio-serial.mp3");
+        encoder.encode(source, serial, attrs);
+        File target = new File("target/test-classes/material/longAudio-parallel.mp3");
+        ParallelEncodingResult result = encoder.encodeParallel(source, target, attrs, 4, null);
+        System.out.println(result + ", speedup " + result.getSpeedup());
+        Assert.assertEquals(4, result.getSegments());
+        Assert.assertTrue(result.getSpeedup() > 0);
+        Assert.assertEquals(encoder.getInfo(serial).getDuration(), encoder.getInfo(target).getDuration(), 30);
+
+        // aac 和 opus 同样按帧对齐拼接
+        for (String[] format : new String[][]{{"ipod", "m4a"}, {"opus", "opus"}}) {
+            target = new File("target/test-classes/material/longAudio-parallel." + format[1]);
+            result = AudioUtils.convertParallel(source, target, format[0], 3);
+            Assert.assertEquals(3, result.getSegments());
+            Assert.assertEquals(encoder.getInfo(source).getDuration(), encoder.getInfo(target).getDuration(), 100);
+        }
+    }
+
+    @Test
+    public void encodeBatch() throws Exception {
+        //批量转换：工作窃取线程池并行执行，按完成顺序返回结果，单个失败不影响其它任务
+        AudioAttributes audio = new AudioAttributes();
+        audio.setCodec("pcm_s16le");
+        EncodingAttributes attrs = new EncodingAttributes();
+        attrs.setFormat("wav");
+        attrs.setAudioAttributes(audio);
+        List<EncodeJob> jobs = new ArrayList<>();
+        for (String name : Arrays.asList("luban.mp3", "missing.mp3", "longAudio.mp3", "diaochan.mp3")) {
+            jobs.add(new EncodeJob(new File("target/test-classes/material/" + name),
+                    new File("target/test-classes/material/batch-" + name + ".wav"), attrs));
+        }
+        Encoder encoder = new Encoder();
+        // 单个工作线程时按时长从长到短依次执行
+        EncodeBatch batch = encoder.encodeBatch(jobs, 1, true);
+        List<EncodeResult> results = new ArrayList<>();
+        for (EncodeResult result : batch) {
+            System.out.println(result.getJob().getSource().getName() + " waited " + result.getWaitMillis()
+                    + "ms, encoded in " + result.getEncodeMillis() + "ms, success " + result.isSuccess());
+            results.add(result);
+        }
+        Assert.assertEquals(4, results.size());
+        Assert.assertEquals("longAudio.mp3", results.get(0).getJob().getSource().getName());
+        Assert.assertEquals("missing.mp3", results.get(3).getJob().getSource().getName());
+        Assert.assertFalse(results.get(3).isSuccess());
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(results.get(i).isSuccess());
+            Assert.assertTrue(results.get(i).getJob().getTarget().length() > 0);
+        }
+        Assert.assertEquals(results, batch.getResults());
+
+        // 多个工作线程并行执行
+        batch = encoder.encodeBatch(jobs, 4, false);
+        results = batch.getResults();
+        Assert.assertEquals(4, results.size());
+        int failures = 0;
+        for (EncodeResult result : results) {
+            failures += result.isSuccess() ? 0 : 1;
+        }
+        Assert.assertEquals(1, failures);
+
+        // 工具类忽略 ffmpeg 的错误输出，源文件不存在的任务仍然报告失败
+        results = AudioUtils.operateBatch(jobs).getResults();
+        Assert.assertEquals(4, results.size());
+        for (EncodeResult result : results) {
+            boolean missing = "missing.mp3".equals(result.getJob().getSource().getName());
+            Assert.assertEquals(!missing, result.isSuccess());
+        }
+    }
+
+    @Test
+    public void encodeOutputs() throws Exception {
+        //一次解码同时生成多个输出：mp3、16k wav、音波图和低码率试听
+        File source = new File("target/test-classes/material/diaochan.mp3");
+        AudioAttributes mp3 = new AudioAttributes();
+        mp3.setCodec("libmp3lame");
+        mp3.setBitRate(128000);
+        AudioAttributes wav = new AudioAttributes();
+        wav.setCodec("pcm_s16le");
+        wav.setSamplingRate(16000);
+        wav.setChannels(1);
+        AudioAttributes waveform = new AudioAttributes();
+        waveform.setFilterComplex("showwavespic=s=640x120");
+        AudioAttributes preview = new AudioAttributes();
+        preview.setCodec("libmp3lame");
+        preview.setBitRate(32000);
+        preview.setChannels(1);
+        preview.setAf_volume("0.5");
+        preview.setDuration("2");
+        List<OutputSpec> outputs = new ArrayList<>();
+        outputs.add(new OutputSpec(new File("target/test-classes/material/outputs.mp3"), attributes("mp3", mp3)));
+        outputs.add(new OutputSpec(new File("target/test-classes/material/outputs.wav"), attributes("wav", wav)));
+        outputs.add(new OutputSpec(new File("target/test-classes/material/outputs.png"), attributes(null, waveform)));
+        outputs.add(new OutputSpec(new File("target/test-classes/material/outputs-preview.mp3"), attributes("mp3", preview)));
+        Encoder encoder = new Encoder();
+        List<OutputResult> results = encoder.encode(source, outputs);
+        for (OutputResult result : results) {
+            Assert.assertTrue(result.isSuccess());
+            Assert.assertTrue(result.isShared());
+            Assert.assertTrue(result.getOutput().getTarget().length() > 0);
+        }
+        long duration = encoder.getInfo(source).getDuration();
+        Assert.assertEquals(duration, encoder.getInfo(outputs.get(0).getTarget()).getDuration(), 100);
+        Assert.assertEquals(16000, encoder.getInfo(outputs.get(1).getTarget()).getAudio().getSamplingRate());
+        Assert.assertEquals(2000, encoder.getInfo(outputs.get(3).getTarget()).getDuration(), 100);
+
+        // 某个输出无法打开时，其它输出分别单独编码，各自返回结果
+        AudioAttributes broken = new AudioAttributes();
+        broken.setCodec("nosuchcodec");
+        outputs.add(new OutputSpec(new File("target/test-classes/material/outputs-broken.mp3"), attributes("mp3", broken)));
+        results = encoder.encode(source, outputs);
+        Assert.assertEquals(5, results.size());
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(results.get(i).isSuccess());
+            Assert.assertFalse(results.get(i).isShared());
+        }
+        Assert.assertFalse(results.get(4).isSuccess());
+    }
+
+    private static EncodingAttributes attributes(String format, AudioAttributes audio) {
+        EncodingAttributes attrs = new EncodingAttributes();
+        attrs.setFormat(format);
+        attrs.setAudioAttributes(audio);
+        return attrs;
+    }
+
+    @Test
+    public void singleFlight() throws Exception {
+        //并发的相同转换只执行一次ffmpeg，其余调用等待结果
+        final File source = new File("target/test-classes/material/longAudio.mp3");
+        AudioAttributes audio = new AudioAttributes();
+        audio.setCodec("pcm_s16le");
+        audio.setAf("aecho=0.8:0.9:1000:0.3");
+        final EncodingAttributes attrs = new EncodingAttributes();
+        attrs.setFormat("wav");
+        attrs.setAudioAttributes(audio);
+        SingleFlight singleFlight = new SingleFlight();
+        final Encoder encoder = new Encoder();
+        encoder.setSingleFlight(singleFlight);
+        List<Future<File>> futures = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 4; i++) {
+            final File target = new File("target/test-classes/material/longAudio-flight" + i + ".wav");
+            futures.add(executor.submit(new Callable<File>() {
+                public File call() throws Exception {
+                    encoder.encode(source, target, attrs);
+                    return target;
+                }
+            }));
+        }
+        long length = -1;
+        for (Future<File> future : futures) {
+            File target = future.get();
+            Assert.assertTrue(target.length() > 0);
+            Assert.assertTrue(length < 0 || length == target.length());
+            length = target.length();
+        }
+        executor.shutdown();
+        System.out.println(singleFlight);
+        Assert.assertEquals(4, singleFlight.getRunCount() + singleFlight.getSavedCount());
+        Assert.assertTrue(singleFlight.getSavedCount() > 0);
+        Assert.assertEquals(0, singleFlight.getRunningCount());
+
+        // 不同的编码器（错误处理方式不同）不共享同一次转换
+        long runs = singleFlight.getRunCount();
+        long saved = singleFlight.getSavedCount();
+        final Encoder lenient = new IgnoreErrorEncoder();
+        lenient.setSingleFlight(singleFlight);
+        executor = Executors.newFixedThreadPool(2);
+        futures.clear();
+        for (final Encoder each : Arrays.asList(encoder, lenient)) {
+            final File target = new File("target/test-classes/material/longAudio-flight-" + each.getClass().getSimpleName() + ".wav");
+            futures.add(executor.submit(new Callable<File>() {
+                public File call() throws Exception {
+                    each.encode(source, target, attrs);
+                    return target;
+                }
+            }));
+        }
+        for (Future<File> future : futures) {
+            Assert.assertTrue(future.get().length() > 0);
+        }
+        executor.shutdown();
+        Assert.assertEquals(runs + 2, singleFlight.getRunCount());
+        Assert.assertEquals(saved, singleFlight.getSavedCount());
+    }
+
 
 
 
@@ -0,0 +1,262 @@
+package it.sauronsoftware.jave;
+
+import it.sauronsoftware.jave.audio.AudioInfo;
+import it.sauronsoftware.jave.audio.VolumedetectInfo;
+import it.sauronsoftware.jave.video.VideoInfo;
+import it.sauronsoftware.jave.video.VideoSize;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.StringTokenizer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The regex based ffmpeg output parser used before {@link MultimediaInfoParser},
+ * kept as the reference of {@link MultimediaInfoParserTest} and the baseline of
+ * {@link MultimediaInfoParserBenchmark}.
+ */
+class LegacyMultimediaInfoParser {
+
+    /**
+     * This regexp is used to parse the ffmpeg output about the size of a video
+     * stream.
+     */
+    private static final Pattern SIZE_PATTERN = Pattern.compile("(\\d+)x(\\d+)", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * This regexp is used to parse the ffmpeg output about the frame rate value
+     * of a video stream.
+     */
+    private static final Pattern FRAME_RATE_PATTERN = Pattern.compile("([\\d.]+)\\s+(?:fps|tb\\(r\\))", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * This regexp is used to parse the ffmpeg output about the bit rate value
+     * of a stream.
+     */
+    private static final Pattern BIT_RATE_PATTERN = Pattern.compile("(\\d+)\\s+kb/s", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * This regexp is used to parse the ffmpeg output about the sampling rate of
+     * an audio stream.
+     */
+    private static final Pattern SAMPLING_RATE_PATTERN = Pattern.compile("(\\d+)\\s+Hz", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * This regexp is used to parse the ffmpeg output about the channels number
+     * of an audio stream.
+     */
+    private static final Pattern CHANNELS_PATTERN = Pattern.compile("(mono|stereo)", Pattern.CASE_INSENSITIVE);
+
+    static MultimediaInfo parse(File source, RBufferedReader reader, int input) throws InputFormatException, EncoderException {
+        Pattern p1 = Pattern.compile("^\\s*Input #" + input + ", (\\w+).+$\\s*", Pattern.CASE_INSENSITIVE);
+        Pattern p2 = Pattern.compile("^\\s*Duration: (\\d\\d):(\\d\\d):(\\d\\d)\\.(\\d).*$", Pattern.CASE_INSENSITIVE);
+        Pattern p3 = Pattern.compile("^\\s*Stream #\\S+: ((?:Audio)|(?:Video)|(?:Data)): (.*)\\s*$", Pattern.CASE_INSENSITIVE);
+        Pattern p4 = Pattern.compile("(\\[Parsed_volumedetect_0 @ )(\\w*)\\] ([a-z_A-Z]*)(\\d*)([a-zA-Z: ]*)([-.\\d]*)", Pattern.CASE_INSENSITIVE);
+        MultimediaInfo info = null;
+        boolean videoInfo = false;
+        boolean audioInfo = false;
+        int creationflag = 0;
+        LinkedList<String> creations = new LinkedList<String>();
+        VideoInfo video = new VideoInfo();
+        AudioInfo audio = new AudioInfo();
+        try {
+            int step = 0;
+            while (true) {
+                String line = reader.readLine();
+                if (line == null) {
+                    break;
+                }
+                if (step == 0) {
+                    String token = source.getAbsolutePath() + ": ";
+                    if (line.startsWith(token)) {
+                        String message = line.substring(token.length());
+                        throw new InputFormatException(message);
+                    }
+                    Matcher m = p1.matcher(line);
+                    boolean flag = false;
+                    if (m.matches()) {
+                        String format = m.group(1);
+                        info = new MultimediaInfo();
+                        info.setFormat(format);
+                        step++;
+                        creations.add("metadata@");
+                    }
+                }
+                if (step == 1) {
+                    Matcher m = p2.matcher(line);
+                    if (m.matches()) {
+                        long hours = Integer.parseInt(m.group(1));
+                        long minutes = Integer.parseInt(m.group(2));
+                        long seconds = Integer.parseInt(m.group(3));
+                        long dec = Integer.parseInt(m.group(4));
+                        long duration = (dec * 100L) + (seconds * 1000L) + (minutes * 60L * 1000L) + (hours * 60L * 60L * 1000L);
+                        info.setDuration(duration);
+                        step++;
+                    }
+                }
+                if (step == 2) {
+                    Matcher m = p3.matcher(line);
+                    if (m.matches()) {
+                        String type = m.group(1);
+                        String specs = m.group(2);
+                        if ("Video".equalsIgnoreCase(type)) {
+                            StringTokenizer st = new StringTokenizer(specs, ",");
+                            for (int i = 0; st.hasMoreTokens(); i++) {
+                                String token = st.nextToken().trim();
+                                if (i == 0) {
+                                    video.setDecoder(token);
+                                } else {
+                                    boolean parsed = false;
+                                    // Video size.
+                                    Matcher m2 = SIZE_PATTERN.matcher(token);
+                                    if (!parsed && m2.find()) {
+                                        int width = Integer.parseInt(m2.group(1));
+                                        int height = Integer.parseInt(m2.group(2));
+                                        video.setSize(new VideoSize(width, height));
+                                        parsed = true;
+                                    }
+                                    // Frame rate.
+                                    m2 = FRAME_RATE_PATTERN.matcher(token);
+                                    if (!parsed && m2.find()) {
+                                        try {
+                                            float frameRate = Float.parseFloat(m2.group(1));
+                                            video.setFrameRate(frameRate);
+                                        } catch (NumberFormatException e) {
+                                            ;
+                                        }
+                                        parsed = true;
+                                    }
+                                    // Bit rate.
+                                    m2 = BIT_RATE_PATTERN.matcher(token);
+                                    if (!parsed && m2.find()) {
+                                        int bitRate = Integer.parseInt(m2.group(1));
+                                        video.setBitRate(bitRate);
+                                        parsed = true;
+                                    }
+                                }
+                            }
+                            info.setVideo(video);
+                            videoInfo = true;
+                            creations.add("video@");
+                        }
+                        if ("Audio".equalsIgnoreCase(type)) {
+                            StringTokenizer st = new StringTokenizer(specs, ",");
+                            for (int i = 0; st.hasMoreTokens(); i++) {
+                                String token = st.nextToken().trim();
+                                if (i == 0) {
+                                    audio.setDecoder(token);
+                                } else {
+                                    boolean parsed = false;
+                                    // Sampling rate.
+                                    Matcher m2 = SAMPLING_RATE_PATTERN.matcher(token);
+                                    if (!parsed && m2.find()) {
+                                        int samplingRate = Integer.parseInt(m2.group(1));
+                                        audio.setSamplingRate(samplingRate);
+                                        parsed = true;
+                                    }
+                                    // Channels.
+                                    m2 = CHANNELS_PATTERN.matcher(token);
+                                    if (!parsed && m2.find()) {
+                                        String ms = m2.group(1);
+                                        if ("mono".equalsIgnoreCase(ms)) {
+                                            audio.setChannels(1);
+                                        } else if ("stereo".equalsIgnoreCase(ms)) {
+                                            audio.setChannels(2);
+                                        }
+                                        parsed = true;
+                                    }
+                                    // Bit rate.
+                                    m2 = BIT_RATE_PATTERN.matcher(token);
+                                    if (!parsed && m2.find()) {
+                                        int bitRate = Integer.parseInt(m2.group(1));
+                                        audio.setBitRate(bitRate);
+                                        parsed = true;
+                                    }
+                                }
+                            }
+                            info.setAudio(audio);
+                            audioInfo = true;
+                            creations.add("audio@");
+                        }
+                    }
+                    if (audioInfo == true && videoInfo == true && creationflag == 3) {
+                        step = 3;
+                        for (String creation : creations) {
+                            if (creation == null || creation == "") continue;
+                            String[] split = creation.split("@");
+                            if (creation.contains("metadata")) {
+                                info.setCreationTime(DateUtil.UTCGMT2Date(split[1]));
+                                continue;
+                            }
+                            if (creation.contains("video")) {
+                                video.setCreationTime(DateUtil.UTCGMT2Date(split[1]));
+                                info.setVideo(video);
+                                continue;
+                            }
+                            if (creation.contains("audio")) {
+                                audio.setCreationTime(DateUtil.UTCGMT2Date(split[1]));
+                                info.setAudio(audio);
+                            }
+                        }
+                    }
+                }
+                if (line.contains("creation_time")) {
+                    String[] split = line.split(" :");
+                    if (split.length == 2) {
+                        creationflag++;
+                        creations.set(creations.size() - 1, creations.getLast() + split[1].trim());
+                    }
+                }
+
+                Matcher m = p4.matcher(line);
+                if (m.find()) {
+                    if (audio == null) {
+                        audio = new AudioInfo();
+                    }
+                    if (audio.getVolumedetect() == null) {
+                        VolumedetectInfo volumedetectInfo = new VolumedetectInfo();
+                        audio.setVolumedetect(volumedetectInfo);
+                    }
+                    if (audio.getVolumedetect().getHistogramMap() == null) {
+                        HashMap<String, String> map = new HashMap<>();
+                        audio.getVolumedetect().setHistogramMap(map);
+                    }
+                    String type = m.group(3);
+                    if (type == null || type.length() == 0) {
+                        continue;
+                    }
+                    String group = m.group(4);
+                    String value = m.group(6);
+                    switch (type) {
+                        case "n_samples":
+                            break;
+                        case "mean_volume":
+                            audio.getVolumedetect().setMeanVolume(value);
+                            break;
+                        case "max_volume":
+                            audio.getVolumedetect().setMaxVolume(value);
+                            break;
+                        case "histogram_":
+                            audio.getVolumedetect().getHistogramMap().put(group + "db", value);
+                            break;
+                    }
+
+                }
+                if (step == 3) {
+                    reader.reinsertLine(line);
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new EncoderException(e);
+        }
+        if (info == null) {
+            throw new InputFormatException();
+        }
+        return info;
+    }
+
+}
@@ -0,0 +1,66 @@
+package it.sauronsoftware.jave;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ffmpeg输出解析的JMH基准测试，对比旧的正则解析器，运行main方法，
+ * gc.alloc.rate.norm为每次解析分配的字节数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultimediaInfoParserBenchmark {
+
+    @Param({"luban.mp3", "face.mp4", "lvbu.wav", "av.mp4", "luban.mp3-volumedetect"})
+    public String fixture;
+
+    private String output;
+
+    private File source;
+
+    @Setup
+    public void setup() throws Exception {
+        output = MultimediaInfoParserTest.fixture(fixture);
+        source = new File("target/test-classes/material/luban.mp3");
+    }
+
+    @Benchmark
+    public MultimediaInfo legacy() throws Exception {
+        return LegacyMultimediaInfoParser.parse(source, new RBufferedReader(new StringReader(output)), 0);
+    }
+
+    @Benchmark
+    public MultimediaInfo stateMachine() throws Exception {
+        return MultimediaInfoParser.parse(source, new RBufferedReader(new StringReader(output)), 0);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(MultimediaInfoParserBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,58 @@
+package it.sauronsoftware.jave;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.StringReader;
+
+/**
+ * ffmpeg输出解析测试，新解析器的结果与旧的正则解析器一致
+ */
+public class MultimediaInfoParserTest {
+
+    static final String[] FIXTURES = {"luban.mp3", "face.mp4", "lvbu.wav", "av.mp4", "luban.mp3-volumedetect"};
+
+    static String fixture(String name) throws Exception {
+        return FileUtils.readFileToString(new File("target/test-classes/probe/" + name + ".txt"), "utf-8");
+    }
+
+    @Test
+    public void sameAsLegacyParser() throws Exception {
+        File source = new File("target/test-classes/material/luban.mp3");
+        for (String name : FIXTURES) {
+            String output = fixture(name);
+            MultimediaInfo expected = LegacyMultimediaInfoParser.parse(source, new RBufferedReader(new StringReader(output)), 0);
+            MultimediaInfo actual = MultimediaInfoParser.parse(source, new RBufferedReader(new StringReader(output)), 0);
+            System.out.println(actual);
+            Assert.assertEquals(name, expected.toString(), actual.toString());
+        }
+    }
+
+    @Test
+    public void creationTimes() throws Exception {
+        File source = new File("target/test-classes/material/av.mp4");
+        MultimediaInfo info = MultimediaInfoParser.parse(source, new RBufferedReader(new StringReader(fixture("av.mp4"))), 0);
+        Assert.assertNotNull(info.getCreationTime());
+        Assert.assertEquals(info.getCreationTime(), info.getVideo().getCreationTime());
+        Assert.assertEquals(info.getCreationTime(), info.getAudio().getCreationTime());
+        Assert.assertEquals(2000, info.getDuration());
+    }
+
+    @Test
+    public void volumedetect() throws Exception {
+        File source = new File("target/test-classes/material/luban.mp3");
+        MultimediaInfo info = MultimediaInfoParser.parse(source, new RBufferedReader(new StringReader(fixture("luban.mp3-volumedetect"))), 0);
+        Assert.assertNotNull(info.getAudio().getVolumedetect().getMaxVolume());
+        Assert.assertFalse(info.getAudio().getVolumedetect().getHistogramMap().isEmpty());
+    }
+
+    @Test(expected = InputFormatException.class)
+    public void inputFormatError() throws Exception {
+        File source = new File("pom.xml");
+        String output = source.getAbsolutePath() + ": Invalid data found when processing input\n";
+        MultimediaInfoParser.parse(source, new RBufferedReader(new StringReader(output)), 0);
+    }
+
+}
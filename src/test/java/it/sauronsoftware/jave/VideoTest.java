@@ -1,14 +1,19 @@
 package it.sauronsoftware.jave;
 
 import it.sauronsoftware.jave.audio.AudioAttributes;
+import it.sauronsoftware.jave.enumers.EncodingPlanTypeEnum;
 import it.sauronsoftware.jave.video.VideoAttributes;
+import it.sauronsoftware.jave.video.VideoSize;
 import it.sauronsoftware.jave.video.VideoUtils;
 import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 
 /**
  * 视频转换测试
@@ -39,6 +44,162 @@ public class VideoTest {
         VideoUtils.thumbnailByOneFrameEveryFiveSecondsAndStartTime(source, target, startTime, "5");
     }
 
+    @Test
+    public void thumbnails() throws EncoderException {
+        File source = new File("target/test-classes/material/face.mp4");
+        File directory = new File("target/test-classes/material/thumbnails");
+        //在输入端定位，并行抽取指定时间点的缩略图，不从头解码
+        List<File> thumbnails = VideoUtils.thumbnails(source, directory, true, 1, 3.5, 7);
+        Assert.assertEquals(3, thumbnails.size());
+        Encoder encoder = new Encoder();
+        for (File thumbnail : thumbnails) {
+            Assert.assertEquals(1280, encoder.getInfo(thumbnail).getVideo().getSize().getWidth());
+        }
+        //只取关键帧，缩小尺寸；超出时长的时间点单独失败
+        VideoAttributes video = new VideoAttributes();
+        video.setSize(new VideoSize(320, 180));
+        List<OutputSpec> frames = new ArrayList<>();
+        for (float offset : new float[]{2, 6, 60}) {
+            EncodingAttributes attrs = new EncodingAttributes();
+            attrs.setOffset(offset);
+            attrs.setVideoAttributes(video);
+            frames.add(new OutputSpec(new File(directory, "keyframe-" + offset + ".jpg"), attrs));
+        }
+        List<OutputResult> results = encoder.thumbnails(source, frames, false, 2);
+        Assert.assertTrue(results.get(0).isSuccess());
+        Assert.assertTrue(results.get(1).isSuccess());
+        Assert.assertFalse(results.get(2).isSuccess());
+        Assert.assertEquals(320, encoder.getInfo(frames.get(0).getTarget()).getVideo().getSize().getWidth());
+    }
+
+    @Test
+    public void thumbnailFast() throws EncoderException {
+        File source = new File("target/test-classes/material/face.mp4");
+        File directory = new File("target/test-classes/material/fast");
+        directory.mkdirs();
+        //关键帧足够密集时只解码关键帧，并在滤镜链开头缩小尺寸
+        Encoder encoder = new Encoder();
+        VideoAttributes video = new VideoAttributes();
+        video.setSize(new VideoSize(320, 180));
+        EncodingAttributes attrs = new EncodingAttributes();
+        attrs.setVideoAttributes(video);
+        Assert.assertTrue(encoder.thumbnails(source, new File(directory, "key-%3d.jpg"), attrs, 4, true));
+        Assert.assertEquals(320, encoder.getInfo(new File(directory, "key-001.jpg")).getVideo().getSize().getWidth());
+        //关键帧过于稀疏时按精确方式抽取
+        Assert.assertFalse(encoder.thumbnails(source, new File(directory, "exact-%3d.jpg"), attrs, 0.5, true));
+        Assert.assertTrue(new File(directory, "exact-016.jpg").isFile());
+    }
+
+    @Test
+    public void encodeCpuTimeLimit() {
+        File source = new File("target/test-classes/material/face.mp4");
+        File target = new File("target/test-classes/material/face-cputime.mp4");
+        //超过cpu时间限制时停止ffmpeg，删除不完整的目标文件
+        VideoAttributes video = new VideoAttributes();
+        video.setCodec("libx264");
+        video.setSize(new VideoSize(1920, 1080));
+        EncodingAttributes attrs = new EncodingAttributes();
+        attrs.setFormat("mp4");
+        attrs.setVideoAttributes(video);
+        attrs.setCpuTimeLimit(1);
+        try {
+            new Encoder().encode(source, target, attrs);
+            Assert.fail("cpu time limit not enforced");
+        } catch (EncoderTimeoutException e) {
+            Assert.assertTrue(e.isCpuTime());
+        } catch (EncoderException e) {
+            throw new IllegalStateException(e);
+        }
+        Assert.assertFalse(target.exists());
+    }
+
+    @Test
+    public void encodingPlan() throws Exception {
+        //视频流可以复制，音频需要重新编码
+        Encoder encoder = new Encoder();
+        File source = new File("target/test-classes/material/luban.mp3");
+        MultimediaInfo face = encoder.getInfo(new File("target/test-classes/material/face.mp4"));
+        MultimediaInfo both = new MultimediaInfo();
+        both.setFormat(face.getFormat());
+        both.setVideo(face.getVideo());
+        both.setAudio(encoder.getInfo(source).getAudio());
+        VideoAttributes video = new VideoAttributes();
+        video.setFrameRate(24);
+        EncodingAttributes attrs = new EncodingAttributes();
+        attrs.setVideoAttributes(video);
+        attrs.setAudioAttributes(new AudioAttributes());
+        File mp4Target = new File("target/test-classes/material/face-planned.mp4");
+        Assert.assertEquals(EncodingPlanTypeEnum.AUDIO_ONLY, EncodingPlanner.plan(both, source, mp4Target, attrs));
+        video.setFrameRate(25);
+        Assert.assertEquals(EncodingPlanTypeEnum.TRANSCODE, EncodingPlanner.plan(both, source, mp4Target, attrs));
+    }
+
+    @Test
+    public void smartCut() throws Exception {
+        //剪切时在输入端定位，复制中间完整的 GOP，只重新编码两端
+        Encoder encoder = new Encoder();
+        encoder.setInfoCache(new MultimediaInfoCache(16, 0));
+        encoder.setSmartCut(true);
+        VideoAttributes video = new VideoAttributes();
+        video.setStartTime("1");
+        video.setDuration("6");
+        EncodingAttributes attrs = new EncodingAttributes();
+        attrs.setVideoAttributes(video);
+        File target = new File("target/test-classes/material/face-cut.mp4");
+        long start = System.currentTimeMillis();
+        encoder.encode(new File("target/test-classes/material/face.mp4"), target, attrs);
+        System.out.println("video cut in " + (System.currentTimeMillis() - start) + "ms");
+        Assert.assertEquals(1, encoder.getPlanCount(EncodingPlanTypeEnum.SMART_CUT));
+        MultimediaInfo info = encoder.getInfo(target);
+        Assert.assertEquals(6000, info.getDuration(), 100);
+        Assert.assertEquals(24, info.getVideo().getFrameRate(), 0.1);
+    }
+
+    @Test
+    public void parallelVideo() throws Exception {
+        //视频按关键帧分段，多个ffmpeg进程并行转码后拼接
+        Encoder encoder = new Encoder();
+        encoder.setParallelSegments(3);
+        VideoAttributes video = new VideoAttributes();
+        video.setCodec("libx264");
+        video.setSize(new VideoSize(640, 360));
+        EncodingAttributes attrs = new EncodingAttributes();
+        attrs.setFormat("mp4");
+        attrs.setVideoAttributes(video);
+        final List<Integer> permils = new ArrayList<>();
+        File target = new File("target/test-classes/material/face-parallel.mp4");
+        long start = System.currentTimeMillis();
+        encoder.encode(new File("target/test-classes/material/face.mp4"), target, attrs, new EncoderProgressListener() {
+            public void sourceInfo(MultimediaInfo info) {
+            }
+
+            public synchronized void progress(int permil) {
+                permils.add(permil);
+            }
+
+            public void message(String message) {
+            }
+        });
+        System.out.println("video encoded in parallel in " + (System.currentTimeMillis() - start) + "ms");
+        MultimediaInfo info = encoder.getInfo(target);
+        Assert.assertEquals(8000, info.getDuration(), 100);
+        Assert.assertEquals(24, info.getVideo().getFrameRate(), 0.1);
+        Assert.assertEquals(640, info.getVideo().getSize().getWidth());
+        Assert.assertEquals(Integer.valueOf(1000), permils.get(permils.size() - 1));
+        for (int i = 1; i < permils.size(); i++) {
+            Assert.assertTrue(permils.get(i) >= permils.get(i - 1));
+        }
+
+        // 某一段失败时中止其它段
+        video.setVf("nosuchfilter");
+        try {
+            encoder.encode(new File("target/test-classes/material/face.mp4"), target, attrs);
+            Assert.fail();
+        } catch (EncoderException e) {
+            System.out.println("parallel encoding aborted: " + e.getMessage());
+        }
+    }
+
     @Test
     public void getVideo() throws EncoderException {
         File source = new File("target/test-classes/material/face.mp4");